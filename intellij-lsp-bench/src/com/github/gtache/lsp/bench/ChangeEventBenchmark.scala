@@ -0,0 +1,77 @@
+package com.github.gtache.lsp.bench
+
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.editor.DocumentChangesPipeline
+import com.github.gtache.lsp.utils.DocumentUtils
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.impl.DocumentImpl
+import org.eclipse.lsp4j.{Position, TextDocumentContentChangeEvent}
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import scala.util.Random
+
+/**
+  * Benchmarks the construction of the incremental change events sent to the servers
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class ChangeEventBenchmark {
+
+  private final val BATCH = 1000
+
+  @Param(Array("1024", "102400", "1048576", "10485760"))
+  var size: Int = _
+
+  private var doc: Document = _
+  private var starts: Array[Position] = _
+  private var replaced: Array[CharSequence] = _
+  private var typed: Array[TextDocumentContentChangeEvent] = _
+
+  @Setup
+  def setup(): Unit = {
+    doc = new DocumentImpl(SyntheticDocuments.text(size))
+    val random = new Random(size)
+    val chars = doc.getImmutableCharSequence
+    val offsets = Array.fill(BATCH)(random.nextInt(doc.getTextLength))
+    starts = offsets.map(o => DocumentUtils.offsetToLSPPos(doc, o))
+    //Replaces up to 1% of the document, which may span multiple lines
+    replaced = offsets.map(o => chars.subSequence(o, math.min(chars.length(), o + random.nextInt(math.max(1, size / 100)))))
+    val line = starts(0).getLine
+    typed = Array.tabulate(BATCH)(i => new TextDocumentContentChangeEvent(
+      new org.eclipse.lsp4j.Range(new Position(line, i), new Position(line, i)), 0, "a"))
+  }
+
+  /**
+    * Creates a change event for an edit replacing text at a random position
+    */
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def createChangeEvent(bh: Blackhole): Unit = {
+    var i = 0
+    while (i < BATCH) {
+      bh.consume(DocumentChangesPipeline.createChangeEvent(starts(i), replaced(i), "replacement"))
+      i += 1
+    }
+  }
+
+  /**
+    * Merges the change events of typing BATCH characters
+    */
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def mergeTypedChanges(bh: Blackhole): Unit = {
+    var merged = typed(0)
+    var i = 1
+    while (i < BATCH) {
+      merged = DocumentChangesPipeline.mergeChanges(merged, typed(i))
+      i += 1
+    }
+    bh.consume(merged)
+  }
+}
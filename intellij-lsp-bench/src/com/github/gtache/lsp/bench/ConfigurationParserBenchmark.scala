@@ -0,0 +1,43 @@
+package com.github.gtache.lsp.bench
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.settings.server.LSPConfiguration
+import com.github.gtache.lsp.settings.server.parser.JsonParser
+import org.openjdk.jmh.annotations._
+
+/**
+  * Benchmarks the parsing and flattening of JSON server configurations
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class ConfigurationParserBenchmark {
+
+  @Param(Array("1024", "102400", "1048576", "10485760"))
+  var size: Int = _
+
+  private val parser = new JsonParser
+  private var file: File = _
+
+  @Setup
+  def setup(): Unit = {
+    file = File.createTempFile("lsp-bench-config", ".json")
+    file.deleteOnExit()
+    Files.write(file.toPath, SyntheticDocuments.jsonConfiguration(size).getBytes(StandardCharsets.UTF_8))
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    file.delete()
+  }
+
+  @Benchmark
+  def parseJson(): LSPConfiguration = parser.parse(file)
+}
@@ -0,0 +1,66 @@
+package com.github.gtache.lsp.bench
+
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.utils.DocumentUtils
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.impl.DocumentImpl
+import org.eclipse.lsp4j.Position
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import scala.util.Random
+
+/**
+  * Benchmarks the conversions between offsets and LSP positions
+  * Each invocation converts BATCH random offsets or positions
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class DocumentUtilsBenchmark {
+
+  private final val BATCH = 1000
+
+  @Param(Array("1024", "102400", "1048576", "10485760"))
+  var size: Int = _
+
+  private var doc: Document = _
+  private var offsets: Array[Int] = _
+  private var positions: Array[Position] = _
+
+  @Setup
+  def setup(): Unit = {
+    doc = new DocumentImpl(SyntheticDocuments.text(size))
+    val random = new Random(size)
+    offsets = Array.fill(BATCH)(random.nextInt(doc.getTextLength))
+    positions = offsets.map(o => DocumentUtils.offsetToLSPPos(doc, o))
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def offsetToLSPPos(bh: Blackhole): Unit = {
+    offsets.foreach(o => bh.consume(DocumentUtils.offsetToLSPPos(doc, o)))
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def offsetToLSPPosCodePoints(bh: Blackhole): Unit = {
+    offsets.foreach(o => bh.consume(DocumentUtils.offsetToLSPPos(doc, o, codePoints = true)))
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def LSPPosToOffset(bh: Blackhole): Unit = {
+    positions.foreach(p => bh.consume(DocumentUtils.LSPPosToOffset(doc, p)))
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def expandOffsetToToken(bh: Blackhole): Unit = {
+    offsets.foreach(o => bh.consume(DocumentUtils.expandOffsetToToken(doc, o)))
+  }
+}
@@ -0,0 +1,37 @@
+package com.github.gtache.lsp.bench
+
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.requests.HoverHandler
+import org.eclipse.lsp4j.{Hover, MarkupContent}
+import org.openjdk.jmh.annotations._
+
+/**
+  * Benchmarks the rendering of markdown hover contents
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class HoverBenchmark {
+
+  @Param(Array("1024", "102400", "1048576", "10485760"))
+  var size: Int = _
+
+  private var markdownHover: Hover = _
+  private var plainHover: Hover = _
+
+  @Setup
+  def setup(): Unit = {
+    markdownHover = new Hover(new MarkupContent(HoverHandler.MARKUP_MARKUP, SyntheticDocuments.markdown(size)))
+    plainHover = new Hover(new MarkupContent(HoverHandler.MARKUP_PLAIN, SyntheticDocuments.text(size)))
+  }
+
+  @Benchmark
+  def markdown(): String = HoverHandler.getHoverString(markdownHover)
+
+  @Benchmark
+  def plain(): String = HoverHandler.getHoverString(plainHover)
+}
@@ -0,0 +1,43 @@
+package com.github.gtache.lsp.bench
+
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.utils.FileUtils
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+  * Benchmarks the sanitization of the uris received from the servers, which is done for every diagnostic and location
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class SanitizeURIBenchmark {
+
+  private final val BATCH = 1000
+
+  /**
+    * The depth of the paths
+    */
+  @Param(Array("2", "8", "32"))
+  var depth: Int = _
+
+  private var uris: Array[String] = _
+
+  @Setup
+  def setup(): Unit = {
+    uris = Array.tabulate(BATCH)(i => {
+      val path = (0 until depth).map(d => "dir" + d + (if (i % 3 == 0) " with space" else "")).mkString("/")
+      if (i % 2 == 0) "file:///" + path + "/File" + i + ".scala" else "file:/c%3A/" + path + "/File" + i + ".scala"
+    })
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  def sanitizeURI(bh: Blackhole): Unit = {
+    uris.foreach(u => bh.consume(FileUtils.sanitizeURI(u)))
+  }
+}
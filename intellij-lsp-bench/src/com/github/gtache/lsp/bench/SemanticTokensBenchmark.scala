@@ -0,0 +1,53 @@
+package com.github.gtache.lsp.bench
+
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.requests.SemanticHighlightingHandler
+import org.eclipse.lsp4j.util.SemanticHighlightingTokens
+import org.eclipse.lsp4j.util.SemanticHighlightingTokens.Token
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+/**
+  * Benchmarks the decoding of the semantic highlighting tokens of a whole document, and the resolution of their scopes
+  * A document of the given size has one token every 8 characters, and one line every 80 characters
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class SemanticTokensBenchmark {
+
+  private val SCOPES = Array("keyword.control", "string.quoted.double", "comment.line", "variable.parameter", "support.function", "constant.numeric")
+
+  @Param(Array("1024", "102400", "1048576", "10485760"))
+  var size: Int = _
+
+  private var encodedLines: Array[String] = _
+
+  @Setup
+  def setup(): Unit = {
+    val random = new Random(size)
+    encodedLines = Array.fill(math.max(1, size / 80)) {
+      val tokens = (0 until 10).map(i => new Token(i * 8, 1 + random.nextInt(7), random.nextInt(SCOPES.length)))
+      SemanticHighlightingTokens.encode(tokens.asJava)
+    }
+  }
+
+  @Benchmark
+  def decode(bh: Blackhole): Unit = {
+    encodedLines.foreach(l => bh.consume(SemanticHighlightingTokens.decode(l)))
+  }
+
+  @Benchmark
+  def decodeAndResolveScopes(bh: Blackhole): Unit = {
+    encodedLines.foreach(l => SemanticHighlightingTokens.decode(l).asScala.foreach(t => {
+      bh.consume(SemanticHighlightingHandler.scopeToStyle(SCOPES(t.scope)))
+    }))
+  }
+}
@@ -0,0 +1,83 @@
+package com.github.gtache.lsp.bench
+
+import scala.util.Random
+
+/**
+  * Generates the synthetic inputs of the benchmarks
+  * The benchmarks depending on the size of the document use sizes from 1 KB to 10 MB
+  */
+object SyntheticDocuments {
+
+  private val WORDS = Array("val", "def", "class", "object", "identifier", "x", "someLongerName_42", "=", "+", "(", ")", "{", "}", "\"string\"", "//", "return")
+
+  /**
+    * Generates source-like text
+    *
+    * @param size The number of characters
+    * @param seed The seed of the generator
+    * @return The text
+    */
+  def text(size: Int, seed: Long = 42): String = {
+    val random = new Random(seed)
+    val builder = new java.lang.StringBuilder(size + 64)
+    var lineLength = 0
+    while (builder.length < size) {
+      if (lineLength > 40 + random.nextInt(80)) {
+        builder.append('\n')
+        builder.append("  " * random.nextInt(4))
+        lineLength = 0
+      } else {
+        val word = WORDS(random.nextInt(WORDS.length))
+        builder.append(word).append(' ')
+        lineLength += word.length + 1
+      }
+    }
+    builder.setLength(size)
+    builder.toString
+  }
+
+  /**
+    * Generates markdown text, with paragraphs, lists and code blocks
+    *
+    * @param size The number of characters
+    * @return The markdown
+    */
+  def markdown(size: Int): String = {
+    val builder = new java.lang.StringBuilder(size + 256)
+    var idx = 0
+    while (builder.length < size) {
+      idx % 4 match {
+        case 0 => builder.append("# Section ").append(idx).append("\n\n")
+        case 1 => builder.append("Some **bold** and _italic_ text with `code` and a [link](https://example.com/").append(idx).append(").\n\n")
+        case 2 => builder.append("- first item\n- second item\n- third item\n\n")
+        case _ => builder.append("```scala\n").append(text(200, idx)).append("\n```\n\n")
+      }
+      idx += 1
+    }
+    builder.toString
+  }
+
+  /**
+    * Generates a JSON configuration with nested objects, arrays and scopes
+    *
+    * @param size The approximate number of characters
+    * @return The JSON
+    */
+  def jsonConfiguration(size: Int): String = {
+    val builder = new java.lang.StringBuilder(size + 256)
+    builder.append("{\n")
+    var idx = 0
+    while (builder.length < size) {
+      if (idx > 0) builder.append(",\n")
+      if (idx % 10 == 0) {
+        builder.append("  \"[scope").append(idx).append("]\": {\"setting\": {\"enabled\": true, \"value\": ").append(idx).append("}}")
+      } else {
+        builder.append("  \"section").append(idx).append("\": {\"name\": \"value").append(idx)
+          .append("\", \"nested\": {\"flag\": false, \"number\": ").append(idx).append(", \"list\": [1, 2, 3]}}")
+      }
+      idx += 1
+    }
+    builder.append("\n}\n")
+    builder.toString
+  }
+}
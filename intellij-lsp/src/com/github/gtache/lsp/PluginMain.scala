@@ -6,8 +6,9 @@ import com.github.gtache.lsp.client.languageserver.ServerStatus
 import com.github.gtache.lsp.client.languageserver.serverdefinition.LanguageServerDefinition
 import com.github.gtache.lsp.client.languageserver.wrapper.{LanguageServerWrapper, LanguageServerWrapperImpl}
 import com.github.gtache.lsp.contributors.LSPNavigationItem
+import com.github.gtache.lsp.editor.EditorEventManager
 import com.github.gtache.lsp.editor.listeners.{EditorListener, FileDocumentManagerListenerImpl, VFSListener}
-import com.github.gtache.lsp.requests.{Timeout, Timeouts}
+import com.github.gtache.lsp.requests.{SemanticScopesResolver, Timeouts}
 import com.github.gtache.lsp.settings.LSPState
 import com.github.gtache.lsp.utils.{ApplicationUtils, FileUtils, GUIUtils}
 import com.intellij.AppTopics
@@ -15,12 +16,14 @@ import com.intellij.navigation.NavigationItem
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.ApplicationComponent
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.editor.colors.{EditorColorsListener, EditorColorsManager, EditorColorsScheme}
 import com.intellij.openapi.editor.{Editor, EditorFactory}
 import com.intellij.openapi.fileEditor.{FileDocumentManager, FileEditorManager, TextEditor}
-import com.intellij.openapi.project.{Project, ProjectManager, ProjectUtil}
+import com.intellij.openapi.project.{DumbService, Project, ProjectManager, ProjectManagerListener, ProjectUtil}
 import com.intellij.openapi.ui.Messages
 import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.vfs.{VirtualFile, VirtualFileManager}
+import com.intellij.psi.search.{FilenameIndex, GlobalSearchScope}
 import org.eclipse.lsp4j._
 
 import scala.collection.JavaConverters._
@@ -190,11 +193,14 @@ object PluginMain {
   }
 
   private def getWrapperFor(ext: String, editor: Editor, serverDefinition: LanguageServerDefinition): LanguageServerWrapper = {
-    val project: Project = editor.getProject
+    getWrapperFor(ext, FileDocumentManager.getInstance().getFile(editor.getDocument), editor.getProject, serverDefinition)
+  }
+
+  private def getWrapperFor(ext: String, file: VirtualFile, project: Project, serverDefinition: LanguageServerDefinition): LanguageServerWrapper = {
     if (project != null && !project.isDefault) {
       val rootVFS: VirtualFile = ProjectUtil.guessProjectDir(project)
       if (rootVFS == null) {
-        val docName = FileDocumentManager.getInstance().getFile(editor.getDocument).getCanonicalPath
+        val docName = file.getCanonicalPath
         LOG.warn("Null rootPath for " + docName)
         Messages.showErrorDialog(project, "Can't infer project directory from project\nThe plugin won't work for " + docName, "LSP error")
         null
@@ -202,34 +208,18 @@ object PluginMain {
         val rootPath: String = FileUtils.VFSToPath(rootVFS)
         val rootUri: String = FileUtils.pathToUri(rootPath)
         forcedAssociationsInstances.synchronized {
-          val wrapper = forcedAssociationsInstances.get((FileUtils.editorToURIString(editor), FileUtils.projectToUri(project))).orNull
+          val wrapper = forcedAssociationsInstances.get((FileUtils.VFSToURI(file), FileUtils.projectToUri(project))).orNull
           if (wrapper == null || wrapper.getServerDefinition != serverDefinition) {
 
             extToLanguageWrapper.synchronized {
-              var wrapper = extToLanguageWrapper.get((ext, rootUri)).orNull
-              wrapper match {
-                case null =>
-                  LOG.info("Instantiating wrapper for " + ext + " : " + rootUri)
-                  wrapper = new LanguageServerWrapperImpl(serverDefinition, project)
-                  val exts = serverDefinition.ext.split(LanguageServerDefinition.SPLIT_CHAR)
-                  exts.foreach(ext => extToLanguageWrapper.put((ext, rootUri), wrapper))
-                  extToLanguageWrapper.put((serverDefinition.ext, rootUri), wrapper)
-                  projectToLanguageWrappers.get(rootUri) match {
-                    case Some(set) =>
-                      set.add(wrapper)
-                    case None =>
-                      projectToLanguageWrappers.put(rootUri, mutable.Set(wrapper))
-                  }
-                case _: LanguageServerWrapperImpl =>
-                  LOG.info("Wrapper already existing for " + ext + " , " + rootUri)
-              }
+              val wrapper = getOrCreateWrapper(ext, rootUri, project, serverDefinition)
               forcedAssociationsInstances.synchronized {
                 forcedAssociations.foreach(t => {
                   if (t._2 == serverDefinition && t._1._2 == rootUri) {
                     forcedAssociationsInstances.update(t._1, wrapper)
                   }
                 })
-                forcedAssociationsInstances.update((FileUtils.editorToURIString(editor), rootUri), wrapper)
+                forcedAssociationsInstances.update((FileUtils.VFSToURI(file), rootUri), wrapper)
               }
               wrapper
             }
@@ -239,6 +229,126 @@ object PluginMain {
     } else null
   }
 
+  private def getOrCreateWrapper(ext: String, rootUri: String, project: Project, serverDefinition: LanguageServerDefinition): LanguageServerWrapper = {
+    extToLanguageWrapper.synchronized {
+      var wrapper = extToLanguageWrapper.get((ext, rootUri)).orNull
+      wrapper match {
+        case null =>
+          LOG.info("Instantiating wrapper for " + ext + " : " + rootUri)
+          wrapper = new LanguageServerWrapperImpl(serverDefinition, project)
+          val exts = serverDefinition.ext.split(LanguageServerDefinition.SPLIT_CHAR)
+          exts.foreach(ext => extToLanguageWrapper.put((ext, rootUri), wrapper))
+          extToLanguageWrapper.put((serverDefinition.ext, rootUri), wrapper)
+          projectToLanguageWrappers.get(rootUri) match {
+            case Some(set) =>
+              set.add(wrapper)
+            case None =>
+              projectToLanguageWrappers.put(rootUri, mutable.Set(wrapper))
+          }
+        case _: LanguageServerWrapperImpl =>
+          LOG.info("Wrapper already existing for " + ext + " , " + rootUri)
+      }
+      wrapper
+    }
+  }
+
+  /**
+    * Starts in the background the servers supporting the files of a project, so that they are initialized when the first editor is opened
+    * The files are looked up once the project is indexed
+    *
+    * @param project The opened project
+    */
+  def projectOpened(project: Project): Unit = {
+    if (LSPState.getInstance().isWarmStartServers && !project.isDefault) {
+      addExtensions()
+      DumbService.getInstance(project).runWhenSmart(() => ApplicationUtils.pool(() => {
+        val rootVFS = ApplicationUtils.computableReadAction(() => if (project.isDisposed) null else ProjectUtil.guessProjectDir(project))
+        if (rootVFS != null) {
+          val rootUri = FileUtils.pathToUri(FileUtils.VFSToPath(rootVFS))
+          val scope = GlobalSearchScope.projectScope(project)
+          val present = extToServerDefinition.filter { case (ext, _) =>
+            !ext.contains(LanguageServerDefinition.SPLIT_CHAR) &&
+              ApplicationUtils.computableReadAction(() => !project.isDisposed && !FilenameIndex.getAllFilesByExt(project, ext, scope).isEmpty)
+          }
+          present.groupBy(_._2).foreach { case (serverDefinition, exts) =>
+            //The project may be closed while its files are looked up
+            val wrapper = if (project.isDisposed) null else getOrCreateWrapper(exts.head._1, rootUri, project, serverDefinition)
+            if (wrapper != null && wrapper.getStatus == ServerStatus.STOPPED) {
+              LOG.info("Warm starting " + serverDefinition + " for " + rootUri)
+              wrapper.start()
+            }
+          }
+        }
+      }))
+    }
+  }
+
+  /**
+    * Stops the servers of a project and their spare processes, whether they were warm started or used by editors
+    * A server shared with other projects keeps running for them
+    * The wrappers are forgotten, so that a project opened again gets new ones
+    *
+    * @param project The closing project
+    */
+  def projectClosing(project: Project): Unit = {
+    val wrappers = extToLanguageWrapper.synchronized {
+      val keys = extToLanguageWrapper.filter(t => t._2.getProject eq project).keys.toList
+      val wrappers = keys.map(k => extToLanguageWrapper(k)).distinct
+      keys.foreach(k => extToLanguageWrapper.remove(k))
+      projectToLanguageWrappers.retain((_, set) => {
+        set.retain(w => w.getProject ne project)
+        set.nonEmpty
+      })
+      wrappers
+    }
+    forcedAssociationsInstances.synchronized {
+      forcedAssociationsInstances.filter(t => t._2.getProject eq project).keys.toList.foreach(k => forcedAssociationsInstances.remove(k))
+    }
+    wrappers.foreach(wrapper => {
+      LOG.info("Stopping " + wrapper.getServerDefinition + " for closing project " + project.getName)
+      wrapper.removeWidget()
+      ApplicationUtils.pool(() => wrapper.projectClosing())
+    })
+  }
+
+  /**
+    * Returns the wrapper of the server supporting a file, instantiating it if needed
+    * The file doesn't need to be opened in an editor
+    *
+    * @param file    The file
+    * @param project The project of the file
+    * @return The wrapper, or None if no server supports the file
+    */
+  def getWrapperFor(file: VirtualFile, project: Project): Option[LanguageServerWrapper] = {
+    addExtensions()
+    val uri = FileUtils.VFSToURI(file)
+    val pUri = FileUtils.projectToUri(project)
+    if (uri != null && pUri != null) {
+      forcedAssociationsInstances.get((uri, pUri)).orElse {
+        forcedAssociations.get((uri, pUri)).orElse(extToServerDefinition.get(file.getExtension))
+          .flatMap(s => Option(getWrapperFor(file.getExtension, file, project, s)))
+      }
+    } else None
+  }
+
+  /**
+    * Returns the definition of the server supporting a file, taking the forced associations into account
+    *
+    * @param file    The file
+    * @param project The project of the file
+    * @return The definition, or None if no server supports the file
+    */
+  def getServerDefinitionFor(file: VirtualFile, project: Project): Option[LanguageServerDefinition] = {
+    addExtensions()
+    val uri = FileUtils.VFSToURI(file)
+    val pUri = FileUtils.projectToUri(project)
+    if (uri != null && pUri != null) {
+      forcedAssociationsInstances.get((uri, pUri)).map(_.getServerDefinition).orElse {
+        forcedAssociations.get((uri, pUri)).orElse(extToServerDefinition.get(file.getExtension))
+      }
+    } else None
+  }
+
   /**
     * Returns the extensions->languageServer mapping
     *
@@ -316,7 +426,7 @@ object PluginMain {
           import scala.collection.JavaConverters._
           val servDefToSymb = servDefToReq.map(w => {
             try {
-              val symbols = w._2.get(Timeout.SYMBOLS_TIMEOUT, TimeUnit.MILLISECONDS)
+              val symbols = w._2.get(w._1.getTimeout(Timeouts.SYMBOLS), TimeUnit.MILLISECONDS)
               w._1.notifyResult(Timeouts.SYMBOLS, success = true)
               (w._1, if (symbols != null) symbols.asScala
                 .filter(s => if (onlyKind.isEmpty) true else onlyKind.contains(s.getKind)) else null)
@@ -373,6 +483,17 @@ class PluginMain extends ApplicationComponent {
     EditorFactory.getInstance.addEditorFactoryListener(new EditorListener, Disposer.newDisposable())
     VirtualFileManager.getInstance().addVirtualFileListener(VFSListener)
     ApplicationManager.getApplication.getMessageBus.connect().subscribe(AppTopics.FILE_DOCUMENT_SYNC, FileDocumentManagerListenerImpl)
+    ApplicationManager.getApplication.getMessageBus.connect().subscribe(ProjectManager.TOPIC, new ProjectManagerListener {
+      override def projectOpened(project: Project): Unit = PluginMain.projectOpened(project)
+
+      override def projectClosing(project: Project): Unit = PluginMain.projectClosing(project)
+    })
+    ApplicationManager.getApplication.getMessageBus.connect().subscribe(EditorColorsManager.TOPIC, new EditorColorsListener {
+      override def globalSchemeChange(scheme: EditorColorsScheme): Unit = {
+        SemanticScopesResolver.schemeChanged()
+        EditorEventManager.colorSchemeChanged()
+      }
+    })
     LOG.info("PluginMain init finished")
   }
 }
@@ -0,0 +1,32 @@
+package com.github.gtache.lsp.actions
+
+import com.github.gtache.lsp.contributors.inspection.BatchInspectionRunner
+import com.github.gtache.lsp.utils.ApplicationUtils
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.progress.{ProgressIndicator, ProgressManager, Task}
+import com.intellij.openapi.project.DumbAwareAction
+import com.intellij.openapi.ui.Messages
+
+/**
+  * Action inspecting all the files of the project supported by a server, without opening editors
+  */
+class LSPInspectProjectAction extends DumbAwareAction {
+
+  override def actionPerformed(e: AnActionEvent): Unit = {
+    val project = e.getProject
+    if (project != null) {
+      ProgressManager.getInstance().run(new Task.Backgroundable(project, "Inspecting the project with the language servers", true) {
+        override def run(indicator: ProgressIndicator): Unit = {
+          val summary = new BatchInspectionRunner(project).run(indicator)
+          val message = summary.diagnostics + " problems found in " + summary.files + " files (" + summary.skipped + " skipped, " +
+            summary.timedOut + " without diagnostics in time)\nReport written to " + summary.report.getAbsolutePath
+          ApplicationUtils.invokeLater(() => Messages.showInfoMessage(project, message, "LSP inspection"))
+        }
+      })
+    }
+  }
+
+  override def update(e: AnActionEvent): Unit = {
+    e.getPresentation.setEnabled(e.getProject != null)
+  }
+}
@@ -12,6 +12,7 @@ import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.ui.Messages
 import com.intellij.util.ui.UIUtil
 import org.eclipse.lsp4j._
+import org.eclipse.lsp4j.jsonrpc.services.JsonRequest
 import org.eclipse.lsp4j.services.{LanguageClient, LanguageServer}
 
 import scala.collection.JavaConverters._
@@ -42,16 +43,17 @@ class LanguageClientImpl extends LanguageClient {
   }
 
   override def configuration(configurationParams: ConfigurationParams): CompletableFuture[util.List[AnyRef]] = {
-    val config = wrapper.getConfiguration
-    val settings = config.getJavaSettings
     CompletableFuture.completedFuture(configurationParams.getItems.asScala.map(ci => {
       val uri = ci.getScopeUri
       val section = ci.getSection
+      val config = if (uri != null) wrapperFor(FileUtils.sanitizeURI(uri)).getConfiguration else wrapper.getConfiguration
       config.getAttributesForSectionAndUri(section, uri).asJava.asInstanceOf[AnyRef]
     }).asJava)
   }
 
-  override def workspaceFolders(): CompletableFuture[util.List[WorkspaceFolder]] = super.workspaceFolders()
+  override def workspaceFolders(): CompletableFuture[util.List[WorkspaceFolder]] = {
+    CompletableFuture.completedFuture(wrapper.getWorkspaceWrappers.map(w => new WorkspaceFolder(FileUtils.projectToUri(w.getProject), w.getProject.getName)).toList.asJava)
+  }
 
   override def registerCapability(params: RegistrationParams): CompletableFuture[Void] = wrapper.registerCapability(params)
 
@@ -63,8 +65,9 @@ class LanguageClientImpl extends LanguageClient {
 
   override def publishDiagnostics(publishDiagnosticsParams: PublishDiagnosticsParams): Unit = {
     val uri = FileUtils.sanitizeURI(publishDiagnosticsParams.getUri)
-    val diagnostics = publishDiagnosticsParams.getDiagnostics
-    EditorEventManager.forUri(uri).foreach(e => e.diagnostics(diagnostics.asScala))
+    val diagnostics = publishDiagnosticsParams.getDiagnostics.asScala
+    wrapperFor(uri).getDiagnosticsStore.publish(uri, diagnostics)
+    EditorEventManager.forUri(uri).foreach(e => e.diagnostics(diagnostics))
   }
 
   override def showMessage(messageParams: MessageParams): Unit = {
@@ -119,4 +122,27 @@ class LanguageClientImpl extends LanguageClient {
   override def semanticHighlighting(params: SemanticHighlightingParams): Unit = {
     SemanticHighlightingHandler.handlePush(params)
   }
+
+  /**
+    * Pulls the diagnostics of the visible and recently edited documents again (not part of lsp4j 0.8.1)
+    */
+  @JsonRequest("workspace/diagnostic/refresh")
+  def diagnosticRefresh(): CompletableFuture[Void] = {
+    wrapper.getWorkspaceWrappers.foreach(w => {
+      val pullDiagnostics = w.getPullDiagnostics
+      if (pullDiagnostics != null) pullDiagnostics.refresh()
+    })
+    CompletableFuture.completedFuture(null)
+  }
+
+  /**
+    * @param uri The uri of a document
+    * @return The wrapper of the project containing the document, among the projects sharing the server
+    */
+  private def wrapperFor(uri: String): LanguageServerWrapper = {
+    val roots = wrapper.getWorkspaceWrappers.map(w => (w, FileUtils.projectToUri(w.getProject))).filter { case (_, root) =>
+      uri.startsWith(if (root.endsWith("/")) root else root + "/")
+    }
+    if (roots.isEmpty) wrapper else roots.maxBy(_._2.length)._1
+  }
 }
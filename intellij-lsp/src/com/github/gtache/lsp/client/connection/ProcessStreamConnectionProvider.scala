@@ -2,8 +2,10 @@
 package com.github.gtache.lsp.client.connection
 
 import java.io.{File, IOException, InputStream, OutputStream}
+import java.nio.file.Files
 import java.util.Objects
 
+import com.intellij.execution.process.OSProcessUtil
 import com.intellij.openapi.diagnostic.Logger
 import org.jetbrains.annotations.Nullable
 
@@ -65,6 +67,26 @@ class ProcessStreamConnectionProvider(private var commands: Seq[String], private
     if (process != null) process.destroy()
   }
 
+  override def isAlive: Boolean = process != null && process.isAlive
+
+  /**
+    * Reads the resident set size of the process, only available on Linux
+    */
+  override def getMemoryUsage: Long = {
+    if (isAlive) try {
+      import scala.collection.JavaConverters._
+      val status = new File("/proc/" + OSProcessUtil.getProcessID(process) + "/status")
+      if (status.exists) {
+        Files.readAllLines(status.toPath).asScala.find(l => l.startsWith("VmRSS:"))
+          .map(l => l.split("\\s+")(1).toLong * 1024).getOrElse(-1L)
+      } else -1
+    } catch {
+      case e: Exception =>
+        LOG.warn(e)
+        -1
+    } else -1
+  }
+
   override def equals(obj: Any): Boolean = {
     obj match {
       case other: ProcessStreamConnectionProvider =>
@@ -27,6 +27,16 @@ trait StreamConnectionProvider {
 
   def stop(): Unit
 
+  /**
+    * @return Whether the connection can still be used (the process is running, ...)
+    */
+  def isAlive: Boolean = true
+
+  /**
+    * @return The resident memory of the server in bytes, or -1 if it is unknown
+    */
+  def getMemoryUsage: Long = -1
+
   /**
     * Allows to hook custom behavior on messages.
     *
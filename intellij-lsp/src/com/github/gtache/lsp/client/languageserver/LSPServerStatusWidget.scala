@@ -61,6 +61,8 @@ class LSPServerStatusWidget(val wrapper: LanguageServerWrapper) extends StatusBa
 
   private val timeouts: mutable.Map[Timeouts, (Int, Int)] = mutable.HashMap()
   Timeouts.values().foreach(t => timeouts.put(t, (0, 0)))
+  private val cancelled: mutable.Map[Timeouts, Int] = mutable.HashMap()
+  Timeouts.values().foreach(t => cancelled.put(t, 0))
   private val ext: String = wrapper.getServerDefinition.ext
   private val project: Project = wrapper.getProject
   private val projectName: String = project.getName
@@ -73,6 +75,12 @@ class LSPServerStatusWidget(val wrapper: LanguageServerWrapper) extends StatusBa
     timeouts.update(timeout, if (success) (oldValue._1 + 1, oldValue._2) else (oldValue._1, oldValue._2 + 1))
   }
 
+  def notifyCancelled(timeout: Timeouts): Unit = {
+    cancelled.synchronized {
+      cancelled.update(timeout, cancelled(timeout) + 1)
+    }
+  }
+
   override def getPresentation: StatusBarWidget.IconPresentation = new IconPresentation {
 
     override def getIcon: Icon = {
@@ -83,9 +91,9 @@ class LSPServerStatusWidget(val wrapper: LanguageServerWrapper) extends StatusBa
       val mnemonics = JBPopupFactory.ActionSelectionAid.MNEMONICS
       val component = t.getComponent
       val actions = wrapper.getStatus match {
-        case ServerStatus.STARTED => Seq(Restart, ShowConnectedFiles, ShowTimeouts)
+        case ServerStatus.STARTED => Seq(Restart, ShowConnectedFiles, ShowTimeouts, ShowSyncStatistics, ShowCacheStatistics, ShowHibernationStatistics)
         case ServerStatus.STARTING => Seq(ShowTimeouts)
-        case _ => Seq(Restart, ShowTimeouts)
+        case _ => Seq(Restart, ShowTimeouts, ShowHibernationStatistics)
       }
       val title = "Server actions for " + ext + " - " + projectName
       val context = DataManager.getInstance().getDataContext(component)
@@ -112,22 +120,56 @@ class LSPServerStatusWidget(val wrapper: LanguageServerWrapper) extends StatusBa
       override def actionPerformed(e: AnActionEvent): Unit = {
         val message: mutable.StringBuilder = StringBuilder.newBuilder
         message.append("<html>")
-        message.append("Timeouts (failed requests) :<br>")
+        message.append("Timeouts (failed requests), cancelled requests, latencies (median / 99th percentile), effective timeout :<br>")
         timeouts.foreach(t => {
           val timeouts = t._2._2
           message.append(t._1.name().substring(0, 1)).append(t._1.name().substring(1).toLowerCase).append(" => ")
           val total = t._2._1 + timeouts
           if (total != 0) {
             if (timeouts > 0) message.append("<font color=\"red\">")
-            message.append(timeouts).append("/").append(total).append(" (").append(timeouts.asInstanceOf[Double] / total * 100).append("%)<br>")
+            message.append(timeouts).append("/").append(total).append(" (").append(timeouts.asInstanceOf[Double] / total * 100).append("%)")
             if (timeouts > 0) message.append("</font>")
-          } else message.append("0/0 (0%)<br>")
+          } else message.append("0/0 (0%)")
+          message.append(", ").append(cancelled(t._1)).append(" cancelled")
+          val (median, p99, samples) = wrapper.getLatencies(t._1)
+          if (samples > 0) message.append(", ").append(median).append("ms / ").append(p99).append("ms")
+          message.append(", timeout ").append(wrapper.getTimeout(t._1)).append("ms<br>")
         })
         message.append("</html>")
         Messages.showInfoMessage(message.toString(), "Timeouts")
       }
     }
 
+    private object ShowSyncStatistics extends AnAction("Show &document synchronization statistics", "Show the amount of data sent to synchronize the documents", AllIcons.General.Information) with DumbAware {
+      override def actionPerformed(e: AnActionEvent): Unit = {
+        val message: mutable.StringBuilder = StringBuilder.newBuilder
+        message.append("<html>")
+        wrapper.getSyncStatistics.getCounters.foreach(c => message.append(c._1).append(" => ").append(c._2).append("<br>"))
+        message.append("</html>")
+        Messages.showInfoMessage(message.toString(), "Document synchronization")
+      }
+    }
+
+    private object ShowCacheStatistics extends AnAction("Show response &cache statistics", "Show the hit ratio of the cache of the server responses", AllIcons.General.Information) with DumbAware {
+      override def actionPerformed(e: AnActionEvent): Unit = {
+        val message: mutable.StringBuilder = StringBuilder.newBuilder
+        message.append("<html>")
+        wrapper.getResponseCache.getCounters.foreach(c => message.append(c._1).append(" => ").append(c._2).append("<br>"))
+        message.append("</html>")
+        Messages.showInfoMessage(message.toString(), "Response cache")
+      }
+    }
+
+    private object ShowHibernationStatistics extends AnAction("Show &hibernation statistics", "Show the memory reclaimed by stopping the server when the project is idle", AllIcons.General.Information) with DumbAware {
+      override def actionPerformed(e: AnActionEvent): Unit = {
+        val message: mutable.StringBuilder = StringBuilder.newBuilder
+        message.append("<html>")
+        wrapper.getHibernationCounters.foreach(c => message.append(c._1).append(" => ").append(c._2).append("<br>"))
+        message.append("</html>")
+        Messages.showInfoMessage(message.toString(), "Hibernation")
+      }
+    }
+
     override def getTooltipText: String = "Language server for extension " + ext + ", project " + projectName
   }
 
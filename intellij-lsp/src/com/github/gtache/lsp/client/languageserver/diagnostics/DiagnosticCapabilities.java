@@ -0,0 +1,10 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics;
+
+/**
+ * The client capabilities for the pull diagnostics of a document (not part of lsp4j 0.8.1)
+ */
+public class DiagnosticCapabilities {
+
+    private final boolean dynamicRegistration = false;
+    private final boolean relatedDocumentSupport = true;
+}
@@ -0,0 +1,32 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics;
+
+/**
+ * The pull diagnostics provider of a server (not part of lsp4j 0.8.1)
+ */
+public class DiagnosticOptions {
+
+    private String identifier;
+    private boolean interFileDependencies;
+    private boolean workspaceDiagnostics;
+
+    /**
+     * @return The identifier under which the diagnostics are managed by the client, or null
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return Whether the diagnostics of a document can change when another document changes
+     */
+    public boolean isInterFileDependencies() {
+        return interFileDependencies;
+    }
+
+    /**
+     * @return Whether the server supports workspace/diagnostic
+     */
+    public boolean isWorkspaceDiagnostics() {
+        return workspaceDiagnostics;
+    }
+}
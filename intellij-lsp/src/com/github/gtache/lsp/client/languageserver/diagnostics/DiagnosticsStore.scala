@@ -0,0 +1,217 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics
+
+import java.util
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap, CopyOnWriteArrayList}
+
+import com.github.gtache.lsp.settings.LSPState
+import com.github.gtache.lsp.utils.ApplicationUtils.invokeLater
+import com.github.gtache.lsp.utils.FileUtils
+import com.intellij.openapi.project.Project
+import com.intellij.problems.WolfTheProblemSolver
+import com.intellij.util.containers.WeakInterner
+import org.eclipse.lsp4j.{Diagnostic, DiagnosticSeverity, Position, Range}
+
+import scala.collection.JavaConverters._
+
+object DiagnosticsStore {
+
+  private val DEFAULT_SIZE = 100000
+
+  /**
+    * The diagnostics of a document, stored column-wise
+    *
+    * @param positions  The start line, start character, end line and end character of each diagnostic
+    * @param severities The severities (0 if none was given)
+    * @param messages   The interned messages
+    * @param codes      The interned codes (null if none was given)
+    * @param sources    The interned sources (null if none was given)
+    */
+  private case class Entry(positions: Array[Int], severities: Array[Byte], messages: Array[String], codes: Array[String], sources: Array[String]) {
+    def size: Int = messages.length
+
+    def hasErrors: Boolean = severities.exists(s => s == DiagnosticSeverity.Error.getValue)
+  }
+
+}
+
+/**
+  * The diagnostics published by a server for all the documents of its project, including the ones which aren't opened in an editor
+  * The strings are interned and the ranges are stored in primitive arrays, and the total number of diagnostics kept is
+  * bounded by LSPState.getDiagnosticsStoreSize (the least recently used documents being dropped first)
+  * The documents with errors are reported to the WolfTheProblemSolver of the project
+  *
+  * @param project The project
+  */
+class DiagnosticsStore(project: Project) {
+
+  import DiagnosticsStore._
+
+  private val interner = new WeakInterner[String]()
+  private var total = 0
+  private val entries: util.LinkedHashMap[String, Entry] = new util.LinkedHashMap[String, Entry](16, 0.75f, true)
+  private val waiters: ConcurrentHashMap[String, CompletableFuture[Void]] = new ConcurrentHashMap[String, CompletableFuture[Void]]()
+  private val evictionListeners: CopyOnWriteArrayList[String => Unit] = new CopyOnWriteArrayList[String => Unit]()
+
+  /**
+    * Replaces the diagnostics of a document
+    *
+    * @param uri         The uri of the document
+    * @param diagnostics The diagnostics published by the server
+    */
+  def publish(uri: String, diagnostics: Iterable[Diagnostic]): Unit = {
+    val entry = if (diagnostics.isEmpty) null else toEntry(diagnostics.toIndexedSeq)
+    val evicted = entries.synchronized {
+      val previous = if (entry == null) entries.remove(uri) else entries.put(uri, entry)
+      if (previous != null) total -= previous.size
+      if (entry != null) total += entry.size
+      evict()
+    }
+    reportProblems(uri, entry != null && entry.hasErrors)
+    evicted.foreach(u => {
+      reportProblems(u, hasErrors = false)
+      evictionListeners.asScala.foreach(l => l(u))
+    })
+    unchanged(uri)
+  }
+
+  /**
+    * Adds a listener called with the uri of each document whose diagnostics are dropped to fit the store
+    *
+    * @param listener The listener
+    */
+  def addEvictionListener(listener: String => Unit): Unit = evictionListeners.add(listener)
+
+  /**
+    * @param listener The listener to remove
+    */
+  def removeEvictionListener(listener: String => Unit): Unit = evictionListeners.remove(listener)
+
+  /**
+    * Notifies that the server confirmed that the diagnostics of a document didn't change
+    *
+    * @param uri The uri of the document
+    */
+  def unchanged(uri: String): Unit = {
+    val waiter = waiters.remove(uri)
+    if (waiter != null) waiter.complete(null)
+  }
+
+  /**
+    * Returns a future completed the next time the server publishes (or confirms) the diagnostics of a document
+    *
+    * @param uri The uri of the document
+    * @return The future
+    */
+  def nextPublish(uri: String): CompletableFuture[Void] = {
+    waiters.compute(uri, (_, waiter) => if (waiter == null || waiter.isDone) new CompletableFuture[Void]() else waiter)
+  }
+
+  /**
+    * Returns the diagnostics of a document
+    *
+    * @param uri The uri of the document
+    * @return The diagnostics, empty if the server didn't publish any or if they were dropped
+    */
+  def get(uri: String): Seq[Diagnostic] = {
+    val entry = entries.synchronized(entries.get(uri))
+    if (entry != null) {
+      (0 until entry.size).map(i => {
+        val pos = i * 4
+        val range = new Range(new Position(entry.positions(pos), entry.positions(pos + 1)), new Position(entry.positions(pos + 2), entry.positions(pos + 3)))
+        val diagnostic = new Diagnostic(range, entry.messages(i))
+        if (entry.severities(i) != 0) diagnostic.setSeverity(DiagnosticSeverity.forValue(entry.severities(i)))
+        diagnostic.setCode(entry.codes(i))
+        diagnostic.setSource(entry.sources(i))
+        diagnostic
+      })
+    } else Seq.empty
+  }
+
+  /**
+    * @param uri The uri of a document
+    * @return Whether the store has diagnostics for the document
+    */
+  def contains(uri: String): Boolean = entries.synchronized(entries.containsKey(uri))
+
+  /**
+    * @return The uris of the documents having diagnostics
+    */
+  def getUris: Seq[String] = entries.synchronized(entries.keySet().asScala.toList)
+
+  /**
+    * @return The total number of diagnostics stored
+    */
+  def getSize: Int = entries.synchronized(total)
+
+  /**
+    * Removes all the diagnostics
+    */
+  def clear(): Unit = {
+    val uris = entries.synchronized {
+      val uris = entries.keySet().asScala.toList
+      entries.clear()
+      total = 0
+      uris
+    }
+    uris.foreach(u => reportProblems(u, hasErrors = false))
+  }
+
+  protected def maxSize: Int = {
+    val state = LSPState.getInstance()
+    if (state != null) state.getDiagnosticsStoreSize else DEFAULT_SIZE
+  }
+
+  /**
+    * Drops the least recently used documents until the store fits, must be called while holding the lock
+    *
+    * @return The dropped uris
+    */
+  private def evict(): List[String] = {
+    var evicted: List[String] = Nil
+    val iterator = entries.entrySet().iterator()
+    val max = maxSize
+    while (total > max && iterator.hasNext) {
+      val eldest = iterator.next()
+      total -= eldest.getValue.size
+      evicted = eldest.getKey :: evicted
+      iterator.remove()
+    }
+    evicted
+  }
+
+  private def toEntry(diagnostics: IndexedSeq[Diagnostic]): Entry = {
+    val size = diagnostics.size
+    val positions = new Array[Int](size * 4)
+    val severities = new Array[Byte](size)
+    val messages = new Array[String](size)
+    val codes = new Array[String](size)
+    val sources = new Array[String](size)
+    diagnostics.indices.foreach(i => {
+      val d = diagnostics(i)
+      val range = d.getRange
+      positions(i * 4) = range.getStart.getLine
+      positions(i * 4 + 1) = range.getStart.getCharacter
+      positions(i * 4 + 2) = range.getEnd.getLine
+      positions(i * 4 + 3) = range.getEnd.getCharacter
+      severities(i) = if (d.getSeverity != null) d.getSeverity.getValue.toByte else 0
+      messages(i) = intern(d.getMessage)
+      codes(i) = intern(d.getCode)
+      sources(i) = intern(d.getSource)
+    })
+    Entry(positions, severities, messages, codes, sources)
+  }
+
+  private def intern(s: String): String = if (s != null) interner.intern(s) else null
+
+  protected def reportProblems(uri: String, hasErrors: Boolean): Unit = {
+    invokeLater(() => {
+      if (!project.isDisposed) {
+        val file = FileUtils.URIToVFS(uri)
+        if (file != null) {
+          val solver = WolfTheProblemSolver.getInstance(project)
+          if (hasErrors) solver.reportProblemsFromExternalSource(file, this) else solver.clearProblemsFromExternalSource(file, this)
+        }
+      }
+    })
+  }
+}
@@ -0,0 +1,36 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics;
+
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+
+/**
+ * The parameters of the textDocument/diagnostic request (not part of lsp4j 0.8.1)
+ */
+public class DocumentDiagnosticParams {
+
+    private final TextDocumentIdentifier textDocument;
+    private final String identifier;
+    private final String previousResultId;
+
+    /**
+     * @param textDocument     The document
+     * @param identifier       The identifier of the provider, or null
+     * @param previousResultId The id of the previous report of the document, or null
+     */
+    public DocumentDiagnosticParams(final TextDocumentIdentifier textDocument, final String identifier, final String previousResultId) {
+        this.textDocument = textDocument;
+        this.identifier = identifier;
+        this.previousResultId = previousResultId;
+    }
+
+    public TextDocumentIdentifier getTextDocument() {
+        return textDocument;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public String getPreviousResultId() {
+        return previousResultId;
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics;
+
+import org.eclipse.lsp4j.WorkspaceClientCapabilities;
+
+/**
+ * The workspace client capabilities, with the pull diagnostics capabilities which aren't part of lsp4j 0.8.1
+ */
+public class LSPWorkspaceClientCapabilities extends WorkspaceClientCapabilities {
+
+    private final Diagnostics diagnostics = new Diagnostics();
+
+    private static class Diagnostics {
+        private final boolean refreshSupport = true;
+    }
+}
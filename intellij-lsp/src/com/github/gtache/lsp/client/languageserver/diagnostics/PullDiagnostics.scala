@@ -0,0 +1,268 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics
+
+import java.util.concurrent.{CancellationException, CompletableFuture, ConcurrentHashMap, ScheduledFuture, TimeUnit, TimeoutException}
+
+import com.github.gtache.lsp.client.languageserver.requestmanager.RequestManager
+import com.github.gtache.lsp.client.languageserver.wrapper.LanguageServerWrapper
+import com.github.gtache.lsp.editor.EditorEventManager
+import com.github.gtache.lsp.requests.Timeouts
+import com.github.gtache.lsp.utils.FileUtils
+import com.google.gson.{Gson, JsonElement, JsonObject}
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.eclipse.lsp4j.jsonrpc.json.{JsonRpcMethod, MessageJsonHandler}
+import org.eclipse.lsp4j.{Diagnostic, PublishDiagnosticsParams, TextDocumentIdentifier}
+
+import scala.collection.JavaConverters._
+
+object PullDiagnostics {
+
+  private val LOG: Logger = Logger.getInstance(classOf[PullDiagnostics])
+
+  /**
+    * The delay between the last change of a document and the pull of its diagnostics
+    */
+  private val DELAY = 300
+
+  /**
+    * The time during which an edited document keeps being pulled when another document changes
+    */
+  private val RECENTLY_EDITED = 5 * 60 * 1000
+
+  /**
+    * The timeout of a workspace pull, which can take much longer than a document one
+    */
+  private val WORKSPACE_TIMEOUT = 60000
+
+  /**
+    * The Gson of lsp4j, used to read the diagnostics of the raw reports
+    */
+  private val gson: Gson = new MessageJsonHandler(java.util.Collections.emptyMap[String, JsonRpcMethod]()).getGson
+
+  /**
+    * Reads the diagnostics of a full report
+    *
+    * @param report The report
+    * @return The diagnostics
+    */
+  def readItems(report: JsonObject): Seq[Diagnostic] = {
+    val items = report.get("items")
+    if (items != null && items.isJsonArray) items.getAsJsonArray.asScala.map(i => gson.fromJson(i, classOf[Diagnostic])).toList else Nil
+  }
+
+  private def getString(obj: JsonObject, member: String): String = {
+    val element = obj.get(member)
+    if (element != null && element.isJsonPrimitive) element.getAsString else null
+  }
+}
+
+/**
+  * Pulls the diagnostics of the documents of a server supporting textDocument/diagnostic
+  * Only the opened documents are pulled, after they are opened or changed, and the other documents are pulled after a change
+  * only if they are visible or were recently edited (if the server has inter-file dependencies) or when the server asks for a refresh.
+  * The id of the last report of each document is sent with the next pull, so that the server only answers "unchanged"
+  * if the diagnostics didn't change. The reports are published like pushed diagnostics.
+  * The ids are only kept for the opened documents and the ones whose diagnostics are in the DiagnosticsStore, and are
+  * dropped when the store drops the diagnostics of their document, which would otherwise be lost on an "unchanged" answer.
+  *
+  * @param wrapper  The wrapper of the server
+  * @param provider The pull diagnostics provider of the server
+  */
+class PullDiagnostics(wrapper: LanguageServerWrapper, provider: DiagnosticOptions) {
+
+  import PullDiagnostics._
+
+  private val resultIds: ConcurrentHashMap[String, String] = new ConcurrentHashMap[String, String]()
+  private val lastEdits: ConcurrentHashMap[String, java.lang.Long] = new ConcurrentHashMap[String, java.lang.Long]()
+  private val scheduled: ConcurrentHashMap[String, ScheduledFuture[_]] = new ConcurrentHashMap[String, ScheduledFuture[_]]()
+  private val inFlight: ConcurrentHashMap[String, CompletableFuture[_]] = new ConcurrentHashMap[String, CompletableFuture[_]]()
+  private val opened: java.util.Set[String] = ConcurrentHashMap.newKeySet[String]()
+  @volatile private var workspacePull: CompletableFuture[_] = _
+  private val evictionListener: String => Unit = uri => resultIds.remove(uri)
+  wrapper.getDiagnosticsStore.addEvictionListener(evictionListener)
+
+  /**
+    * @return Whether the server supports workspace/diagnostic
+    */
+  def isWorkspaceSupported: Boolean = provider.isWorkspaceDiagnostics
+
+  /**
+    * Pulls the diagnostics of an opened document
+    *
+    * @param uri The uri of the document
+    */
+  def documentOpened(uri: String): Unit = {
+    opened.add(uri)
+    schedule(uri, 0)
+  }
+
+  /**
+    * Pulls the diagnostics of a changed document, and of the visible and recently edited ones if they may depend on it
+    *
+    * @param uri The uri of the document
+    */
+  def documentChanged(uri: String): Unit = {
+    lastEdits.put(uri, System.currentTimeMillis())
+    if (provider.isInterFileDependencies) activeDocuments().foreach(u => schedule(u, DELAY)) else schedule(uri, DELAY)
+  }
+
+  /**
+    * Pulls the diagnostics of the visible and recently edited documents after a document is saved
+    */
+  def documentSaved(): Unit = refresh()
+
+  /**
+    * Forgets a closed document
+    *
+    * @param uri The uri of the document
+    */
+  def documentClosed(uri: String): Unit = {
+    cancel(uri)
+    opened.remove(uri)
+    resultIds.remove(uri)
+    lastEdits.remove(uri)
+  }
+
+  /**
+    * Pulls the diagnostics of the visible and recently edited documents (workspace/diagnostic/refresh)
+    */
+  def refresh(): Unit = activeDocuments().foreach(u => schedule(u, 0))
+
+  /**
+    * Pulls the diagnostics of the whole workspace, if the server supports it
+    *
+    * @return A future completed once the reports are published
+    */
+  def pullWorkspace(): CompletableFuture[Void] = {
+    val requestManager = wrapper.getRequestManager
+    if (isWorkspaceSupported && requestManager != null) {
+      val previous = resultIds.asScala.map { case (uri, id) => new WorkspaceDiagnosticParams.PreviousResultId(uri, id) }.toList.asJava
+      val future = RequestManager.withTimeout(requestManager.workspaceDiagnostic(new WorkspaceDiagnosticParams(provider.getIdentifier, previous)), WORKSPACE_TIMEOUT)
+      if (future != null) {
+        val previousPull = workspacePull
+        workspacePull = future
+        if (previousPull != null) previousPull.cancel(true)
+        RequestManager.handleResponse(future, onEDT = false)(response => {
+          if (response != null && response.isJsonObject) {
+            val items = response.getAsJsonObject.get("items")
+            if (items != null && items.isJsonArray) items.getAsJsonArray.asScala.foreach(item => {
+              if (item.isJsonObject) {
+                val uri = getString(item.getAsJsonObject, "uri")
+                if (uri != null) handleReport(requestManager, FileUtils.sanitizeURI(uri), item)
+              }
+            })
+          }
+        }, {
+          case _: CancellationException =>
+          case e => LOG.warn(e)
+        })
+      } else CompletableFuture.completedFuture(null)
+    } else CompletableFuture.completedFuture(null)
+  }
+
+  /**
+    * Cancels all the pulls and forgets all the reports
+    */
+  def clear(): Unit = {
+    scheduled.keySet().asScala.toList.foreach(cancel)
+    inFlight.keySet().asScala.toList.foreach(cancel)
+    val pull = workspacePull
+    workspacePull = null
+    if (pull != null) pull.cancel(true)
+    resultIds.clear()
+    lastEdits.clear()
+    opened.clear()
+    wrapper.getDiagnosticsStore.removeEvictionListener(evictionListener)
+  }
+
+  /**
+    * @return The opened documents which are visible or were recently edited
+    */
+  private def activeDocuments(): Iterable[String] = {
+    val now = System.currentTimeMillis()
+    wrapper.getConnectedFiles.filter(uri => {
+      val lastEdit = lastEdits.get(uri)
+      (lastEdit != null && now - lastEdit < RECENTLY_EDITED) || EditorEventManager.forUri(uri).exists(m => m.editor.getComponent.isShowing)
+    })
+  }
+
+  private def schedule(uri: String, delay: Int): Unit = {
+    val runnable: Runnable = () => {
+      scheduled.remove(uri)
+      pull(uri)
+    }
+    scheduled.compute(uri, (_, previous) => {
+      if (previous != null) previous.cancel(false)
+      AppExecutorUtil.getAppScheduledExecutorService.schedule(runnable, delay, TimeUnit.MILLISECONDS)
+    })
+  }
+
+  private def cancel(uri: String): Unit = {
+    val task = scheduled.remove(uri)
+    if (task != null) task.cancel(false)
+    val request = inFlight.remove(uri)
+    if (request != null) request.cancel(true)
+  }
+
+  /**
+    * Pulls the diagnostics of a document, cancelling the previous pull if it is still running
+    */
+  private def pull(uri: String): Unit = {
+    val requestManager = wrapper.getRequestManager
+    if (requestManager != null) {
+      EditorEventManager.forUri(uri).foreach(m => m.flushChanges())
+      val params = new DocumentDiagnosticParams(new TextDocumentIdentifier(uri), provider.getIdentifier, resultIds.get(uri))
+      val future = RequestManager.withTimeout(requestManager.documentDiagnostic(params), wrapper.getTimeout(Timeouts.DIAGNOSTIC))
+      if (future != null) {
+        val previous = inFlight.put(uri, future)
+        if (previous != null) previous.cancel(true)
+        RequestManager.handleResponse(future, onEDT = false)(response => {
+          inFlight.remove(uri, future)
+          wrapper.notifySuccess(Timeouts.DIAGNOSTIC)
+          if (response != null) handleReport(requestManager, uri, response)
+        }, {
+          case _: CancellationException =>
+          case e: TimeoutException =>
+            inFlight.remove(uri, future)
+            LOG.warn(e)
+            wrapper.notifyFailure(Timeouts.DIAGNOSTIC)
+            wrapper.notifyCancelled(Timeouts.DIAGNOSTIC)
+          case t =>
+            inFlight.remove(uri, future)
+            LOG.warn(t)
+            resultIds.remove(uri)
+        })
+      }
+    }
+  }
+
+  /**
+    * Publishes a full report or keeps the current diagnostics for an unchanged one, as well as the reports of the related documents
+    * The reports are published with the request manager which pulled them, as the wrapper may have stopped since
+    */
+  private def handleReport(requestManager: RequestManager, uri: String, report: JsonElement): Unit = {
+    if (report.isJsonObject) {
+      val obj = report.getAsJsonObject
+      val resultId = getString(obj, "resultId")
+      val store = wrapper.getDiagnosticsStore
+      //Whether the diagnostics are kept by the store (or there are none to keep), checked after publishing as the store may drop them at once
+      val kept = getString(obj, "kind") match {
+        case "full" =>
+          val items = readItems(obj)
+          requestManager.publishDiagnostics(new PublishDiagnosticsParams(uri, items.asJava))
+          store.contains(uri) || (items.isEmpty && opened.contains(uri))
+        case "unchanged" =>
+          store.unchanged(uri)
+          store.contains(uri) || opened.contains(uri)
+        case kind =>
+          LOG.warn("Unknown diagnostic report kind " + kind + " for " + uri)
+          false
+      }
+      if (resultId != null && kept) resultIds.put(uri, resultId) else resultIds.remove(uri)
+      val related = obj.get("relatedDocuments")
+      if (related != null && related.isJsonObject) {
+        related.getAsJsonObject.entrySet().asScala.foreach(e => handleReport(requestManager, FileUtils.sanitizeURI(e.getKey), e.getValue))
+      }
+    }
+  }
+}
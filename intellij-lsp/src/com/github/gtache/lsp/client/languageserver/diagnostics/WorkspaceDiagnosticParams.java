@@ -0,0 +1,50 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics;
+
+import java.util.List;
+
+/**
+ * The parameters of the workspace/diagnostic request (not part of lsp4j 0.8.1)
+ */
+public class WorkspaceDiagnosticParams {
+
+    private final String identifier;
+    private final List<PreviousResultId> previousResultIds;
+
+    /**
+     * @param identifier        The identifier of the provider, or null
+     * @param previousResultIds The ids of the previous reports
+     */
+    public WorkspaceDiagnosticParams(final String identifier, final List<PreviousResultId> previousResultIds) {
+        this.identifier = identifier;
+        this.previousResultIds = previousResultIds;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public List<PreviousResultId> getPreviousResultIds() {
+        return previousResultIds;
+    }
+
+    /**
+     * The id of the previous report of a document
+     */
+    public static class PreviousResultId {
+        private final String uri;
+        private final String value;
+
+        public PreviousResultId(final String uri, final String value) {
+            this.uri = uri;
+            this.value = value;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.github.gtache.lsp.client.languageserver.metrics
+
+import java.io.{FilterInputStream, FilterOutputStream, InputStream, OutputStream}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.{Function => JFunction}
+
+import com.github.gtache.lsp.requests.LatencyHistogram
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer
+import org.eclipse.lsp4j.jsonrpc.messages._
+
+import scala.collection.JavaConverters._
+
+object RequestMetrics {
+
+  private val CANCEL_METHOD = "$/cancelRequest"
+
+  /**
+    * The metrics of a method, at a given time
+    */
+  case class Snapshot(method: String, requests: Long, inFlight: Long, errors: Long, cancelled: Long,
+                      bytesSent: Long, bytesReceived: Long, p50: Long, p95: Long, p99: Long)
+
+  val CSV_HEADER: String = "server,method,requests,inFlight,errors,cancelled,bytesSent,bytesReceived,p50Ms,p95Ms,p99Ms"
+
+  /**
+    * Formats the snapshots of multiple servers as CSV
+    *
+    * @param snapshots The snapshots for each server name
+    * @return The CSV string
+    */
+  def toCsv(snapshots: Seq[(String, Seq[Snapshot])]): String = {
+    val builder = StringBuilder.newBuilder
+    builder.append(CSV_HEADER).append("\n")
+    snapshots.foreach(s => s._2.foreach(m => {
+      builder.append(csvEscape(s._1)).append(",").append(csvEscape(m.method)).append(",")
+        .append(Seq(m.requests, m.inFlight, m.errors, m.cancelled, m.bytesSent, m.bytesReceived, m.p50, m.p95, m.p99).mkString(",")).append("\n")
+    }))
+    builder.toString()
+  }
+
+  /**
+    * Formats the snapshots of multiple servers as JSON
+    *
+    * @param snapshots The snapshots for each server name
+    * @return The JSON string
+    */
+  def toJson(snapshots: Seq[(String, Seq[Snapshot])]): String = {
+    snapshots.map(s => {
+      "  {\"server\": " + jsonEscape(s._1) + ", \"methods\": [\n" + s._2.map(m => {
+        "    {\"method\": " + jsonEscape(m.method) + ", \"requests\": " + m.requests + ", \"inFlight\": " + m.inFlight +
+          ", \"errors\": " + m.errors + ", \"cancelled\": " + m.cancelled + ", \"bytesSent\": " + m.bytesSent +
+          ", \"bytesReceived\": " + m.bytesReceived + ", \"p50Ms\": " + m.p50 + ", \"p95Ms\": " + m.p95 + ", \"p99Ms\": " + m.p99 + "}"
+      }).mkString(",\n") + "\n  ]}"
+    }).mkString("[\n", ",\n", "\n]\n")
+  }
+
+  private def csvEscape(s: String): String = {
+    if (s.exists(c => c == ',' || c == '"' || c == '\n')) "\"" + s.replace("\"", "\"\"") + "\"" else s
+  }
+
+  private def jsonEscape(s: String): String = {
+    val builder = StringBuilder.newBuilder
+    builder.append('"')
+    s.foreach {
+      case '"' => builder.append("\\\"")
+      case '\\' => builder.append("\\\\")
+      case '\n' => builder.append("\\n")
+      case c if c < ' ' => builder.append("\\u%04x".format(c.toInt))
+      case c => builder.append(c)
+    }
+    builder.append('"').toString()
+  }
+
+  private class MethodMetrics {
+    val requests = new AtomicLong()
+    val inFlight = new AtomicLong()
+    val errors = new AtomicLong()
+    val cancelled = new AtomicLong()
+    val bytesSent = new AtomicLong()
+    val bytesReceived = new AtomicLong()
+    val latencies = new LatencyHistogram
+  }
+
+  private case class Pending(method: String, start: Long)
+
+  /**
+    * An InputStream counting the bytes read
+    */
+  class CountingInputStream(in: InputStream) extends FilterInputStream(in) {
+    private val count = new AtomicLong()
+
+    def getCount: Long = count.get()
+
+    override def read(): Int = {
+      val read = super.read()
+      if (read >= 0) count.incrementAndGet()
+      read
+    }
+
+    override def read(b: Array[Byte], off: Int, len: Int): Int = {
+      val read = super.read(b, off, len)
+      if (read > 0) count.addAndGet(read)
+      read
+    }
+
+    override def skip(n: Long): Long = {
+      val skipped = super.skip(n)
+      count.addAndGet(skipped)
+      skipped
+    }
+  }
+
+  /**
+    * An OutputStream counting the bytes written
+    */
+  class CountingOutputStream(out: OutputStream) extends FilterOutputStream(out) {
+    private val count = new AtomicLong()
+
+    def getCount: Long = count.get()
+
+    override def write(b: Int): Unit = {
+      out.write(b)
+      count.incrementAndGet()
+    }
+
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+      out.write(b, off, len)
+      count.addAndGet(len)
+    }
+  }
+
+}
+
+/**
+  * Metrics of the messages exchanged with a server, per method : number of requests and notifications, requests in flight,
+  * latencies, payload sizes, errors and cancellations
+  * The messages are observed at the JSON-RPC level (see messageWrapper), so every request of the RequestManager and every
+  * notification received by the LanguageClientImpl is measured
+  */
+class RequestMetrics {
+
+  import RequestMetrics._
+
+  private val methods: ConcurrentHashMap[String, MethodMetrics] = new ConcurrentHashMap[String, MethodMetrics]()
+  private val sentRequests: ConcurrentHashMap[String, Pending] = new ConcurrentHashMap[String, Pending]()
+  private val receivedRequests: ConcurrentHashMap[String, Pending] = new ConcurrentHashMap[String, Pending]()
+  @volatile private var lastSent: Long = System.currentTimeMillis()
+
+  /**
+    * Returns the function to give to the lsp4j launcher builder (wrapMessages) to measure the messages
+    * The launcher wraps the outgoing message consumer first, then the incoming one
+    *
+    * @param input  The counting stream the launcher reads from
+    * @param output The counting stream the launcher writes to
+    * @return The wrapper function
+    */
+  def messageWrapper(input: CountingInputStream, output: CountingOutputStream): JFunction[MessageConsumer, MessageConsumer] = {
+    var wrapped = 0
+    (consumer: MessageConsumer) => {
+      wrapped += 1
+      if (wrapped == 1) {
+        (message: Message) => output.synchronized {
+          val before = output.getCount
+          //Registered before sending, as the response may be received before consume returns
+          message match {
+            case r: RequestMessage => sentRequests.put(r.getId, Pending(r.getMethod, System.nanoTime()))
+            case _ =>
+          }
+          consumer.consume(message)
+          sent(message, output.getCount - before)
+        }
+      } else {
+        var lastCount = 0L
+        (message: Message) => {
+          val count = input.getCount
+          received(message, count - lastCount)
+          lastCount = count
+          consumer.consume(message)
+        }
+      }
+    }
+  }
+
+  /**
+    * Records a message sent to the server
+    *
+    * @param message The message
+    * @param bytes   The size of the message
+    */
+  private def sent(message: Message, bytes: Long): Unit = {
+    message match {
+      case _: RequestMessage | _: NotificationMessage => lastSent = System.currentTimeMillis()
+      case _ =>
+    }
+    message match {
+      case r: RequestMessage =>
+        val metrics = get(r.getMethod)
+        metrics.requests.incrementAndGet()
+        metrics.inFlight.incrementAndGet()
+        metrics.bytesSent.addAndGet(bytes)
+      case r: ResponseMessage =>
+        val pending = receivedRequests.remove(r.getId)
+        if (pending != null) {
+          val metrics = get(pending.method)
+          decrementInFlight(metrics)
+          metrics.bytesSent.addAndGet(bytes)
+          metrics.latencies.record((System.nanoTime() - pending.start) / 1000000)
+          if (r.getError != null) metrics.errors.incrementAndGet()
+        }
+      case n: NotificationMessage =>
+        val metrics = get(n.getMethod)
+        metrics.requests.incrementAndGet()
+        metrics.bytesSent.addAndGet(bytes)
+        if (n.getMethod == CANCEL_METHOD) {
+          n.getParams match {
+            case c: CancelParams =>
+              val pending = sentRequests.get(c.getId)
+              if (pending != null) get(pending.method).cancelled.incrementAndGet()
+            case _ =>
+          }
+        }
+      case _ =>
+    }
+  }
+
+  /**
+    * Records a message received from the server
+    *
+    * @param message The message
+    * @param bytes   The size of the message
+    */
+  private def received(message: Message, bytes: Long): Unit = {
+    message match {
+      case r: ResponseMessage =>
+        val pending = sentRequests.remove(r.getId)
+        if (pending != null) {
+          val metrics = get(pending.method)
+          decrementInFlight(metrics)
+          metrics.bytesReceived.addAndGet(bytes)
+          metrics.latencies.record((System.nanoTime() - pending.start) / 1000000)
+          if (r.getError != null && r.getError.getCode != ResponseErrorCode.RequestCancelled.getValue) metrics.errors.incrementAndGet()
+        }
+      case r: RequestMessage =>
+        val metrics = get(r.getMethod)
+        metrics.requests.incrementAndGet()
+        metrics.inFlight.incrementAndGet()
+        metrics.bytesReceived.addAndGet(bytes)
+        receivedRequests.put(r.getId, Pending(r.getMethod, System.nanoTime()))
+      case n: NotificationMessage =>
+        val metrics = get(n.getMethod)
+        metrics.requests.incrementAndGet()
+        metrics.bytesReceived.addAndGet(bytes)
+      case _ =>
+    }
+  }
+
+  /**
+    * @return The current metrics of each method, sorted by method
+    */
+  def getSnapshots: Seq[Snapshot] = {
+    methods.asScala.toSeq.sortBy(_._1).map(m => {
+      val metrics = m._2
+      Snapshot(m._1, metrics.requests.get(), metrics.inFlight.get(), metrics.errors.get(), metrics.cancelled.get(),
+        metrics.bytesSent.get(), metrics.bytesReceived.get(),
+        metrics.latencies.percentile(0.5), metrics.latencies.percentile(0.95), metrics.latencies.percentile(0.99))
+    })
+  }
+
+  /**
+    * @return The time at which the last request or notification was sent to the server, the responses to its requests not counting
+    */
+  def getLastActivity: Long = lastSent
+
+  /**
+    * Resets all the metrics, the requests still in flight being counted again
+    */
+  def reset(): Unit = {
+    methods.clear()
+    (sentRequests.values().asScala ++ receivedRequests.values().asScala).foreach(p => get(p.method).inFlight.incrementAndGet())
+  }
+
+  /**
+    * Forgets the requests in flight, when the connection with the server is closed
+    */
+  def disconnected(): Unit = {
+    sentRequests.clear()
+    receivedRequests.clear()
+    methods.values().asScala.foreach(_.inFlight.set(0))
+  }
+
+  /**
+    * Never goes below zero, as a response may arrive between the reset of the metrics and the count of the requests in flight
+    */
+  private def decrementInFlight(metrics: MethodMetrics): Unit = {
+    metrics.inFlight.updateAndGet(i => math.max(0L, i - 1))
+  }
+
+  private def get(method: String): MethodMetrics = {
+    methods.computeIfAbsent(if (method != null) method else "unknown", _ => new MethodMetrics)
+  }
+}
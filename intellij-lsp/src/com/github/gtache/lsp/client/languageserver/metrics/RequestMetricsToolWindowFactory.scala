@@ -0,0 +1,103 @@
+package com.github.gtache.lsp.client.languageserver.metrics
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+import com.github.gtache.lsp.PluginMain
+import com.github.gtache.lsp.client.languageserver.metrics.RequestMetrics.Snapshot
+import com.intellij.icons.AllIcons
+import com.intellij.openapi.actionSystem.{ActionManager, AnAction, AnActionEvent, DefaultActionGroup}
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.fileChooser.{FileChooserFactory, FileSaverDescriptor}
+import com.intellij.openapi.project.{DumbAware, Project}
+import com.intellij.openapi.ui.{Messages, SimpleToolWindowPanel}
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.wm.{ToolWindow, ToolWindowFactory}
+import com.intellij.ui.components.JBScrollPane
+import com.intellij.ui.content.ContentFactory
+import com.intellij.ui.table.JBTable
+import javax.swing.Timer
+import javax.swing.table.DefaultTableModel
+
+object RequestMetricsToolWindowFactory {
+
+  private val LOG: Logger = Logger.getInstance(classOf[RequestMetricsToolWindowFactory])
+  private val REFRESH_INTERVAL = 2000
+  private val COLUMNS: Array[AnyRef] = Array("Server", "Method", "Count", "In flight", "Errors", "Cancelled", "Bytes sent", "Bytes received", "p50 (ms)", "p95 (ms)", "p99 (ms)")
+
+  /**
+    * @param project The project
+    * @return The metrics of the servers of the project, for each server
+    */
+  def getSnapshots(project: Project): Seq[(String, Seq[Snapshot])] = {
+    PluginMain.getAllServerWrappers.toSeq.filter(_.getProject == project)
+      .map(w => (w.getServerDefinition.ext, w.getRequestMetrics.getSnapshots)).sortBy(_._1)
+  }
+}
+
+/**
+  * Creates the tool window showing the metrics of the requests and notifications exchanged with the servers of a project
+  */
+class RequestMetricsToolWindowFactory extends ToolWindowFactory with DumbAware {
+
+  import RequestMetricsToolWindowFactory._
+
+  override def createToolWindowContent(project: Project, toolWindow: ToolWindow): Unit = {
+    val model = new DefaultTableModel(COLUMNS, 0) {
+      override def isCellEditable(row: Int, column: Int): Boolean = false
+    }
+    val table = new JBTable(model)
+    table.setAutoCreateRowSorter(true)
+
+    def refresh(): Unit = {
+      model.setRowCount(0)
+      getSnapshots(project).foreach(s => s._2.foreach(m => {
+        model.addRow(Array[AnyRef](s._1, m.method, Long.box(m.requests), Long.box(m.inFlight), Long.box(m.errors), Long.box(m.cancelled),
+          Long.box(m.bytesSent), Long.box(m.bytesReceived), Long.box(m.p50), Long.box(m.p95), Long.box(m.p99)))
+      }))
+    }
+
+    def export(extension: String, format: Seq[(String, Seq[Snapshot])] => String): Unit = {
+      val descriptor = new FileSaverDescriptor("Export LSP Metrics", "Export the metrics of the language servers", extension)
+      val file = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project).save(null.asInstanceOf[VirtualFile], "lsp-metrics." + extension)
+      if (file != null) {
+        try {
+          Files.write(file.getFile.toPath, format(getSnapshots(project)).getBytes(StandardCharsets.UTF_8))
+        } catch {
+          case e: Exception =>
+            LOG.warn(e)
+            Messages.showErrorDialog(project, "Couldn't export the metrics : " + e.getMessage, "LSP Metrics")
+        }
+      }
+    }
+
+    val group = new DefaultActionGroup(
+      new AnAction("Refresh", "Refresh the metrics", AllIcons.Actions.Refresh) with DumbAware {
+        override def actionPerformed(e: AnActionEvent): Unit = refresh()
+      },
+      new AnAction("Reset", "Reset the metrics of all the servers of the project", AllIcons.Actions.GC) with DumbAware {
+        override def actionPerformed(e: AnActionEvent): Unit = {
+          PluginMain.getAllServerWrappers.filter(_.getProject == project).foreach(_.getRequestMetrics.reset())
+          refresh()
+        }
+      },
+      new AnAction("Export as JSON", "Export a snapshot of the metrics as JSON", AllIcons.ToolbarDecorator.Export) with DumbAware {
+        override def actionPerformed(e: AnActionEvent): Unit = export("json", RequestMetrics.toJson)
+      },
+      new AnAction("Export as CSV", "Export a snapshot of the metrics as CSV", AllIcons.Actions.Download) with DumbAware {
+        override def actionPerformed(e: AnActionEvent): Unit = export("csv", RequestMetrics.toCsv)
+      }
+    )
+    val panel = new SimpleToolWindowPanel(true, true)
+    panel.setToolbar(ActionManager.getInstance().createActionToolbar("LSPMetrics", group, true).getComponent)
+    panel.setContent(new JBScrollPane(table))
+
+    val timer = new Timer(REFRESH_INTERVAL, _ => if (toolWindow.isVisible) refresh())
+    timer.start()
+    val content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false)
+    Disposer.register(content, () => timer.stop())
+    toolWindow.getContentManager.addContent(content)
+    refresh()
+  }
+}
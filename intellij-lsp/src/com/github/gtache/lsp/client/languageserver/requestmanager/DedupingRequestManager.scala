@@ -0,0 +1,283 @@
+package com.github.gtache.lsp.client.languageserver.requestmanager
+
+import java.util
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap}
+
+import com.github.gtache.lsp.client.languageserver.requestmanager.ResponseCache.Key
+import com.github.gtache.lsp.client.languageserver.diagnostics.{DocumentDiagnosticParams, WorkspaceDiagnosticParams}
+import com.github.gtache.lsp.client.languageserver.semantictokens.SemanticTokensParams
+import com.google.gson.JsonElement
+import com.intellij.openapi.diagnostic.Logger
+import org.eclipse.lsp4j._
+import org.eclipse.lsp4j.jsonrpc.messages
+
+import scala.collection.mutable
+
+object DedupingRequestManager {
+
+  private[requestmanager] val HOVER = "textDocument/hover"
+  private[requestmanager] val SIGNATURE_HELP = "textDocument/signatureHelp"
+  private[requestmanager] val DOCUMENT_HIGHLIGHT = "textDocument/documentHighlight"
+  private[requestmanager] val DEFINITION = "textDocument/definition"
+  private[requestmanager] val REFERENCES = "textDocument/references"
+  private[requestmanager] val PREPARE_RENAME = "textDocument/prepareRename"
+
+  /**
+    * The methods for which only the latest request for a document is useful
+    */
+  private val LATEST_WINS: Set[String] = Set(HOVER, SIGNATURE_HELP, DOCUMENT_HIGHLIGHT)
+
+  /**
+    * The methods whose responses are cached while the document doesn't change
+    */
+  private val CACHED: Set[String] = Set(HOVER, SIGNATURE_HELP, DOCUMENT_HIGHLIGHT, DEFINITION)
+
+  private class InFlight(val key: Key, val request: CompletableFuture[AnyRef]) {
+    var subscribers: Int = 0
+  }
+
+}
+
+/**
+  * A RequestManager which avoids sending the same positional request twice
+  * Identical requests (same method, document, document version and position) share the response of the request in flight,
+  * and hover, signatureHelp and documentHighlight requests cancel the previous request of the same method for the document
+  * The request sent to the server is only cancelled once every caller sharing it has cancelled its future
+  * The responses to hover, signatureHelp, documentHighlight and definition requests are cached until the document changes
+  *
+  * @param delegate The RequestManager actually sending the requests
+  * @param cache    The cache of the responses
+  */
+class DedupingRequestManager(delegate: RequestManager, cache: ResponseCache) extends RequestManager {
+
+  import DedupingRequestManager._
+
+  private val LOG: Logger = Logger.getInstance(classOf[DedupingRequestManager])
+  private val versions: ConcurrentHashMap[String, Integer] = new ConcurrentHashMap[String, Integer]()
+  private val inFlight: mutable.Map[Key, InFlight] = mutable.HashMap()
+  private val latest: mutable.Map[(String, String), InFlight] = mutable.HashMap()
+
+  //Client
+  override def showMessage(messageParams: MessageParams): Unit = delegate.showMessage(messageParams)
+
+  override def showMessageRequest(showMessageRequestParams: ShowMessageRequestParams): CompletableFuture[MessageActionItem] = delegate.showMessageRequest(showMessageRequestParams)
+
+  override def logMessage(messageParams: MessageParams): Unit = delegate.logMessage(messageParams)
+
+  override def telemetryEvent(o: Any): Unit = delegate.telemetryEvent(o)
+
+  override def registerCapability(params: RegistrationParams): CompletableFuture[Void] = delegate.registerCapability(params)
+
+  override def unregisterCapability(params: UnregistrationParams): CompletableFuture[Void] = delegate.unregisterCapability(params)
+
+  override def applyEdit(params: ApplyWorkspaceEditParams): CompletableFuture[ApplyWorkspaceEditResponse] = delegate.applyEdit(params)
+
+  override def publishDiagnostics(publishDiagnosticsParams: PublishDiagnosticsParams): Unit = delegate.publishDiagnostics(publishDiagnosticsParams)
+
+  override def semanticHighlighting(params: SemanticHighlightingParams): Unit = delegate.semanticHighlighting(params)
+
+  //General
+  override def initialize(params: InitializeParams): CompletableFuture[InitializeResult] = delegate.initialize(params)
+
+  override def initialized(params: InitializedParams): Unit = delegate.initialized(params)
+
+  override def shutdown: CompletableFuture[AnyRef] = delegate.shutdown
+
+  override def exit(): Unit = delegate.exit()
+
+  //Workspace
+  override def didChangeConfiguration(params: DidChangeConfigurationParams): Unit = delegate.didChangeConfiguration(params)
+
+  override def didChangeWatchedFiles(params: DidChangeWatchedFilesParams): Unit = {
+    cache.clear()
+    delegate.didChangeWatchedFiles(params)
+  }
+
+  override def didChangeWorkspaceFolders(params: DidChangeWorkspaceFoldersParams): Unit = {
+    cache.clear()
+    delegate.didChangeWorkspaceFolders(params)
+  }
+
+  override def symbol(params: WorkspaceSymbolParams): CompletableFuture[java.util.List[_ <: SymbolInformation]] = delegate.symbol(params)
+
+  override def executeCommand(params: ExecuteCommandParams): CompletableFuture[AnyRef] = delegate.executeCommand(params)
+
+  //TextDocument
+  override def didOpen(params: DidOpenTextDocumentParams): Unit = {
+    versions.put(params.getTextDocument.getUri, params.getTextDocument.getVersion)
+    delegate.didOpen(params)
+  }
+
+  override def didChange(params: DidChangeTextDocumentParams): Unit = {
+    val version = params.getTextDocument.getVersion
+    if (version != null) versions.put(params.getTextDocument.getUri, version)
+    cache.documentChanged(params.getTextDocument.getUri)
+    delegate.didChange(params)
+  }
+
+  override def willSave(params: WillSaveTextDocumentParams): Unit = delegate.willSave(params)
+
+  override def willSaveWaitUntil(params: WillSaveTextDocumentParams): CompletableFuture[java.util.List[TextEdit]] = delegate.willSaveWaitUntil(params)
+
+  override def didSave(params: DidSaveTextDocumentParams): Unit = delegate.didSave(params)
+
+  override def didClose(params: DidCloseTextDocumentParams): Unit = {
+    versions.remove(params.getTextDocument.getUri)
+    cache.documentChanged(params.getTextDocument.getUri)
+    delegate.didClose(params)
+  }
+
+  override def completion(params: CompletionParams): CompletableFuture[jsonrpc.messages.Either[java.util.List[CompletionItem], CompletionList]] = delegate.completion(params)
+
+  override def resolveCompletionItem(unresolved: CompletionItem): CompletableFuture[CompletionItem] = delegate.resolveCompletionItem(unresolved)
+
+  override def hover(params: TextDocumentPositionParams): CompletableFuture[Hover] =
+    dedupe(HOVER, params)(delegate.hover(params))
+
+  override def signatureHelp(params: TextDocumentPositionParams): CompletableFuture[SignatureHelp] =
+    dedupe(SIGNATURE_HELP, params)(delegate.signatureHelp(params))
+
+  override def references(params: ReferenceParams): CompletableFuture[java.util.List[_ <: Location]] = {
+    val method = if (params.getContext != null && params.getContext.isIncludeDeclaration) REFERENCES + "/includeDeclaration" else REFERENCES
+    dedupe(method, params)(delegate.references(params))
+  }
+
+  override def documentHighlight(params: TextDocumentPositionParams): CompletableFuture[java.util.List[_ <: DocumentHighlight]] =
+    dedupe(DOCUMENT_HIGHLIGHT, params)(delegate.documentHighlight(params))
+
+  override def documentSymbol(params: DocumentSymbolParams): CompletableFuture[java.util.List[jsonrpc.messages.Either[SymbolInformation, DocumentSymbol]]] = delegate.documentSymbol(params)
+
+  override def formatting(params: DocumentFormattingParams): CompletableFuture[java.util.List[_ <: TextEdit]] = delegate.formatting(params)
+
+  override def rangeFormatting(params: DocumentRangeFormattingParams): CompletableFuture[java.util.List[_ <: TextEdit]] = delegate.rangeFormatting(params)
+
+  override def onTypeFormatting(params: DocumentOnTypeFormattingParams): CompletableFuture[java.util.List[_ <: TextEdit]] = delegate.onTypeFormatting(params)
+
+  override def definition(params: TextDocumentPositionParams): CompletableFuture[jsonrpc.messages.Either[java.util.List[_ <: Location], java.util.List[_ <: LocationLink]]] =
+    dedupe(DEFINITION, params)(delegate.definition(params))
+
+  override def codeAction(params: CodeActionParams): CompletableFuture[java.util.List[jsonrpc.messages.Either[Command, CodeAction]]] = delegate.codeAction(params)
+
+  override def codeLens(params: CodeLensParams): CompletableFuture[java.util.List[_ <: CodeLens]] = delegate.codeLens(params)
+
+  override def resolveCodeLens(unresolved: CodeLens): CompletableFuture[CodeLens] = delegate.resolveCodeLens(unresolved)
+
+  override def documentLink(params: DocumentLinkParams): CompletableFuture[java.util.List[DocumentLink]] = delegate.documentLink(params)
+
+  override def documentLinkResolve(unresolved: DocumentLink): CompletableFuture[DocumentLink] = delegate.documentLinkResolve(unresolved)
+
+  override def rename(params: RenameParams): CompletableFuture[WorkspaceEdit] = delegate.rename(params)
+
+  override def prepareRename(params: TextDocumentPositionParams): CompletableFuture[messages.Either[Range, PrepareRenameResult]] =
+    dedupe(PREPARE_RENAME, params)(delegate.prepareRename(params))
+
+  override def implementation(params: TextDocumentPositionParams): CompletableFuture[messages.Either[java.util.List[_ <: Location], java.util.List[_ <: LocationLink]]] = delegate.implementation(params)
+
+  override def typeDefinition(params: TextDocumentPositionParams): CompletableFuture[messages.Either[java.util.List[_ <: Location], java.util.List[_ <: LocationLink]]] = delegate.typeDefinition(params)
+
+  override def documentColor(params: DocumentColorParams): CompletableFuture[util.List[ColorInformation]] = delegate.documentColor(params)
+
+  override def colorPresentation(params: ColorPresentationParams): CompletableFuture[util.List[ColorPresentation]] = delegate.colorPresentation(params)
+
+  override def foldingRange(params: FoldingRangeRequestParams): CompletableFuture[util.List[FoldingRange]] = delegate.foldingRange(params)
+
+  override def semanticTokensFull(params: SemanticTokensParams): CompletableFuture[JsonElement] = delegate.semanticTokensFull(params)
+
+  override def semanticTokensFullDelta(params: SemanticTokensParams): CompletableFuture[JsonElement] = delegate.semanticTokensFullDelta(params)
+
+  override def semanticTokensRange(params: SemanticTokensParams): CompletableFuture[JsonElement] = delegate.semanticTokensRange(params)
+
+  override def documentDiagnostic(params: DocumentDiagnosticParams): CompletableFuture[JsonElement] = delegate.documentDiagnostic(params)
+
+  override def workspaceDiagnostic(params: WorkspaceDiagnosticParams): CompletableFuture[JsonElement] = delegate.workspaceDiagnostic(params)
+
+  /**
+    * Sends a positional request, or returns the cached response or shares the response of an identical request in flight
+    *
+    * @param method The method of the request
+    * @param params The parameters of the request
+    * @param send   The function sending the request
+    * @return A future specific to the caller, or null if the request couldn't be sent
+    */
+  private def dedupe[T](method: String, params: TextDocumentPositionParams)(send: => CompletableFuture[T]): CompletableFuture[T] = {
+    val uri = params.getTextDocument.getUri
+    val key = Key(method, uri, versions.getOrDefault(uri, -1), params.getPosition.getLine, params.getPosition.getCharacter)
+    val cached = if (CACHED.contains(method)) cache.get(key) else None
+    if (cached.isDefined) {
+      if (LATEST_WINS.contains(method)) inFlight.synchronized(latest.remove((method, uri))).foreach(p => supersede(p, key))
+      CompletableFuture.completedFuture(cached.get.asInstanceOf[T])
+    } else {
+      //The entry is reserved under the lock, but the request is sent outside of it so that a slow send doesn't block the other callers
+      val (entry, reserved, superseded) = inFlight.synchronized {
+        inFlight.get(key).filter(e => e.subscribers > 0 && !e.request.isDone) match {
+          case Some(e) =>
+            LOG.debug("Sharing request " + key)
+            e.subscribers += 1
+            (e, false, None)
+          case None =>
+            val e = new InFlight(key, new CompletableFuture[AnyRef]())
+            e.subscribers = 1
+            inFlight.put(key, e)
+            val previous = if (LATEST_WINS.contains(method)) latest.put((method, uri), e).filter(_ ne e) else None
+            (e, true, previous)
+        }
+      }
+      superseded.foreach(p => supersede(p, key))
+      if (reserved && !sendReserved(entry, send)) null else subscribe(entry, entry.request.asInstanceOf[CompletableFuture[T]])
+    }
+  }
+
+  /**
+    * Sends the request of a reserved entry, the future of the entry being completed with the response
+    *
+    * @param entry The entry
+    * @param send  The function sending the request
+    * @return False if the request couldn't be sent, in which case the entry is cancelled
+    */
+  private def sendReserved[T](entry: InFlight, send: => CompletableFuture[T]): Boolean = {
+    val key = entry.key
+    val future = entry.request
+    future.whenComplete((_: AnyRef, _: Throwable) => removeEntry(entry))
+    val request = send
+    if (request == null) {
+      future.cancel(true)
+      false
+    } else {
+      request.whenComplete((response: T, error: Throwable) => {
+        if (error == null && CACHED.contains(key.method) && versions.getOrDefault(key.uri, -1) == key.version) {
+          cache.put(key, response.asInstanceOf[AnyRef])
+        }
+        if (error == null) future.complete(response.asInstanceOf[AnyRef]) else future.completeExceptionally(error)
+      })
+      future.whenComplete((_: AnyRef, _: Throwable) => if (future.isCancelled && !request.isDone) request.cancel(true))
+      true
+    }
+  }
+
+  private def supersede(previous: InFlight, key: Key): Unit = {
+    LOG.debug("Request " + previous.key + " superseded by " + key)
+    previous.request.cancel(true)
+  }
+
+  private def subscribe[T](entry: InFlight, request: CompletableFuture[T]): CompletableFuture[T] = {
+    val result = new CompletableFuture[T]()
+    request.whenComplete((response: T, error: Throwable) => if (error == null) result.complete(response) else result.completeExceptionally(error))
+    result.whenComplete((_: T, _: Throwable) => if (result.isCancelled) unsubscribe(entry))
+    result
+  }
+
+  private def unsubscribe(entry: InFlight): Unit = {
+    val last = inFlight.synchronized {
+      entry.subscribers -= 1
+      if (entry.subscribers <= 0) removeEntry(entry)
+      entry.subscribers <= 0
+    }
+    if (last && !entry.request.isDone) entry.request.cancel(true)
+  }
+
+  private def removeEntry(entry: InFlight): Unit = inFlight.synchronized {
+    if (inFlight.get(entry.key).exists(_ eq entry)) inFlight.remove(entry.key)
+    val latestKey = (entry.key.method, entry.key.uri)
+    if (latest.get(latestKey).exists(_ eq entry)) latest.remove(latestKey)
+  }
+}
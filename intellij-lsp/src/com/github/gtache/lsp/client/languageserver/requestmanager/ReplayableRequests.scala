@@ -0,0 +1,122 @@
+package com.github.gtache.lsp.client.languageserver.requestmanager
+
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap}
+
+import scala.collection.JavaConverters._
+
+object ReplayableRequests {
+
+  /**
+    * A request waiting for its response
+    *
+    * @param uri     The uri of the document of the request, or null if it doesn't depend on a document
+    * @param stamp   The modification stamp of the document when the request was sent
+    * @param resend  Sends the request again with another RequestManager
+    * @param request The request currently sent to the server
+    */
+  private class Pending[T](val uri: String, val stamp: Long, val resend: RequestManager => CompletableFuture[T], @volatile var request: CompletableFuture[T])
+
+  /**
+    * Whether the current thread is sending the requests again, in which case they are already tracked
+    */
+  private val replaying: ThreadLocal[Boolean] = ThreadLocal.withInitial(() => false)
+}
+
+/**
+  * The idempotent requests sent to a server which aren't answered yet
+  * When the server crashes, the requests are suspended instead of failing, and are sent again to the restarted server
+  * A request is only sent again if its document wasn't modified in the meantime, as its positions would be stale ; it is cancelled otherwise
+  * The callers keep the same future, and cancelling it cancels the request currently sent to the server
+  *
+  * @param stampOf Returns the modification stamp of the document of the given uri
+  */
+class ReplayableRequests(stampOf: String => Long) {
+
+  import ReplayableRequests._
+
+  private val pending: ConcurrentHashMap[CompletableFuture[_], Pending[_]] = new ConcurrentHashMap[CompletableFuture[_], Pending[_]]()
+  @volatile private var suspended = false
+
+  /**
+    * Tracks an idempotent request
+    *
+    * @param uri     The uri of the document of the request, or null if it doesn't depend on a document
+    * @param request The request sent to the server
+    * @param resend  Sends the same request with another RequestManager
+    * @return The future given to the caller, or null if the request is null
+    */
+  def track[T](uri: String, request: CompletableFuture[T], resend: RequestManager => CompletableFuture[T]): CompletableFuture[T] = {
+    if (request == null || replaying.get()) request else {
+      val result = new CompletableFuture[T]()
+      val entry = new Pending[T](uri, if (uri != null) stampOf(uri) else 0L, resend, request)
+      pending.put(result, entry)
+      result.whenComplete((_: T, _: Throwable) => {
+        pending.remove(result)
+        if (!entry.request.isDone) entry.request.cancel(true)
+      })
+      forward(request, result, entry)
+      result
+    }
+  }
+
+  /**
+    * Keeps the pending requests until the server is restarted, the errors of their current requests being ignored
+    */
+  def suspend(): Unit = {
+    suspended = true
+  }
+
+  /**
+    * Sends the pending requests again, once the restarted server is initialized and its documents are opened
+    *
+    * @param requestManager The RequestManager of the restarted server
+    */
+  def resume(requestManager: RequestManager): Unit = {
+    if (suspended) {
+      suspended = false
+      replaying.set(true)
+      try {
+        pending.asScala.toList.foreach { case (result, entry) => resend(result.asInstanceOf[CompletableFuture[Any]], entry.asInstanceOf[Pending[Any]], requestManager) }
+      } finally {
+        replaying.set(false)
+      }
+    }
+  }
+
+  /**
+    * Cancels all the pending requests, when the server is stopped
+    */
+  def cancelAll(): Unit = {
+    suspended = false
+    pending.keySet().asScala.toList.foreach(result => result.cancel(true))
+  }
+
+  /**
+    * @return The number of pending requests
+    */
+  def size: Int = pending.size()
+
+  private def resend[T](result: CompletableFuture[T], entry: Pending[T], requestManager: RequestManager): Unit = {
+    if (!result.isDone) {
+      val previous = entry.request
+      val request = if (requestManager != null && (entry.uri == null || stampOf(entry.uri) == entry.stamp)) entry.resend(requestManager) else null
+      if (request == null) result.cancel(true) else {
+        entry.request = request
+        forward(request, result, entry)
+      }
+      if (!previous.isDone) previous.cancel(true)
+    }
+  }
+
+  /**
+    * Completes the future of the caller with the response of the request, unless the request has been replaced or the server crashed
+    */
+  private def forward[T](request: CompletableFuture[T], result: CompletableFuture[T], entry: Pending[T]): Unit = {
+    request.whenComplete((response: T, error: Throwable) => {
+      if (entry.request eq request) {
+        if (error == null) result.complete(response)
+        else if (!suspended) result.completeExceptionally(error)
+      }
+    })
+  }
+}
@@ -1,13 +1,75 @@
 package com.github.gtache.lsp.client.languageserver.requestmanager
 
 import java.util
-import java.util.concurrent.CompletableFuture
-
+import java.util.concurrent.{CompletableFuture, CompletionException, ExecutionException, TimeUnit, TimeoutException}
+
+import com.github.gtache.lsp.client.languageserver.diagnostics.{DocumentDiagnosticParams, WorkspaceDiagnosticParams}
+import com.github.gtache.lsp.client.languageserver.semantictokens.SemanticTokensParams
+import com.github.gtache.lsp.utils.ApplicationUtils
+import com.google.gson.JsonElement
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.concurrency.AppExecutorUtil
 import org.eclipse.lsp4j._
 import org.eclipse.lsp4j.jsonrpc.messages
-import org.eclipse.lsp4j.jsonrpc.messages.CancelParams
 import org.eclipse.lsp4j.services.{LanguageClient, LanguageServer, TextDocumentService, WorkspaceService}
 
+object RequestManager {
+
+  private val LOG: Logger = Logger.getInstance(classOf[RequestManager])
+
+  /**
+    * Returns a future completed with the response of the request, or exceptionally with a TimeoutException if the server doesn't answer in time
+    * The request is cancelled on the server if it times out or if the returned future is cancelled
+    *
+    * @param request The future of the request
+    * @param timeout The timeout in milliseconds
+    * @return The future, or null if the request is null
+    */
+  def withTimeout[T](request: CompletableFuture[T], timeout: Long): CompletableFuture[T] = {
+    if (request != null) {
+      val result = new CompletableFuture[T]()
+      val timeoutRunnable: Runnable = () => result.completeExceptionally(new TimeoutException("No response after " + timeout + "ms"))
+      val timeoutTask = AppExecutorUtil.getAppScheduledExecutorService.schedule(timeoutRunnable, timeout, TimeUnit.MILLISECONDS)
+      request.whenComplete((response: T, error: Throwable) => if (error == null) result.complete(response) else result.completeExceptionally(error))
+      result.whenComplete((_: T, _: Throwable) => {
+        timeoutTask.cancel(false)
+        if (!request.isDone) request.cancel(true)
+      })
+      result
+    } else null
+  }
+
+  /**
+    * Handles the response of a request without blocking any thread while waiting for it
+    *
+    * @param future     The future of the request
+    * @param onEDT      Whether onResponse must be called on the EDT (on a pooled thread otherwise)
+    * @param onResponse The function to call with the response
+    * @param onError    The function to call with the error if the request failed
+    * @return A future completed once the response has been handled
+    */
+  def handleResponse[T](future: CompletableFuture[T], onEDT: Boolean)(onResponse: T => Unit, onError: Throwable => Unit): CompletableFuture[Void] = {
+    future.handleAsync[Void]((response: T, error: Throwable) => {
+      if (error == null) {
+        if (onEDT) ApplicationUtils.invokeLater(() => onResponse(response)) else {
+          try {
+            onResponse(response)
+          } catch {
+            case e: Exception => LOG.warn(e)
+          }
+        }
+      } else {
+        onError(error match {
+          case e: CompletionException if e.getCause != null => e.getCause
+          case e: ExecutionException if e.getCause != null => e.getCause
+          case e => e
+        })
+      }
+      null
+    }, AppExecutorUtil.getAppExecutorService)
+  }
+}
+
 /**
   * Handles requests between server and client
   */
@@ -42,8 +104,6 @@ trait RequestManager extends LanguageServer with TextDocumentService with Worksp
 
   override def exit(): Unit
 
-  def cancelRequest(params: CancelParams): Unit
-
   //Workspace
   override def didChangeConfiguration(params: DidChangeConfigurationParams): Unit
 
@@ -124,6 +184,18 @@ trait RequestManager extends LanguageServer with TextDocumentService with Worksp
 
   override def resolveTypeHierarchy(params: ResolveTypeHierarchyItemParams): CompletableFuture[TypeHierarchyItem]
 
+  //Semantic tokens (not part of lsp4j 0.8.1, the responses are the raw SemanticTokens, SemanticTokensDelta or null)
+  def semanticTokensFull(params: SemanticTokensParams): CompletableFuture[JsonElement]
+
+  def semanticTokensFullDelta(params: SemanticTokensParams): CompletableFuture[JsonElement]
+
+  def semanticTokensRange(params: SemanticTokensParams): CompletableFuture[JsonElement]
+
+  //Pull diagnostics (not part of lsp4j 0.8.1, the responses are the raw DocumentDiagnosticReport and WorkspaceDiagnosticReport)
+  def documentDiagnostic(params: DocumentDiagnosticParams): CompletableFuture[JsonElement]
+
+  def workspaceDiagnostic(params: WorkspaceDiagnosticParams): CompletableFuture[JsonElement]
+
   //Unused
   override def getTextDocumentService: TextDocumentService = throw new UnsupportedOperationException
 
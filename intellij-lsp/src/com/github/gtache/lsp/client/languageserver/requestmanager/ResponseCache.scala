@@ -0,0 +1,95 @@
+package com.github.gtache.lsp.client.languageserver.requestmanager
+
+import java.util
+import java.util.concurrent.atomic.AtomicLong
+
+import com.github.gtache.lsp.settings.LSPState
+
+import scala.collection.JavaConverters._
+
+object ResponseCache {
+
+  /**
+    * The key of a positional request
+    *
+    * @param method    The method of the request
+    * @param uri       The uri of the document
+    * @param version   The version of the document when the request was sent
+    * @param line      The line of the position
+    * @param character The character of the position
+    */
+  case class Key(method: String, uri: String, version: Int, line: Int, character: Int)
+
+  private val DEFAULT_SIZE = 500
+}
+
+/**
+  * A bounded LRU cache of the responses to idempotent positional requests of a server
+  * The maximum number of entries is given by LSPState.getResponseCacheSize, 0 disabling the cache
+  */
+class ResponseCache {
+
+  import ResponseCache._
+
+  private val hits = new AtomicLong()
+  private val misses = new AtomicLong()
+  private val entries: util.LinkedHashMap[Key, AnyRef] = new util.LinkedHashMap[Key, AnyRef](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: util.Map.Entry[Key, AnyRef]): Boolean = size() > maxSize
+  }
+
+  /**
+    * Returns the cached response for a request
+    *
+    * @param key The key of the request
+    * @return The response, or None if it isn't cached
+    */
+  def get(key: Key): Option[AnyRef] = {
+    val response = entries.synchronized(Option(entries.get(key)))
+    if (response.isDefined) hits.incrementAndGet() else misses.incrementAndGet()
+    response
+  }
+
+  /**
+    * Caches the response to a request
+    *
+    * @param key      The key of the request
+    * @param response The response
+    */
+  def put(key: Key, response: AnyRef): Unit = {
+    if (response != null && maxSize > 0) entries.synchronized(entries.put(key, response))
+  }
+
+  /**
+    * Removes the responses which may be outdated after a document changed
+    * Those are the responses for the document and the definitions of all documents, as they may point to the changed document
+    *
+    * @param uri The uri of the document
+    */
+  def documentChanged(uri: String): Unit = entries.synchronized {
+    entries.keySet().asScala.filter(k => k.uri == uri || k.method == DedupingRequestManager.DEFINITION).toList.foreach(entries.remove)
+  }
+
+  /**
+    * Removes all the responses
+    */
+  def clear(): Unit = entries.synchronized(entries.clear())
+
+  /**
+    * @return The counters as (name, value) pairs
+    */
+  def getCounters: Seq[(String, Long)] = {
+    val hitCount = hits.get()
+    val total = hitCount + misses.get()
+    Seq(
+      ("Cached responses", entries.synchronized(entries.size().toLong)),
+      ("Hits", hitCount),
+      ("Misses", total - hitCount),
+      ("Hit ratio (%)", if (total != 0) hitCount * 100 / total else 0L)
+    )
+  }
+
+  private def maxSize: Int = {
+    val state = LSPState.getInstance()
+    if (state != null) state.getResponseCacheSize else DEFAULT_SIZE
+  }
+}
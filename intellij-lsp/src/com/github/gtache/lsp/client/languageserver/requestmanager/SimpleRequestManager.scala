@@ -4,21 +4,26 @@ import java.util
 import java.util.concurrent.CompletableFuture
 
 import com.github.gtache.lsp.client.languageserver.ServerStatus
+import com.github.gtache.lsp.client.languageserver.diagnostics.{DiagnosticOptions, DocumentDiagnosticParams, WorkspaceDiagnosticParams}
+import com.github.gtache.lsp.client.languageserver.semantictokens.{LSPServerCapabilities, SemanticTokensOptions, SemanticTokensParams}
 import com.github.gtache.lsp.client.languageserver.wrapper.LanguageServerWrapper
+import com.github.gtache.lsp.requests.Timeouts
+import com.google.gson.{JsonElement, JsonNull}
 import com.intellij.openapi.diagnostic.Logger
 import org.eclipse.lsp4j._
-import org.eclipse.lsp4j.jsonrpc.messages
-import org.eclipse.lsp4j.jsonrpc.messages.CancelParams
+import org.eclipse.lsp4j.jsonrpc.{Endpoint, messages}
 import org.eclipse.lsp4j.services.{LanguageClient, LanguageServer, TextDocumentService, WorkspaceService}
 
 /**
   * Basic implementation of a RequestManager which just passes requests from client to server and vice-versa
   */
-class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServer, client: LanguageClient, serverCapabilities: ServerCapabilities) extends RequestManager {
+class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServer, client: LanguageClient, serverCapabilities: ServerCapabilities, endpoint: Endpoint) extends RequestManager {
 
   private val textDocumentOptions = if (serverCapabilities.getTextDocumentSync.isRight) serverCapabilities.getTextDocumentSync.getRight else null
   private val workspaceService: WorkspaceService = server.getWorkspaceService
   private val textDocumentService: TextDocumentService = server.getTextDocumentService
+  private val semanticTokensProvider: SemanticTokensOptions = LSPServerCapabilities.getSemanticTokensProvider(serverCapabilities)
+  private val diagnosticProvider: DiagnosticOptions = LSPServerCapabilities.getDiagnosticProvider(serverCapabilities)
   private val LOG: Logger = Logger.getInstance(classOf[SimpleRequestManager])
 
   //Client
@@ -59,7 +64,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def shutdown: CompletableFuture[AnyRef] =
     if (checkStatus) try {
-      server.shutdown()
+      timed(Timeouts.SHUTDOWN)(server.shutdown())
     } catch {
       case e: Exception => crashed(e)
         null
@@ -72,9 +77,6 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
       case e: Exception => crashed(e)
     }
 
-  override def cancelRequest(params: CancelParams): Unit = {
-  }
-
   //Workspace
   override def didChangeConfiguration(params: DidChangeConfigurationParams): Unit =
     if (checkStatus) try {
@@ -90,9 +92,16 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
       case e: Exception => crashed(e)
     }
 
+  override def didChangeWorkspaceFolders(params: DidChangeWorkspaceFoldersParams): Unit =
+    if (checkStatus) try {
+      workspaceService.didChangeWorkspaceFolders(params)
+    } catch {
+      case e: Exception => crashed(e)
+    }
+
   override def symbol(params: WorkspaceSymbolParams): CompletableFuture[java.util.List[_ <: SymbolInformation]] =
     if (checkStatus) try {
-      if (serverCapabilities.getWorkspaceSymbolProvider) workspaceService.symbol(params) else null
+      if (serverCapabilities.getWorkspaceSymbolProvider) replayable(null)(_.symbol(params))(timed(Timeouts.SYMBOLS)(workspaceService.symbol(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -100,7 +109,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def executeCommand(params: ExecuteCommandParams): CompletableFuture[AnyRef] =
     if (checkStatus) try {
-      if (serverCapabilities.getExecuteCommandProvider != null) workspaceService.executeCommand(params) else null
+      if (serverCapabilities.getExecuteCommandProvider != null) timed(Timeouts.EXECUTE_COMMAND)(workspaceService.executeCommand(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -130,7 +139,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def willSaveWaitUntil(params: WillSaveTextDocumentParams): CompletableFuture[java.util.List[TextEdit]] =
     if (checkStatus) try {
-      if (textDocumentOptions == null || textDocumentOptions.getWillSaveWaitUntil) textDocumentService.willSaveWaitUntil(params) else null
+      if (textDocumentOptions == null || textDocumentOptions.getWillSaveWaitUntil) timed(Timeouts.WILLSAVE)(textDocumentService.willSaveWaitUntil(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -152,7 +161,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def completion(params: CompletionParams): CompletableFuture[jsonrpc.messages.Either[java.util.List[CompletionItem], CompletionList]] =
     if (checkStatus) try {
-      if (serverCapabilities.getCompletionProvider != null) textDocumentService.completion(params) else null
+      if (serverCapabilities.getCompletionProvider != null) replayable(params.getTextDocument.getUri)(_.completion(params))(timed(Timeouts.COMPLETION)(textDocumentService.completion(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -168,7 +177,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def hover(params: TextDocumentPositionParams): CompletableFuture[Hover] =
     if (checkStatus) try {
-      if (serverCapabilities.getHoverProvider) textDocumentService.hover(params) else null
+      if (serverCapabilities.getHoverProvider) replayable(params.getTextDocument.getUri)(_.hover(params))(timed(Timeouts.HOVER)(textDocumentService.hover(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -176,7 +185,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def signatureHelp(params: TextDocumentPositionParams): CompletableFuture[SignatureHelp] =
     if (checkStatus) try {
-      if (serverCapabilities.getSignatureHelpProvider != null) textDocumentService.signatureHelp(params) else null
+      if (serverCapabilities.getSignatureHelpProvider != null) replayable(params.getTextDocument.getUri)(_.signatureHelp(params))(timed(Timeouts.SIGNATURE)(textDocumentService.signatureHelp(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -184,7 +193,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def references(params: ReferenceParams): CompletableFuture[java.util.List[_ <: Location]] =
     if (checkStatus) try {
-      if (serverCapabilities.getReferencesProvider) textDocumentService.references(params) else null
+      if (serverCapabilities.getReferencesProvider) replayable(params.getTextDocument.getUri)(_.references(params))(timed(Timeouts.REFERENCES)(textDocumentService.references(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -192,7 +201,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def documentHighlight(params: TextDocumentPositionParams): CompletableFuture[java.util.List[_ <: DocumentHighlight]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDocumentHighlightProvider) textDocumentService.documentHighlight(params) else null
+      if (serverCapabilities.getDocumentHighlightProvider) replayable(params.getTextDocument.getUri)(_.documentHighlight(params))(timed(Timeouts.DOC_HIGHLIGHT)(textDocumentService.documentHighlight(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -200,7 +209,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def documentSymbol(params: DocumentSymbolParams): CompletableFuture[java.util.List[jsonrpc.messages.Either[SymbolInformation, DocumentSymbol]]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDocumentSymbolProvider) textDocumentService.documentSymbol(params) else null
+      if (serverCapabilities.getDocumentSymbolProvider) replayable(params.getTextDocument.getUri)(_.documentSymbol(params))(textDocumentService.documentSymbol(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -208,7 +217,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def formatting(params: DocumentFormattingParams): CompletableFuture[java.util.List[_ <: TextEdit]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDocumentFormattingProvider) textDocumentService.formatting(params) else null
+      if (serverCapabilities.getDocumentFormattingProvider) timed(Timeouts.FORMATTING)(textDocumentService.formatting(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -216,7 +225,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def rangeFormatting(params: DocumentRangeFormattingParams): CompletableFuture[java.util.List[_ <: TextEdit]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDocumentRangeFormattingProvider) textDocumentService.rangeFormatting(params) else null
+      if (serverCapabilities.getDocumentRangeFormattingProvider) timed(Timeouts.FORMATTING)(textDocumentService.rangeFormatting(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -224,7 +233,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def onTypeFormatting(params: DocumentOnTypeFormattingParams): CompletableFuture[java.util.List[_ <: TextEdit]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDocumentOnTypeFormattingProvider != null) textDocumentService.onTypeFormatting(params) else null
+      if (serverCapabilities.getDocumentOnTypeFormattingProvider != null) timed(Timeouts.FORMATTING)(textDocumentService.onTypeFormatting(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -232,7 +241,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def definition(params: TextDocumentPositionParams): CompletableFuture[jsonrpc.messages.Either[java.util.List[_ <: Location], java.util.List[_ <: LocationLink]]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDefinitionProvider) textDocumentService.definition(params) else null
+      if (serverCapabilities.getDefinitionProvider) replayable(params.getTextDocument.getUri)(_.definition(params))(timed(Timeouts.DEFINITION)(textDocumentService.definition(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -240,7 +249,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def codeAction(params: CodeActionParams): CompletableFuture[java.util.List[jsonrpc.messages.Either[Command, CodeAction]]] =
     if (checkStatus) try {
-      if (checkProvider(serverCapabilities.getCodeActionProvider.asInstanceOf[jsonrpc.messages.Either[Boolean, StaticRegistrationOptions]])) textDocumentService.codeAction(params) else null
+      if (checkProvider(serverCapabilities.getCodeActionProvider.asInstanceOf[jsonrpc.messages.Either[Boolean, StaticRegistrationOptions]])) replayable(params.getTextDocument.getUri)(_.codeAction(params))(timed(Timeouts.CODEACTION)(textDocumentService.codeAction(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -252,7 +261,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def codeLens(params: CodeLensParams): CompletableFuture[java.util.List[_ <: CodeLens]] =
     if (checkStatus) try {
-      if (serverCapabilities.getCodeLensProvider != null) textDocumentService.codeLens(params) else null
+      if (serverCapabilities.getCodeLensProvider != null) replayable(params.getTextDocument.getUri)(_.codeLens(params))(timed(Timeouts.CODELENS)(textDocumentService.codeLens(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -268,7 +277,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def documentLink(params: DocumentLinkParams): CompletableFuture[java.util.List[DocumentLink]] =
     if (checkStatus) try {
-      if (serverCapabilities.getDocumentLinkProvider != null) textDocumentService.documentLink(params) else null
+      if (serverCapabilities.getDocumentLinkProvider != null) replayable(params.getTextDocument.getUri)(_.documentLink(params))(textDocumentService.documentLink(params)) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -276,6 +285,33 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   private def checkStatus: Boolean = wrapper.getStatus == ServerStatus.STARTED
 
+  /**
+    * Records the latency of a request once it completes successfully
+    *
+    * @param kind    The kind of request
+    * @param request The request to send
+    * @return The future of the request
+    */
+  private def timed[T](kind: Timeouts)(request: => CompletableFuture[T]): CompletableFuture[T] = {
+    val start = System.currentTimeMillis()
+    val future = request
+    if (future != null) {
+      future.whenComplete((_: T, error: Throwable) => if (error == null) wrapper.notifyLatency(kind, System.currentTimeMillis() - start))
+    }
+    future
+  }
+
+  /**
+    * Tracks an idempotent request, so that it is sent again if the server crashes and restarts before answering it
+    *
+    * @param uri     The uri of the document of the request, or null if it doesn't depend on a document
+    * @param resend  Sends the same request with the RequestManager of the restarted server
+    * @param request The request to send
+    * @return The future given to the caller
+    */
+  private def replayable[T](uri: String)(resend: RequestManager => CompletableFuture[T])(request: CompletableFuture[T]): CompletableFuture[T] =
+    wrapper.getReplayableRequests.track(uri, request, resend)
+
   private def crashed(e: Exception): Unit = {
     LOG.warn(e)
     wrapper.crashed(e)
@@ -300,7 +336,7 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
 
   override def prepareRename(params: TextDocumentPositionParams): CompletableFuture[messages.Either[Range, PrepareRenameResult]] = {
     if (checkStatus) try {
-      if (checkProvider(serverCapabilities.getRenameProvider.asInstanceOf[jsonrpc.messages.Either[Boolean, StaticRegistrationOptions]])) textDocumentService.prepareRename(params) else null
+      if (checkProvider(serverCapabilities.getRenameProvider.asInstanceOf[jsonrpc.messages.Either[Boolean, StaticRegistrationOptions]])) replayable(params.getTextDocument.getUri)(_.prepareRename(params))(timed(Timeouts.PREPARE_RENAME)(textDocumentService.prepareRename(params))) else null
     } catch {
       case e: Exception => crashed(e)
         null
@@ -316,4 +352,37 @@ class SimpleRequestManager(wrapper: LanguageServerWrapper, server: LanguageServe
   override def colorPresentation(params: ColorPresentationParams): CompletableFuture[util.List[ColorPresentation]] = throw new NotImplementedError()
 
   override def foldingRange(params: FoldingRangeRequestParams): CompletableFuture[util.List[FoldingRange]] = throw new NotImplementedError()
+
+  override def semanticTokensFull(params: SemanticTokensParams): CompletableFuture[JsonElement] =
+    replayable(params.getTextDocument.getUri)(_.semanticTokensFull(params))(semanticTokens("textDocument/semanticTokens/full", params, semanticTokensProvider != null && semanticTokensProvider.isFullSupported))
+
+  override def semanticTokensFullDelta(params: SemanticTokensParams): CompletableFuture[JsonElement] =
+    semanticTokens("textDocument/semanticTokens/full/delta", params, semanticTokensProvider != null && semanticTokensProvider.isDeltaSupported)
+
+  override def semanticTokensRange(params: SemanticTokensParams): CompletableFuture[JsonElement] =
+    replayable(params.getTextDocument.getUri)(_.semanticTokensRange(params))(semanticTokens("textDocument/semanticTokens/range", params, semanticTokensProvider != null && semanticTokensProvider.isRangeSupported))
+
+  override def documentDiagnostic(params: DocumentDiagnosticParams): CompletableFuture[JsonElement] =
+    rawRequest(Timeouts.DIAGNOSTIC, "textDocument/diagnostic", params, diagnosticProvider != null)
+
+  override def workspaceDiagnostic(params: WorkspaceDiagnosticParams): CompletableFuture[JsonElement] =
+    rawRequest(Timeouts.DIAGNOSTIC, "workspace/diagnostic", params, diagnosticProvider != null && diagnosticProvider.isWorkspaceDiagnostics)
+
+  private def semanticTokens(method: String, params: SemanticTokensParams, supported: Boolean): CompletableFuture[JsonElement] =
+    rawRequest(Timeouts.SEMANTIC_TOKENS, method, params, supported)
+
+  /**
+    * Sends a request through the endpoint, for the methods the remote proxy doesn't know
+    * The endpoint returns the raw response, as there is no registered type for it
+    */
+  private def rawRequest(kind: Timeouts, method: String, params: AnyRef, supported: Boolean): CompletableFuture[JsonElement] =
+    if (checkStatus) try {
+      if (supported) timed(kind)(endpoint.request(method, params).asInstanceOf[CompletableFuture[AnyRef]].thenApply[JsonElement]((response: AnyRef) => response match {
+        case element: JsonElement => element
+        case _ => JsonNull.INSTANCE
+      })) else null
+    } catch {
+      case e: Exception => crashed(e)
+        null
+    } else null
 }
@@ -0,0 +1,46 @@
+package com.github.gtache.lsp.client.languageserver.semantictokens;
+
+import com.github.gtache.lsp.client.languageserver.diagnostics.DiagnosticOptions;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import org.eclipse.lsp4j.ServerCapabilities;
+
+/**
+ * The server capabilities, with the semantic tokens and pull diagnostics providers which aren't part of lsp4j 0.8.1
+ */
+public class LSPServerCapabilities extends ServerCapabilities {
+
+    private SemanticTokensOptions semanticTokensProvider;
+    private DiagnosticOptions diagnosticProvider;
+
+    /**
+     * Makes the given builder deserialize the server capabilities as LSPServerCapabilities
+     *
+     * @param builder The builder of the Gson used by the launcher
+     */
+    public static void configureGson(final GsonBuilder builder) {
+        builder.registerTypeAdapter(ServerCapabilities.class,
+                (JsonDeserializer<ServerCapabilities>) (json, type, context) -> context.deserialize(json, LSPServerCapabilities.class));
+    }
+
+    /**
+     * @param capabilities The capabilities of a server
+     * @return The semantic tokens provider of the server, or null if it doesn't support semantic tokens
+     */
+    public static SemanticTokensOptions getSemanticTokensProvider(final ServerCapabilities capabilities) {
+        if (capabilities instanceof LSPServerCapabilities) {
+            final SemanticTokensOptions provider = ((LSPServerCapabilities) capabilities).semanticTokensProvider;
+            return provider != null && provider.getLegend() != null ? provider : null;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @param capabilities The capabilities of a server
+     * @return The pull diagnostics provider of the server, or null if it only pushes diagnostics
+     */
+    public static DiagnosticOptions getDiagnosticProvider(final ServerCapabilities capabilities) {
+        return capabilities instanceof LSPServerCapabilities ? ((LSPServerCapabilities) capabilities).diagnosticProvider : null;
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.gtache.lsp.client.languageserver.semantictokens;
+
+import com.github.gtache.lsp.client.languageserver.diagnostics.DiagnosticCapabilities;
+import org.eclipse.lsp4j.TextDocumentClientCapabilities;
+
+/**
+ * The text document client capabilities, with the semantic tokens and pull diagnostics capabilities which aren't part of lsp4j 0.8.1
+ */
+public class LSPTextDocumentClientCapabilities extends TextDocumentClientCapabilities {
+
+    private SemanticTokensCapabilities semanticTokens;
+    private DiagnosticCapabilities diagnostic;
+
+    public SemanticTokensCapabilities getSemanticTokens() {
+        return semanticTokens;
+    }
+
+    public void setSemanticTokens(final SemanticTokensCapabilities semanticTokens) {
+        this.semanticTokens = semanticTokens;
+    }
+
+    public DiagnosticCapabilities getDiagnostic() {
+        return diagnostic;
+    }
+
+    public void setDiagnostic(final DiagnosticCapabilities diagnostic) {
+        this.diagnostic = diagnostic;
+    }
+}
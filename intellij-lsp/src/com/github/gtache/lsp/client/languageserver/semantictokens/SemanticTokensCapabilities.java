@@ -0,0 +1,45 @@
+package com.github.gtache.lsp.client.languageserver.semantictokens;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The client capabilities for the semantic tokens (not part of lsp4j 0.8.1)
+ * The plugin supports the full, delta and range requests with the relative format
+ */
+public class SemanticTokensCapabilities {
+
+    private final boolean dynamicRegistration = false;
+    private final Requests requests = new Requests();
+    private final List<String> tokenTypes;
+    private final List<String> tokenModifiers;
+    private final List<String> formats = Collections.singletonList("relative");
+    private final boolean overlappingTokenSupport = false;
+    private final boolean multilineTokenSupport = false;
+
+    /**
+     * @param tokenTypes     The token types which can be highlighted
+     * @param tokenModifiers The token modifiers which can be highlighted
+     */
+    public SemanticTokensCapabilities(final List<String> tokenTypes, final List<String> tokenModifiers) {
+        this.tokenTypes = tokenTypes;
+        this.tokenModifiers = tokenModifiers;
+    }
+
+    public List<String> getTokenTypes() {
+        return tokenTypes;
+    }
+
+    public List<String> getTokenModifiers() {
+        return tokenModifiers;
+    }
+
+    private static class Requests {
+        private final boolean range = true;
+        private final Full full = new Full();
+    }
+
+    private static class Full {
+        private final boolean delta = true;
+    }
+}
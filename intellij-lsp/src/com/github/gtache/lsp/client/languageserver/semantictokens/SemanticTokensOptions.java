@@ -0,0 +1,61 @@
+package com.github.gtache.lsp.client.languageserver.semantictokens;
+
+import com.google.gson.JsonElement;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The semantic tokens provider of a server (not part of lsp4j 0.8.1)
+ */
+public class SemanticTokensOptions {
+
+    private Legend legend;
+    private JsonElement range;
+    private JsonElement full;
+
+    public Legend getLegend() {
+        return legend;
+    }
+
+    /**
+     * @return Whether the server supports textDocument/semanticTokens/range
+     */
+    public boolean isRangeSupported() {
+        return isEnabled(range);
+    }
+
+    /**
+     * @return Whether the server supports textDocument/semanticTokens/full
+     */
+    public boolean isFullSupported() {
+        return isEnabled(full);
+    }
+
+    /**
+     * @return Whether the server supports textDocument/semanticTokens/full/delta
+     */
+    public boolean isDeltaSupported() {
+        return full != null && full.isJsonObject() && isEnabled(full.getAsJsonObject().get("delta"));
+    }
+
+    private static boolean isEnabled(final JsonElement element) {
+        return element != null && (element.isJsonObject() || (element.isJsonPrimitive() && element.getAsJsonPrimitive().isBoolean() && element.getAsBoolean()));
+    }
+
+    /**
+     * The token types and modifiers used by a server, indexed by the integers of the tokens
+     */
+    public static class Legend {
+        private List<String> tokenTypes;
+        private List<String> tokenModifiers;
+
+        public List<String> getTokenTypes() {
+            return tokenTypes != null ? tokenTypes : Collections.emptyList();
+        }
+
+        public List<String> getTokenModifiers() {
+            return tokenModifiers != null ? tokenModifiers : Collections.emptyList();
+        }
+    }
+}
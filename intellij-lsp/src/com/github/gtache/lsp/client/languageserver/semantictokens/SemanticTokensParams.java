@@ -0,0 +1,45 @@
+package com.github.gtache.lsp.client.languageserver.semantictokens;
+
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+
+/**
+ * The parameters of the textDocument/semanticTokens/full, /full/delta and /range requests (not part of lsp4j 0.8.1)
+ * The fields which don't apply to a request are left null and aren't serialized
+ */
+public class SemanticTokensParams {
+
+    private final TextDocumentIdentifier textDocument;
+    private final String previousResultId;
+    private final Range range;
+
+    private SemanticTokensParams(final TextDocumentIdentifier textDocument, final String previousResultId, final Range range) {
+        this.textDocument = textDocument;
+        this.previousResultId = previousResultId;
+        this.range = range;
+    }
+
+    public static SemanticTokensParams full(final TextDocumentIdentifier textDocument) {
+        return new SemanticTokensParams(textDocument, null, null);
+    }
+
+    public static SemanticTokensParams delta(final TextDocumentIdentifier textDocument, final String previousResultId) {
+        return new SemanticTokensParams(textDocument, previousResultId, null);
+    }
+
+    public static SemanticTokensParams range(final TextDocumentIdentifier textDocument, final Range range) {
+        return new SemanticTokensParams(textDocument, null, range);
+    }
+
+    public TextDocumentIdentifier getTextDocument() {
+        return textDocument;
+    }
+
+    public String getPreviousResultId() {
+        return previousResultId;
+    }
+
+    public Range getRange() {
+        return range;
+    }
+}
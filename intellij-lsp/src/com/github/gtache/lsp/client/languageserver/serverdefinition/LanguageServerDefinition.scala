@@ -51,6 +51,7 @@ trait LanguageServerDefinition {
     set
   }
   private val streamConnectionProviders: mutable.Map[String, StreamConnectionProvider] = mutable.Map()
+  private val spareConnectionProviders: mutable.Map[String, StreamConnectionProvider] = mutable.Map()
 
   /**
     * @return The extension that the language server manages
@@ -74,13 +75,87 @@ trait LanguageServerDefinition {
       case Some(streamConnectionProvider) =>
         (streamConnectionProvider.getInputStream, streamConnectionProvider.getOutputStream)
       case None =>
-        val streamConnectionProvider = createConnectionProvider(workingDir)
-        streamConnectionProvider.start()
+        val streamConnectionProvider = takeSpare(workingDir).getOrElse {
+          val provider = createConnectionProvider(workingDir)
+          provider.start()
+          provider
+        }
         streamConnectionProviders.put(workingDir, streamConnectionProvider)
         (streamConnectionProvider.getInputStream, streamConnectionProvider.getOutputStream)
     }
   }
 
+  /**
+    * @param workingDir The root directory
+    * @return Whether the Language server of the given directory is still running (true if it isn't started)
+    */
+  def isAlive(workingDir: String): Boolean = {
+    streamConnectionProviders.get(workingDir).forall(p => p.isAlive)
+  }
+
+  /**
+    * @param workingDir The root directory
+    * @return The resident memory of the Language server of the given directory in bytes, or -1 if it is unknown or not started
+    */
+  def getMemoryUsage(workingDir: String): Long = {
+    streamConnectionProviders.get(workingDir).map(p => p.getMemoryUsage).getOrElse(-1L)
+  }
+
+  /**
+    * @param workingDir The root directory
+    * @return The resident memory of the spare Language server of the given directory in bytes, or -1 if it is unknown or there is none
+    */
+  def getSpareMemoryUsage(workingDir: String): Long = {
+    spareConnectionProviders.synchronized(spareConnectionProviders.get(workingDir)).map(p => p.getMemoryUsage).getOrElse(-1L)
+  }
+
+  /**
+    * Starts a spare Language server for the given directory, which is used by the next call to start instead of launching a new process
+    * This avoids the launch time (e.g. JVM startup) when the server is restarted after a crash
+    *
+    * @param workingDir The root directory
+    */
+  def startSpare(workingDir: String): Unit = {
+    val started = spareConnectionProviders.synchronized {
+      if (spareConnectionProviders.get(workingDir).exists(p => p.isAlive)) false else {
+        spareConnectionProviders.remove(workingDir).foreach(p => p.stop())
+        true
+      }
+    }
+    if (started) {
+      val streamConnectionProvider = createConnectionProvider(workingDir)
+      streamConnectionProvider.start()
+      spareConnectionProviders.synchronized {
+        spareConnectionProviders.put(workingDir, streamConnectionProvider).foreach(p => p.stop())
+      }
+    }
+  }
+
+  /**
+    * Stops the spare Language server of the given directory, if any
+    *
+    * @param workingDir The root directory
+    */
+  def stopSpare(workingDir: String): Unit = {
+    spareConnectionProviders.synchronized {
+      spareConnectionProviders.remove(workingDir).foreach(p => p.stop())
+    }
+  }
+
+  private def takeSpare(workingDir: String): Option[StreamConnectionProvider] = {
+    spareConnectionProviders.synchronized {
+      spareConnectionProviders.remove(workingDir) match {
+        case Some(p) if p.isAlive =>
+          LOG.info("Using spare server for " + workingDir + " and ext " + ext)
+          Some(p)
+        case Some(p) =>
+          p.stop()
+          None
+        case None => None
+      }
+    }
+  }
+
   def getOutputStreams(workingDir: String): (InputStream, InputStream) = {
     streamConnectionProviders.get(workingDir) match {
       case Some(streamConnectionProvider) => (streamConnectionProvider.getInputStream, streamConnectionProvider.getErrorStream)
@@ -102,6 +177,16 @@ trait LanguageServerDefinition {
     }
   }
 
+  /**
+    * Moves the Language server of a directory to another one, when the server shared by several projects changes owner
+    *
+    * @param fromDir The root directory of the previous owner
+    * @param toDir   The root directory of the new owner
+    */
+  def moveConnection(fromDir: String, toDir: String): Unit = {
+    streamConnectionProviders.remove(fromDir).foreach(p => streamConnectionProviders.put(toDir, p))
+  }
+
   /**
     * Adds a file extension for this LanguageServer
     *
@@ -4,10 +4,12 @@ import java.io.IOException
 import java.util.concurrent.CompletableFuture
 
 import com.github.gtache.lsp.client.languageserver.ServerStatus
-import com.github.gtache.lsp.client.languageserver.requestmanager.RequestManager
+import com.github.gtache.lsp.client.languageserver.diagnostics.{DiagnosticsStore, PullDiagnostics}
+import com.github.gtache.lsp.client.languageserver.metrics.RequestMetrics
+import com.github.gtache.lsp.client.languageserver.requestmanager.{ReplayableRequests, RequestManager, ResponseCache}
 import com.github.gtache.lsp.client.languageserver.serverdefinition.LanguageServerDefinition
-import com.github.gtache.lsp.editor.EditorEventManager
-import com.github.gtache.lsp.requests.Timeouts
+import com.github.gtache.lsp.editor.{DocumentSyncStatistics, EditorEventManager}
+import com.github.gtache.lsp.requests.{SemanticScopesResolver, Timeouts}
 import com.github.gtache.lsp.settings.server.LSPConfiguration
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.project.Project
@@ -34,8 +36,80 @@ trait LanguageServerWrapper {
 
   def notifyFailure(timeouts: Timeouts): Unit = notifyResult(timeouts, success = false)
 
+  /**
+    * Tells the wrapper the latency of a successful request
+    *
+    * @param timeouts The type of request
+    * @param millis   The latency in milliseconds
+    */
+  def notifyLatency(timeouts: Timeouts, millis: Long): Unit
+
+  /**
+    * @param timeouts The type of request
+    * @return The timeout in milliseconds to use for the request, adapted to the latencies observed for this server
+    */
+  def getTimeout(timeouts: Timeouts): Int
+
+  /**
+    * @param timeouts The type of request
+    * @return The median and 99th percentile latencies in milliseconds, and the number of samples
+    */
+  def getLatencies(timeouts: Timeouts): (Long, Long, Long)
+
+  /**
+    * Tells the wrapper that a request was cancelled
+    *
+    * @param timeouts The type of request
+    */
+  def notifyCancelled(timeouts: Timeouts): Unit
+
   def getConnectedFiles: Iterable[String]
 
+  /**
+    * @return The statistics of the document synchronization with this server
+    */
+  def getSyncStatistics: DocumentSyncStatistics
+
+  /**
+    * @return The cache of the responses of this server
+    */
+  def getResponseCache: ResponseCache
+
+  /**
+    * @return The metrics of the messages exchanged with this server
+    */
+  def getRequestMetrics: RequestMetrics
+
+  /**
+    * @return The diagnostics published by this server for all the documents of the project
+    */
+  def getDiagnosticsStore: DiagnosticsStore
+
+  /**
+    * @return The resolver of the semantic highlighting scopes of this server, or null if it doesn't support semantic highlighting
+    */
+  @Nullable def getSemanticScopesResolver: SemanticScopesResolver
+
+  /**
+    * @return The pull diagnostics of this server, or null if it only pushes diagnostics
+    */
+  @Nullable def getPullDiagnostics: PullDiagnostics
+
+  /**
+    * @return The idempotent requests sent to this server which aren't answered yet, sent again if it restarts
+    */
+  def getReplayableRequests: ReplayableRequests
+
+  /**
+    * @return The counters of the hibernations of this server (memory reclaimed, ...)
+    */
+  def getHibernationCounters: Seq[(String, Long)]
+
+  /**
+    * @return This wrapper and the wrappers of the other projects sharing its server as workspace folders
+    */
+  def getWorkspaceWrappers: Iterable[LanguageServerWrapper]
+
   /**
     * @return The current status of this server
     */
@@ -112,6 +186,23 @@ trait LanguageServerWrapper {
     */
   def disconnect(path: String): Unit
 
+  /**
+    * Opens a document on the server without an editor, for batch processing
+    * The server isn't stopped while it has documents opened this way
+    *
+    * @param uri  The uri of the document
+    * @param text The content of the document
+    * @return True if the document was opened, false if it is already opened or the server isn't available
+    */
+  def openHeadless(uri: String, text: String): Boolean
+
+  /**
+    * Closes a document opened with openHeadless
+    *
+    * @param uri The uri of the document
+    */
+  def closeHeadless(uri: String): Unit
+
   /**
     * Checks if the wrapper is already connected to the document at the given path
     */
@@ -139,6 +230,12 @@ trait LanguageServerWrapper {
     */
   def stop(): Unit
 
+  /**
+    * Stops the wrapper when its project is closed
+    * If its server is shared with other projects, it keeps running and one of them becomes its owner
+    */
+  def projectClosing(): Unit
+
   /**
     * Notifies the wrapper that the server has crashed / stopped unexpectedly
     *
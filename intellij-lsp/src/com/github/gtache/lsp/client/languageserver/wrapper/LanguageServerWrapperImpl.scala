@@ -5,28 +5,36 @@ import java.io._
 import java.net.URI
 import java.nio.file.{FileSystems, Files, Paths}
 import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.{Date, Scanner}
 
-import com.github.gtache.lsp.client.languageserver.requestmanager.{RequestManager, SimpleRequestManager}
+import com.github.gtache.lsp.client.languageserver.diagnostics.{DiagnosticCapabilities, DiagnosticsStore, LSPWorkspaceClientCapabilities, PullDiagnostics}
+import com.github.gtache.lsp.client.languageserver.metrics.RequestMetrics
+import com.github.gtache.lsp.client.languageserver.metrics.RequestMetrics.{CountingInputStream, CountingOutputStream}
+import com.github.gtache.lsp.client.languageserver.requestmanager.{DedupingRequestManager, ReplayableRequests, RequestManager, ResponseCache, SimpleRequestManager}
+import com.github.gtache.lsp.client.languageserver.semantictokens.{LSPServerCapabilities, LSPTextDocumentClientCapabilities, SemanticTokensCapabilities}
 import com.github.gtache.lsp.client.languageserver.serverdefinition.LanguageServerDefinition
 import com.github.gtache.lsp.client.languageserver.{LSPServerStatusWidget, ServerOptions, ServerStatus}
 import com.github.gtache.lsp.client.{DynamicRegistrationMethods, LanguageClientImpl}
-import com.github.gtache.lsp.editor.EditorEventManager
-import com.github.gtache.lsp.editor.listeners.{DocumentListenerImpl, EditorMouseListenerImpl, EditorMouseMotionListenerImpl, SelectionListenerImpl}
-import com.github.gtache.lsp.requests.{Timeout, Timeouts}
+import com.github.gtache.lsp.editor.{DocumentSyncStatistics, EditorEventManager}
+import com.github.gtache.lsp.editor.listeners.{DocumentListenerImpl, EditorCaretListenerImpl, EditorMouseListenerImpl, EditorMouseMotionListenerImpl, SelectionListenerImpl}
+import com.github.gtache.lsp.requests.{AdaptiveTimeouts, SemanticHighlightingHandler, SemanticScopesResolver, Timeouts}
 import com.github.gtache.lsp.settings.LSPState
 import com.github.gtache.lsp.settings.server.LSPConfiguration
 import com.github.gtache.lsp.utils.{ApplicationUtils, FileUtils, LSPException}
-import com.google.gson.JsonObject
+import com.google.gson.{GsonBuilder, JsonObject}
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.editor.Editor
-import com.intellij.openapi.fileEditor.{FileEditorManager, TextEditor}
+import com.intellij.openapi.editor.event.{CaretEvent, CaretListener, DocumentEvent, DocumentListener}
+import com.intellij.openapi.fileEditor.{FileDocumentManager, FileEditorManager, TextEditor}
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.ui.Messages
+import com.intellij.openapi.util.Disposer
+import com.intellij.util.concurrency.AppExecutorUtil
 import org.eclipse.lsp4j._
-import org.eclipse.lsp4j.jsonrpc.ResponseErrorException
+import org.eclipse.lsp4j.jsonrpc.{Endpoint, Launcher, ResponseErrorException}
 import org.eclipse.lsp4j.jsonrpc.messages.{Either, Message, ResponseErrorCode, ResponseMessage}
-import org.eclipse.lsp4j.launch.LSPLauncher
 import org.eclipse.lsp4j.services.LanguageServer
 import org.jetbrains.annotations.Nullable
 
@@ -37,6 +45,30 @@ import scala.collection.mutable
 object LanguageServerWrapperImpl {
   private val uriToLanguageServerWrapper: mutable.Map[(String, String), LanguageServerWrapper] = TrieMap()
 
+  /**
+   * The wrapper owning the server process shared by the projects of each serverDefinition, when servers are shared
+   */
+  private val sharedHosts: mutable.Map[LanguageServerDefinition, LanguageServerWrapperImpl] = mutable.HashMap()
+
+  /**
+   * The state of a document opened again once its server is restarted
+   *
+   * @param version The version of the document last sent to the stopped server
+   * @param stamp   The modification stamp of the document when the server was stopped
+   */
+  private case class ReplayedDocument(version: Int, stamp: Long)
+
+  /**
+   * @param capabilities The capabilities of a server
+   * @return Whether the server supports workspace folders and being notified of their changes
+   */
+  private def supportsWorkspaceFolders(capabilities: ServerCapabilities): Boolean = {
+    val workspace = if (capabilities != null) capabilities.getWorkspace else null
+    val folders = if (workspace != null) workspace.getWorkspaceFolders else null
+    folders != null && folders.getSupported != null && folders.getSupported && folders.getChangeNotifications != null &&
+      (folders.getChangeNotifications.isLeft || (folders.getChangeNotifications.getRight != null && folders.getChangeNotifications.getRight))
+  }
+
   /**
    * @param uri A file uri
    * @return The wrapper for the given uri, or None
@@ -69,27 +101,47 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
   import LanguageServerWrapperImpl._
   import ServerStatus._
 
-  private val toConnect: mutable.Set[Editor] = mutable.Set()
+  private val pendingEditors: java.util.LinkedHashMap[String, Editor] = new java.util.LinkedHashMap[String, Editor]()
   private val rootPath = project.getBasePath
   private val connectedEditors: mutable.Map[String, EditorEventManager] = mutable.HashMap()
+  private val headlessDocuments: mutable.Set[String] = mutable.HashSet()
   private val LOG: Logger = Logger.getInstance(classOf[LanguageServerWrapperImpl])
   private val statusWidget: LSPServerStatusWidget = LSPServerStatusWidget.createWidgetFor(this)
   private val registrations: mutable.Map[String, DynamicRegistrationMethods] = mutable.HashMap()
-  private var crashCount = 0
+  private val syncStatistics: DocumentSyncStatistics = new DocumentSyncStatistics
+  private val responseCache: ResponseCache = new ResponseCache
+  private val adaptiveTimeouts: AdaptiveTimeouts = new AdaptiveTimeouts
+  private val requestMetrics: RequestMetrics = new RequestMetrics
+  private val diagnosticsStore: DiagnosticsStore = new DiagnosticsStore(project)
+  private val replayableRequests: ReplayableRequests = new ReplayableRequests(uri => documentStamp(uri))
+  private val replayVersions: ConcurrentHashMap[String, ReplayedDocument] = new ConcurrentHashMap[String, ReplayedDocument]()
+  private val supervisor: ServerSupervisor = new ServerSupervisor(serverDefinition + " ; " + rootPath, () => isServerAlive, () => stopCrashed(), () => restartCrashed(), e => gaveUp(e))
+  private val hibernation: ServerHibernation = new ServerHibernation(serverDefinition + " ; " + rootPath, () => requestMetrics.getLastActivity, () => hibernate())
+  @volatile private var crashedEditors: Iterable[String] = Nil
+  @volatile private var hibernatedEditors: Iterable[String] = Nil
+  @volatile private var hibernatedResult: InitializeResult = _
+  @volatile private var hibernating = false
+  private val hibernatedManagers: mutable.Map[String, EditorEventManager] = mutable.HashMap()
+  private var wakeDisposable: Disposable = _
   @volatile private var alreadyShownTimeout = false
   @volatile private var alreadyShownCrash = false
   @volatile private var status: ServerStatus = ServerStatus.STOPPED
-  private var languageServer: LanguageServer = _
-  private var client: LanguageClientImpl = _
+  @volatile private var languageServer: LanguageServer = _
+  @volatile private var client: LanguageClientImpl = _
   private var requestManager: RequestManager = _
   private var initializeResult: InitializeResult = _
-  private var launcherFuture: Future[_] = _
+  @volatile private var semanticScopesResolver: SemanticScopesResolver = _
+  @volatile private var pullDiagnostics: PullDiagnostics = _
+  @volatile private var launcherFuture: Future[_] = _
   private var initializeFuture: CompletableFuture[InitializeResult] = _
-  private var capabilitiesAlreadyRequested = false
+  @volatile private var initialized = false
   private var initializeStartTime = 0L
-  private var errLogThread: Thread = _
+  @volatile private var errLogThread: Thread = _
   private var configuration: LSPConfiguration = _
-  private var fileWatchers: Iterable[FileSystemWatcher] = Iterable.empty
+  @volatile private var fileWatchers: Iterable[FileSystemWatcher] = Iterable.empty
+  @volatile private var endpoint: Endpoint = _
+  private val guests: mutable.Set[LanguageServerWrapperImpl] = mutable.LinkedHashSet()
+  @volatile private var host: LanguageServerWrapperImpl = _
   private val id: String = serverDefinition.id
 
   override def getServerDefinition: LanguageServerDefinition = serverDefinition
@@ -116,36 +168,84 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
    * @return the languageServer capabilities, or null if initialization job didn't complete
    */
   @Nullable override def getServerCapabilities: ServerCapabilities = {
-    if (this.initializeResult != null) this.initializeResult.getCapabilities else {
+    val remembered = hibernatedResult
+    if (this.initializeResult != null) this.initializeResult.getCapabilities
+    else if (remembered != null) remembered.getCapabilities else {
+      val initTimeout = getTimeout(Timeouts.INIT)
       try {
         start()
-        if (this.initializeFuture != null) this.initializeFuture.get(if (capabilitiesAlreadyRequested) 0 else Timeout.INIT_TIMEOUT, TimeUnit.MILLISECONDS)
-        notifySuccess(Timeouts.INIT)
+        val future = this.initializeFuture
+        if (future != null) {
+          try {
+            future.get(math.max(0, initializeStartTime + initTimeout - System.currentTimeMillis), TimeUnit.MILLISECONDS)
+          } catch {
+            case _: TimeoutException => initTimedOut(future, initTimeout)
+          }
+        }
       } catch {
-        case e: TimeoutException =>
-          notifyFailure(Timeouts.INIT)
-          val msg = "LanguageServer for definition\n " + serverDefinition + "\nnot initialized after " + Timeout.INIT_TIMEOUT / 1000 + "s\nCheck settings"
-          LOG.warn(msg, e)
-          ApplicationUtils.invokeLater(() => if (!alreadyShownTimeout) {
-            Messages.showErrorDialog(msg, "LSP error")
-            alreadyShownTimeout = true
-          })
-          stop()
-
-        case e@(_: IOException | _: InterruptedException | _: ExecutionException) =>
+        case e@(_: IOException | _: InterruptedException | _: ExecutionException | _: CancellationException) =>
           LOG.warn(e)
           stop()
       }
-      this.capabilitiesAlreadyRequested = true
       if (initializeResult != null) this.initializeResult.getCapabilities
       else null
     }
   }
 
+  /**
+   * Stops the server if it didn't answer the initialize request in time
+   *
+   * @param future      The initialize request
+   * @param initTimeout The timeout
+   */
+  private def initTimedOut(future: CompletableFuture[InitializeResult], initTimeout: Int): Unit = {
+    if (!future.isDone && (future eq this.initializeFuture)) {
+      notifyFailure(Timeouts.INIT)
+      val msg = "LanguageServer for definition\n " + serverDefinition + "\nnot initialized after " + initTimeout / 1000 + "s\nCheck settings"
+      LOG.warn(msg)
+      ApplicationUtils.invokeLater(() => if (!alreadyShownTimeout) {
+        Messages.showErrorDialog(msg, "LSP error")
+        alreadyShownTimeout = true
+      })
+      stop()
+    }
+  }
+
   override def notifyResult(timeout: Timeouts, success: Boolean): Unit = {
+    if (!success) adaptiveTimeouts.timedOut(timeout)
     statusWidget.notifyResult(timeout, success)
   }
 
+  override def notifyLatency(timeout: Timeouts, millis: Long): Unit = {
+    adaptiveTimeouts.record(timeout, millis)
+  }
+
+  override def getTimeout(timeout: Timeouts): Int = adaptiveTimeouts.getTimeout(timeout)
+
+  override def getLatencies(timeout: Timeouts): (Long, Long, Long) = adaptiveTimeouts.getLatencies(timeout)
+
+  override def notifyCancelled(timeout: Timeouts): Unit = {
+    statusWidget.notifyCancelled(timeout)
+  }
+
+  override def getSyncStatistics: DocumentSyncStatistics = syncStatistics
+
+  override def getResponseCache: ResponseCache = responseCache
+
+  override def getRequestMetrics: RequestMetrics = requestMetrics
+
+  override def getDiagnosticsStore: DiagnosticsStore = diagnosticsStore
+
+  @Nullable override def getSemanticScopesResolver: SemanticScopesResolver = semanticScopesResolver
+
+  @Nullable override def getPullDiagnostics: PullDiagnostics = pullDiagnostics
+
+  override def getReplayableRequests: ReplayableRequests = replayableRequests
+
+  override def getHibernationCounters: Seq[(String, Long)] = hibernation.getCounters
+
+  override def getWorkspaceWrappers: Iterable[LanguageServerWrapper] = this :: guests.synchronized(guests.toList)
+
   /**
    * Returns the EditorEventManager for a given uri
    *
@@ -166,10 +266,16 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
   /**
    * @return whether the underlying connection to language languageServer is still active
    */
-  override def isActive: Boolean = this.launcherFuture != null && !this.launcherFuture.isDone && !this.launcherFuture.isCancelled && !alreadyShownTimeout && !alreadyShownCrash
+  override def isActive: Boolean = {
+    val sharedHost = host
+    if (sharedHost != null) sharedHost.isActive
+    else this.launcherFuture != null && !this.launcherFuture.isDone && !this.launcherFuture.isCancelled && !alreadyShownTimeout && !alreadyShownCrash
+  }
 
   /**
    * Connects an editor to the languageServer
+   * The editor is queued and returns immediately ; the queued editors are connected and their didOpen sent in one batch
+   * once the server is initialized, with the content of their document at that time
    *
    * @param editor the editor
    */
@@ -183,62 +289,117 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
         uriToLanguageServerWrapper.put((uri, FileUtils.editorToProjectFolderUri(editor)), this)
       }
       if (!this.connectedEditors.contains(uri)) {
+        pendingEditors.synchronized(pendingEditors.put(uri, editor))
         start()
-        if (this.initializeFuture != null) {
-          val capabilities = getServerCapabilities
-          if (capabilities != null) {
-            initializeFuture.thenRun(() => {
-              if (!this.connectedEditors.contains(uri)) {
-                try {
-                  val syncOptions: Either[TextDocumentSyncKind, TextDocumentSyncOptions] = if (capabilities == null) null else capabilities.getTextDocumentSync
-                  var syncKind: TextDocumentSyncKind = null
-                  if (syncOptions != null) {
-                    if (syncOptions.isRight) syncKind = syncOptions.getRight.getChange
-                    else if (syncOptions.isLeft) syncKind = syncOptions.getLeft
-                    val mouseListener = new EditorMouseListenerImpl
-                    val mouseMotionListener = new EditorMouseMotionListenerImpl
-                    val documentListener = new DocumentListenerImpl
-                    val selectionListener = new SelectionListenerImpl
-                    val renameProvider = capabilities.getRenameProvider
-                    val renameOptions = if (renameProvider != null) {
-                      if (renameProvider.isLeft) {
-                        if (renameProvider.getLeft) new RenameOptions() else null
-                      } else {
-                        renameProvider.getRight
-                      }
-                    } else null
-                    val serverOptions = ServerOptions(syncKind, capabilities.getCompletionProvider, capabilities.getSignatureHelpProvider,
-                      capabilities.getCodeLensProvider, capabilities.getDocumentOnTypeFormattingProvider, capabilities.getDocumentLinkProvider,
-                      capabilities.getExecuteCommandProvider, capabilities.getSemanticHighlighting, renameOptions)
-                    val manager = new EditorEventManager(editor, mouseListener, mouseMotionListener, documentListener, selectionListener, requestManager, serverOptions, this)
-                    mouseListener.setManager(manager)
-                    mouseMotionListener.setManager(manager)
-                    documentListener.setManager(manager)
-                    selectionListener.setManager(manager)
-                    manager.registerListeners()
-                    this.connectedEditors.synchronized {
-                      this.connectedEditors.put(uri, manager)
-                    }
-                    manager.documentOpened()
-                    LOG.info("Created a manager for " + uri)
-                    toConnect.remove(editor)
-                    toConnect.foreach(e => connect(e))
-                  }
-                } catch {
-                  case e: Exception => LOG.error(e)
-                }
-              }
+        if (pendingEditors.synchronized(initialized)) connectPending()
+      }
+    }
+  }
+
+  /**
+   * Connects all the queued editors, if the server is initialized
+   */
+  private def connectPending(): Unit = {
+    val (editors, result) = pendingEditors.synchronized {
+      if (initialized && initializeResult != null) {
+        val editors = pendingEditors.asScala.toList
+        pendingEditors.clear()
+        (editors, initializeResult)
+      } else (Nil, null)
+    }
+    val (alive, disposed) = editors.partition { case (_, editor) => !editor.isDisposed }
+    disposed.foreach { case (uri, _) => replayVersions.remove(uri) }
+    val managers = alive.filter { case (uri, _) => !connectedEditors.contains(uri) }
+      .flatMap { case (uri, editor) => Option(createManager(uri, editor, result.getCapabilities)).map(m => (uri, m)) }
+    val opened = managers.map { case (uri, manager) =>
+      closeHeadless(uri)
+      hibernatedManagers.synchronized(hibernatedManagers.remove(uri)).foreach(m => m.clearDiagnostics())
+      val future = manager.documentOpened(replayedVersion(uri, manager.editor))
+      val diagnostics = diagnosticsStore.get(uri)
+      if (diagnostics.nonEmpty) manager.diagnostics(diagnostics)
+      future
+    }
+    if (managers.nonEmpty) LOG.info("Connected " + managers.size + " editors to " + serverDefinition)
+    val currentRequestManager = requestManager
+    ApplicationUtils.pool(() => {
+      opened.foreach(f => try f.get() catch {
+        case e@(_: InterruptedException | _: ExecutionException) => LOG.warn(e)
+      })
+      replayableRequests.resume(currentRequestManager)
+    })
+  }
 
-            })
+  /**
+   * The version of a document opened again is the one it had before the server was stopped, unless it was modified in the meantime
+   * in which case it is incremented, as its text isn't the one the server had for that version
+   *
+   * @return The version to open the document with
+   */
+  private def replayedVersion(uri: String, editor: Editor): Int = {
+    val replayed = replayVersions.remove(uri)
+    if (replayed == null) 0
+    else if (replayed.stamp == editor.getDocument.getModificationStamp) replayed.version
+    else replayed.version + 1
+  }
+
+  /**
+   * @param uri The uri of a document
+   * @return The modification stamp of the document, or -1 if it isn't loaded
+   */
+  private def documentStamp(uri: String): Long = {
+    val file = FileUtils.URIToVFS(uri)
+    val document = if (file != null) FileDocumentManager.getInstance.getCachedDocument(file) else null
+    if (document != null) document.getModificationStamp else -1L
+  }
+
+  /**
+   * Creates and registers the manager of an editor, its listeners being registered before the document is opened so that no edit is lost
+   *
+   * @return The manager, or null if the server doesn't support document synchronization
+   */
+  @Nullable private def createManager(uri: String, editor: Editor, capabilities: ServerCapabilities): EditorEventManager = {
+    try {
+      val syncOptions: Either[TextDocumentSyncKind, TextDocumentSyncOptions] = if (capabilities == null) null else capabilities.getTextDocumentSync
+      var syncKind: TextDocumentSyncKind = null
+      if (syncOptions != null) {
+        if (syncOptions.isRight) syncKind = syncOptions.getRight.getChange
+        else if (syncOptions.isLeft) syncKind = syncOptions.getLeft
+        val mouseListener = new EditorMouseListenerImpl
+        val mouseMotionListener = new EditorMouseMotionListenerImpl
+        val documentListener = new DocumentListenerImpl
+        val selectionListener = new SelectionListenerImpl
+        val caretListener = new EditorCaretListenerImpl
+        val renameProvider = capabilities.getRenameProvider
+        val renameOptions = if (renameProvider != null) {
+          if (renameProvider.isLeft) {
+            if (renameProvider.getLeft) new RenameOptions() else null
           } else {
-            LOG.warn("Capabilities are null for " + serverDefinition)
-          }
-        } else {
-          toConnect.synchronized {
-            toConnect.add(editor)
+            renameProvider.getRight
           }
+        } else null
+        val serverOptions = ServerOptions(syncKind, capabilities.getCompletionProvider, capabilities.getSignatureHelpProvider,
+          capabilities.getCodeLensProvider, capabilities.getDocumentOnTypeFormattingProvider, capabilities.getDocumentLinkProvider,
+          capabilities.getExecuteCommandProvider, capabilities.getSemanticHighlighting, renameOptions)
+        val manager = new EditorEventManager(editor, mouseListener, mouseMotionListener, documentListener, selectionListener, caretListener, requestManager, serverOptions, this)
+        mouseListener.setManager(manager)
+        mouseMotionListener.setManager(manager)
+        documentListener.setManager(manager)
+        selectionListener.setManager(manager)
+        caretListener.setManager(manager)
+        manager.registerListeners()
+        this.connectedEditors.synchronized {
+          this.connectedEditors.put(uri, manager)
         }
+        LOG.info("Created a manager for " + uri)
+        manager
+      } else {
+        LOG.warn("No document synchronization for " + serverDefinition)
+        null
       }
+    } catch {
+      case e: Exception =>
+        LOG.error(e)
+        null
     }
   }
 
@@ -251,17 +412,53 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
     this.connectedEditors.synchronized {
       uriToLanguageServerWrapper.synchronized {
         this.connectedEditors.remove(uri).foreach({ e =>
-          uriToLanguageServerWrapper.remove((uri, FileUtils.projectToUri(project)))
+          //The editors of a hibernating server stay mapped to it, so that closing them is still notified
+          if (!hibernating) uriToLanguageServerWrapper.remove((uri, FileUtils.projectToUri(project)))
           e.removeListeners()
-          e.documentClosed()
+          e.documentClosed(keepDiagnostics = hibernating)
+          if (hibernating) hibernatedManagers.synchronized(hibernatedManagers.put(uri, e))
         })
       }
     }
+    pendingEditors.synchronized(pendingEditors.remove(uri))
+    if (hibernatedEditors.exists(_ == uri)) {
+      hibernatedEditors = hibernatedEditors.filter(_ != uri)
+      forgetHibernatedEditor(uri)
+    }
+    if (isUnused && hibernatedEditors.isEmpty) stop()
+  }
 
-    if (this.connectedEditors.isEmpty) stop()
+  /**
+   * @return Whether the server has no document opened and isn't shared with another project
+   */
+  private def isUnused: Boolean = {
+    connectedEditors.isEmpty && pendingEditors.synchronized(pendingEditors.isEmpty) &&
+      headlessDocuments.synchronized(headlessDocuments.isEmpty) && guests.synchronized(guests.isEmpty)
+  }
+
+  override def openHeadless(uri: String, text: String): Boolean = {
+    start()
+    if (connectedEditors.contains(uri) || getServerCapabilities == null || requestManager == null) false else {
+      val added = headlessDocuments.synchronized(headlessDocuments.add(uri))
+      if (added) {
+        requestManager.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, serverDefinition.id, 0, text)))
+        if (pullDiagnostics != null) pullDiagnostics.documentOpened(uri)
+      }
+      added
+    }
+  }
+
+  override def closeHeadless(uri: String): Unit = {
+    if (headlessDocuments.synchronized(headlessDocuments.remove(uri)) && requestManager != null) {
+      if (pullDiagnostics != null) pullDiagnostics.documentClosed(uri)
+      requestManager.didClose(new DidCloseTextDocumentParams(new TextDocumentIdentifier(uri)))
+    }
   }
 
   override def stop(): Unit = {
+    sharedHosts.synchronized(if (sharedHosts.get(serverDefinition).exists(_ eq this)) sharedHosts.remove(serverDefinition))
+    val sharedHost = host
+    host = null
     if (this.initializeFuture != null) {
       if (!this.initializeFuture.isCancelled) {
         try {
@@ -273,10 +470,10 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
       this.initializeFuture = null
     }
     this.initializeResult = null
-    this.capabilitiesAlreadyRequested = false
-    if (this.languageServer != null) try {
+    pendingEditors.synchronized(initialized = false)
+    if (sharedHost == null && this.languageServer != null) try {
       val shutdown: CompletableFuture[AnyRef] = this.languageServer.shutdown
-      shutdown.get(Timeout.SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)
+      shutdown.get(getTimeout(Timeouts.SHUTDOWN), TimeUnit.MILLISECONDS)
       notifySuccess(Timeouts.SHUTDOWN)
     } catch {
       case _: Exception =>
@@ -287,11 +484,94 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
       if (!this.launcherFuture.isCancelled) this.launcherFuture.cancel(true)
       this.launcherFuture = null
     }
-    if (this.serverDefinition != null) this.serverDefinition.stop(rootPath)
+    requestMetrics.disconnected()
+    hibernation.stopped()
+    if (!supervisor.isRestarting && !hibernating) {
+      supervisor.stopped()
+      replayableRequests.cancelAll()
+      replayVersions.clear()
+    }
+    if (!hibernating) {
+      val hibernatedUris = hibernatedEditors ++ hibernatedManagers.synchronized(hibernatedManagers.keys.toList)
+      hibernatedUris.toSet[String].foreach(uri => forgetHibernatedEditor(uri))
+      forgetHibernation()
+    }
+    if (pullDiagnostics != null) pullDiagnostics.clear()
+    pullDiagnostics = null
+    headlessDocuments.synchronized(headlessDocuments.clear())
+    if (!hibernating) diagnosticsStore.clear()
+    if (sharedHost != null) sharedHost.removeGuest(this)
+    else if (this.serverDefinition != null) {
+      this.serverDefinition.stop(rootPath)
+      //The spare is only kept to be taken over by the restart after a crash
+      if (!supervisor.isRestarting) this.serverDefinition.stopSpare(rootPath)
+    }
+    //The documents of a shared server are closed by the guests, the server of this wrapper being already shut down
+    if (sharedHost == null) setStatus(STOPPED)
     connectedEditors.foreach(e => disconnect(e._1))
     this.languageServer = null
+    this.endpoint = null
     setStatus(STOPPED)
     stopLoggingServerErrors()
+    val orphans = guests.synchronized {
+      val orphans = guests.toList
+      guests.clear()
+      orphans
+    }
+    //After a crash, the guests are restarted by their supervisor, which keeps their pending requests and replays their documents
+    if (supervisor.isRestarting) orphans.foreach(g => ApplicationUtils.pool(() => g.supervisor.crashed(new IOException("The server shared by " + project + " crashed"))))
+    else orphans.foreach(g => ApplicationUtils.pool(() => g.restart()))
+  }
+
+  override def projectClosing(): Unit = {
+    handOver()
+    stop()
+  }
+
+  /**
+   * Makes the first guest the owner of the server, so that the server keeps serving the other projects once this one is closed
+   * This wrapper then becomes a guest of the new owner, and stopping it only removes its project from the workspace folders
+   */
+  private def handOver(): Unit = this.synchronized {
+    val remaining = guests.synchronized {
+      val remaining = guests.toList
+      guests.clear()
+      remaining
+    }
+    remaining match {
+      case heir :: others if status == STARTED =>
+        LOG.info("Handing the server of " + project + " over to " + heir.project + " for " + serverDefinition)
+        serverDefinition.moveConnection(rootPath, heir.rootPath)
+        serverDefinition.stopSpare(rootPath)
+        heir.adopt(languageServer, client, endpoint, launcherFuture, errLogThread,
+          registrations.synchronized(registrations.toMap), fileWatchers, others :+ this)
+        others.foreach(g => g.host = heir)
+        host = heir
+        launcherFuture = null
+        errLogThread = null
+        sharedHosts.synchronized(sharedHosts.put(serverDefinition, heir))
+        heir.hibernation.started()
+      case _ =>
+        guests.synchronized(guests ++= remaining)
+    }
+  }
+
+  /**
+   * Takes over the server handed over by the wrapper of a closing project, along with its registrations and its other guests
+   */
+  private def adopt(server: LanguageServer, serverClient: LanguageClientImpl, serverEndpoint: Endpoint, serverLauncher: Future[_],
+                    serverErrLog: Thread, serverRegistrations: Map[String, DynamicRegistrationMethods],
+                    serverWatchers: Iterable[FileSystemWatcher], newGuests: Iterable[LanguageServerWrapperImpl]): Unit = this.synchronized {
+    languageServer = server
+    client = serverClient
+    endpoint = serverEndpoint
+    launcherFuture = serverLauncher
+    errLogThread = serverErrLog
+    registrations.synchronized(registrations ++= serverRegistrations)
+    fileWatchers = serverWatchers
+    guests.synchronized(guests ++= newGuests)
+    host = null
+    serverClient.connect(server, this)
   }
 
   /**
@@ -305,11 +585,12 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
   @Nullable override def getServer: LanguageServer = {
     start()
     if (initializeFuture != null && !this.initializeFuture.isDone) this.initializeFuture.join
-    this.languageServer
+    val sharedHost = host
+    if (sharedHost != null) sharedHost.languageServer else this.languageServer
   }
 
   private def prepareWorkspaceClientCapabilities: WorkspaceClientCapabilities = {
-    val workspaceClientCapabilities = new WorkspaceClientCapabilities
+    val workspaceClientCapabilities = new LSPWorkspaceClientCapabilities
     workspaceClientCapabilities.setApplyEdit(true)
     workspaceClientCapabilities.setDidChangeConfiguration(new DidChangeConfigurationCapabilities)
     workspaceClientCapabilities.setDidChangeWatchedFiles(new DidChangeWatchedFilesCapabilities(true))
@@ -319,18 +600,19 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
     wec.setDocumentChanges(true)
     workspaceClientCapabilities.setWorkspaceEdit(wec)
     workspaceClientCapabilities.setSymbol(new SymbolCapabilities)
-    workspaceClientCapabilities.setWorkspaceFolders(false)
+    workspaceClientCapabilities.setWorkspaceFolders(LSPState.getInstance().isShareServers)
     workspaceClientCapabilities.setConfiguration(true)
     workspaceClientCapabilities
   }
 
   private def prepareTextDocumentClientCapabilities: TextDocumentClientCapabilities = {
-    val textDocumentClientCapabilities = new TextDocumentClientCapabilities
+    val textDocumentClientCapabilities = new LSPTextDocumentClientCapabilities
     textDocumentClientCapabilities.setCodeAction(new CodeActionCapabilities)
     //textDocumentClientCapabilities.setCodeLens(new CodeLensCapabilities)
     //textDocumentClientCapabilities.setColorProvider(new ColorProviderCapabilities)
     textDocumentClientCapabilities.setCompletion(new CompletionCapabilities(new CompletionItemCapabilities(true)))
     textDocumentClientCapabilities.setDefinition(new DefinitionCapabilities)
+    textDocumentClientCapabilities.setDiagnostic(new DiagnosticCapabilities)
     textDocumentClientCapabilities.setDocumentHighlight(new DocumentHighlightCapabilities)
     //textDocumentClientCapabilities.setDocumentLink(new DocumentLinkCapabilities)
     //textDocumentClientCapabilities.setDocumentSymbol(new DocumentSymbolCapabilities)
@@ -343,6 +625,7 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
     textDocumentClientCapabilities.setReferences(new ReferencesCapabilities)
     textDocumentClientCapabilities.setRename(new RenameCapabilities(true, false))
     textDocumentClientCapabilities.setSemanticHighlightingCapabilities(new SemanticHighlightingCapabilities(false))
+    textDocumentClientCapabilities.setSemanticTokens(new SemanticTokensCapabilities(SemanticHighlightingHandler.supportedTokenTypes.asJava, java.util.Collections.emptyList()))
     textDocumentClientCapabilities.setSignatureHelp(new SignatureHelpCapabilities)
     textDocumentClientCapabilities.setSynchronization(new SynchronizationCapabilities(true, true, true))
     //textDocumentClientCapabilities.setTypeDefinition(new TypeDefinitionCapabilities)
@@ -351,52 +634,190 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
 
   /**
    * Starts the LanguageServer
+   * When servers are shared, the server already started for another project is used instead
    */
   @throws[IOException]
-  override def start(): Unit = {
+  override def start(): Unit = this.synchronized {
+    if (hibernatedEditors.nonEmpty) wake()
     if (status == STOPPED || status == FAILED) {
-      setStatus(STARTING)
-      try {
-        val (inputStream, outputStream) = serverDefinition.start(rootPath)
-        startLoggingServerErrors()
-        loadConfiguration()
-        client = serverDefinition.createLanguageClient
-        val initParams = new InitializeParams
-        initParams.setRootUri(FileUtils.pathToUri(rootPath))
-        val outWriter = getOutWriter
-
-        val launcher =
-          if (LSPState.getInstance().isLoggingServersOutput) LSPLauncher.createClientLauncher(client, inputStream, outputStream, false, outWriter)
-          else LSPLauncher.createClientLauncher(client, inputStream, outputStream)
-
-        this.languageServer = launcher.getRemoteProxy
-        client.connect(languageServer, this)
-        this.launcherFuture = launcher.startListening
-        //TODO update capabilities when implemented
-        val workspaceClientCapabilities = prepareWorkspaceClientCapabilities
-        val textDocumentClientCapabilities = prepareTextDocumentClientCapabilities
-        initParams.setCapabilities(new ClientCapabilities(workspaceClientCapabilities, textDocumentClientCapabilities, null))
-        initParams.setInitializationOptions(this.serverDefinition.getInitializationOptions(URI.create(initParams.getRootUri)))
-
-        initializeFuture = languageServer.initialize(initParams).thenApply((res: InitializeResult) => {
-          initializeResult = res
-          LOG.info("Got initializeResult for " + serverDefinition + " ; " + rootPath)
-          setStatus(STARTED)
-          requestManager = new SimpleRequestManager(this, languageServer, client, res.getCapabilities)
-          requestManager.initialized(new InitializedParams())
-          res
-        })
-        initializeStartTime = System.currentTimeMillis
-      } catch {
-        case e@(_: LSPException | _: IOException) =>
-          LOG.warn(e)
-          ApplicationUtils.invokeLater(() => Messages.showErrorDialog("Can't start server, please check settings\n" + e.getMessage, "LSP Error"))
-          stop()
-          setFailed()
+      val sharedHost = if (LSPState.getInstance().isShareServers) sharedHosts.synchronized {
+        sharedHosts.get(serverDefinition) match {
+          case Some(h) if h ne this => Some(h)
+          case _ =>
+            sharedHosts.put(serverDefinition, this)
+            None
+        }
+      } else None
+      sharedHost match {
+        case Some(h) => join(h)
+        case None => startProcess()
       }
     }
   }
 
+  /**
+   * Uses the server of another project, which adds the root of this project to its workspace folders once it is initialized
+   * The server of this project is started instead if the other one doesn't support workspace folders
+   *
+   * @param sharedHost The wrapper owning the server
+   */
+  private def join(sharedHost: LanguageServerWrapperImpl): Unit = {
+    setStatus(STARTING)
+    loadConfiguration()
+    host = sharedHost
+    initializeStartTime = System.currentTimeMillis
+    val hostFuture = sharedHost.initializeFuture
+    if (hostFuture == null) {
+      host = null
+      startProcess()
+    } else {
+      initializeFuture = hostFuture.thenComposeAsync[InitializeResult]((res: InitializeResult) => {
+        if (status != STARTING || (host ne sharedHost)) {
+          val cancelled = new CompletableFuture[InitializeResult]()
+          cancelled.cancel(true)
+          cancelled
+        } else if (sharedHost.addGuest(this)) {
+          LOG.info("Sharing the server of " + sharedHost.project + " for " + serverDefinition + " ; " + rootPath)
+          setUp(res, sharedHost.languageServer, sharedHost.client, sharedHost.endpoint)
+          supervisor.started()
+          pendingEditors.synchronized(initialized = true)
+          ApplicationUtils.pool(() => connectPending())
+          CompletableFuture.completedFuture(res)
+        } else {
+          LOG.info("Can't share the server of " + sharedHost.project + " for " + serverDefinition + " ; " + rootPath)
+          host = null
+          val future = startProcess()
+          if (future != null) future else {
+            val failed = new CompletableFuture[InitializeResult]()
+            failed.cancel(true)
+            failed
+          }
+        }
+      }, AppExecutorUtil.getAppExecutorService)
+    }
+  }
+
+  /**
+   * Starts the process of the server and initializes it
+   *
+   * @return The initialize request, or null if the server couldn't be started
+   */
+  @Nullable private def startProcess(): CompletableFuture[InitializeResult] = {
+    setStatus(STARTING)
+    try {
+      val (inputStream, outputStream) = serverDefinition.start(rootPath)
+      startLoggingServerErrors()
+      loadConfiguration()
+      client = serverDefinition.createLanguageClient
+      val initParams = new InitializeParams
+      initParams.setRootUri(FileUtils.pathToUri(rootPath))
+      if (LSPState.getInstance().isShareServers) initParams.setWorkspaceFolders(List(workspaceFolder).asJava)
+      val outWriter = getOutWriter
+
+      val countingInput = new CountingInputStream(inputStream)
+      val countingOutput = new CountingOutputStream(outputStream)
+      val builder = new Launcher.Builder[LanguageServer]()
+        .setLocalService(client)
+        .setRemoteInterface(classOf[LanguageServer])
+        .configureGson((gson: GsonBuilder) => LSPServerCapabilities.configureGson(gson))
+        .setInput(countingInput)
+        .setOutput(countingOutput)
+        .wrapMessages(requestMetrics.messageWrapper(countingInput, countingOutput))
+      val launcher =
+        if (LSPState.getInstance().isLoggingServersOutput) builder.traceMessages(outWriter).create()
+        else builder.create()
+
+      this.languageServer = launcher.getRemoteProxy
+      this.endpoint = launcher.getRemoteEndpoint
+      client.connect(languageServer, this)
+      this.launcherFuture = launcher.startListening
+      //TODO update capabilities when implemented
+      val workspaceClientCapabilities = prepareWorkspaceClientCapabilities
+      val textDocumentClientCapabilities = prepareTextDocumentClientCapabilities
+      initParams.setCapabilities(new ClientCapabilities(workspaceClientCapabilities, textDocumentClientCapabilities, null))
+      initParams.setInitializationOptions(this.serverDefinition.getInitializationOptions(URI.create(initParams.getRootUri)))
+
+      initializeStartTime = System.currentTimeMillis
+      initializeFuture = languageServer.initialize(initParams).thenApply((res: InitializeResult) => {
+        LOG.info("Got initializeResult for " + serverDefinition + " ; " + rootPath)
+        notifyLatency(Timeouts.INIT, System.currentTimeMillis - initializeStartTime)
+        setUp(res, languageServer, client, launcher.getRemoteEndpoint)
+        requestManager.initialized(new InitializedParams())
+        if (LSPState.getInstance().isSpareServers) startSpare()
+        supervisor.started()
+        hibernation.started()
+        pendingEditors.synchronized(initialized = true)
+        ApplicationUtils.pool(() => connectPending())
+        res
+      })
+      val future = initializeFuture
+      val initTimeout = getTimeout(Timeouts.INIT)
+      val timeoutRunnable: Runnable = () => initTimedOut(future, initTimeout)
+      AppExecutorUtil.getAppScheduledExecutorService.schedule(timeoutRunnable, initTimeout, TimeUnit.MILLISECONDS)
+      future
+    } catch {
+      case e@(_: LSPException | _: IOException) =>
+        LOG.warn(e)
+        ApplicationUtils.invokeLater(() => Messages.showErrorDialog("Can't start server, please check settings\n" + e.getMessage, "LSP Error"))
+        stop()
+        setFailed()
+        null
+    }
+  }
+
+  /**
+   * Sets up the wrapper for an initialized server
+   *
+   * @param res      The result of the initialize request
+   * @param server   The server
+   * @param client   The client of the server
+   * @param endpoint The remote endpoint of the server
+   */
+  private def setUp(res: InitializeResult, server: LanguageServer, client: LanguageClientImpl, endpoint: Endpoint): Unit = {
+    initializeResult = res
+    notifySuccess(Timeouts.INIT)
+    setStatus(STARTED)
+    responseCache.clear()
+    val semanticTokensProvider = LSPServerCapabilities.getSemanticTokensProvider(res.getCapabilities)
+    semanticScopesResolver =
+      if (semanticTokensProvider != null) SemanticScopesResolver(semanticTokensProvider.getLegend)
+      else SemanticScopesResolver(res.getCapabilities.getSemanticHighlighting)
+    requestManager = new DedupingRequestManager(new SimpleRequestManager(this, server, client, res.getCapabilities, endpoint), responseCache)
+    val diagnosticProvider = LSPServerCapabilities.getDiagnosticProvider(res.getCapabilities)
+    pullDiagnostics = if (diagnosticProvider != null) new PullDiagnostics(this, diagnosticProvider) else null
+  }
+
+  /**
+   * Adds the root of another project to the workspace folders of the server
+   *
+   * @param guest The wrapper of the other project
+   * @return Whether the server serves the other project, false if it isn't started or doesn't support workspace folders
+   */
+  private def addGuest(guest: LanguageServerWrapperImpl): Boolean = {
+    val manager = requestManager
+    val result = initializeResult
+    if (status == STARTED && manager != null && result != null && supportsWorkspaceFolders(result.getCapabilities)) {
+      guests.synchronized(guests.add(guest))
+      manager.didChangeWorkspaceFolders(new DidChangeWorkspaceFoldersParams(new WorkspaceFoldersChangeEvent(List(guest.workspaceFolder).asJava, Nil.asJava)))
+      true
+    } else false
+  }
+
+  /**
+   * Removes the root of another project from the workspace folders of the server, stopping it if it isn't used anymore
+   *
+   * @param guest The wrapper of the other project
+   */
+  private def removeGuest(guest: LanguageServerWrapperImpl): Unit = {
+    val manager = requestManager
+    if (guests.synchronized(guests.remove(guest)) && status == STARTED && manager != null) {
+      manager.didChangeWorkspaceFolders(new DidChangeWorkspaceFoldersParams(new WorkspaceFoldersChangeEvent(Nil.asJava, List(guest.workspaceFolder).asJava)))
+      if (isUnused) stop()
+    }
+  }
+
+  private def workspaceFolder: WorkspaceFolder = new WorkspaceFolder(FileUtils.projectToUri(project), project.getName)
+
   override def restart(): Unit = {
     if (status == ServerStatus.STARTED || status == ServerStatus.STARTING) {
       LOG.info("Stopping " + serverDefinition + " for restart")
@@ -429,7 +850,7 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
         if (methodO.isPresent) {
           val method = methodO.get
           val options = r.getRegisterOptions
-          registrations.put(id, method)
+          registrations.synchronized(registrations.put(id, method))
           method match {
             case DynamicRegistrationMethods.DID_CHANGE_WATCHED_FILES =>
               options match {
@@ -463,12 +884,14 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
         val methodO = DynamicRegistrationMethods.forName(r.getMethod)
         if (methodO.isPresent) {
           val method = methodO.get
-          if (registrations.contains(id)) {
-            registrations.remove(id)
-          } else {
-            val invert = registrations.map(mapping => (mapping._2, mapping._1))
-            if (invert.contains(method)) {
-              registrations.remove(invert(method))
+          registrations.synchronized {
+            if (registrations.contains(id)) {
+              registrations.remove(id)
+            } else {
+              val invert = registrations.map(mapping => (mapping._2, mapping._1))
+              if (invert.contains(method)) {
+                registrations.remove(invert(method))
+              }
             }
           }
           method match {
@@ -491,21 +914,136 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
     statusWidget.setStatus(status)
   }
 
+  /**
+   * The crashes of a shared server are handled by the wrapper owning it, which hands its guests over to their supervisor
+   */
   override def crashed(e: Exception): Unit = {
-    crashCount += 1
-    if (crashCount < 4) {
-      val editors = connectedEditors.clone().toMap.keys
-      stop()
-      editors.foreach(uri => connect(uri))
-    } else {
-      setFailed()
-      if (!alreadyShownCrash) ApplicationUtils.invokeLater(() => if (!alreadyShownCrash) {
-        Messages.showErrorDialog("LanguageServer for definition " + serverDefinition + ", project " + project + " keeps crashing due to \n" + e.getMessage + "\nCheck settings.", "LSP Error")
-        alreadyShownCrash = true
+    val sharedHost = host
+    if (sharedHost != null) sharedHost.crashed(e) else supervisor.crashed(e)
+  }
+
+  /**
+   * Stops the crashed server, remembering its documents and their versions to replay them once it is restarted
+   */
+  private def stopCrashed(): Unit = {
+    val editors = connectedEditors.synchronized(connectedEditors.toList)
+    editors.foreach { case (uri, manager) => replayVersions.put(uri, ReplayedDocument(manager.getVersion, manager.editor.getDocument.getModificationStamp)) }
+    crashedEditors = editors.map(_._1)
+    replayableRequests.suspend()
+    val sharedHost = host
+    //The probe of a guest found the shared server dead before its owner did
+    if (sharedHost != null && !sharedHost.isServerAlive) {
+      ApplicationUtils.pool(() => sharedHost.crashed(new IOException("The server shared by " + sharedHost.project + " isn't running anymore")))
+    }
+    stop()
+  }
+
+  /**
+   * Restarts the crashed server, queuing all its editors before starting it so that they are opened in one batch
+   */
+  private def restartCrashed(): Unit = {
+    val (reopened, closed) = crashedEditors.map(uri => (uri, editorFor(uri))).partition(_._2.nonEmpty)
+    closed.foreach { case (uri, _) => replayVersions.remove(uri) }
+    val editors = reopened.flatMap(_._2)
+    crashedEditors = Nil
+    pendingEditors.synchronized(editors.foreach(e => pendingEditors.put(FileUtils.editorToURIString(e), e)))
+    editors.foreach(e => connect(e))
+    start()
+  }
+
+  /**
+   * Stops the server of an idle project, remembering its capabilities and the versions of its documents
+   * The documents are opened again when the server is restarted, on the next edit or caret move in one of their editors
+   *
+   * @return Whether the server was stopped, false if it is shared or busy
+   */
+  private def hibernate(): Boolean = this.synchronized {
+    val idle = status == STARTED && host == null && guests.synchronized(guests.isEmpty) &&
+      headlessDocuments.synchronized(headlessDocuments.isEmpty) && replayableRequests.size == 0
+    if (idle) {
+      //The spare process is stopped with the server
+      val memory = serverDefinition.getMemoryUsage(rootPath)
+      val spareMemory = serverDefinition.getSpareMemoryUsage(rootPath)
+      val result = initializeResult
+      val editors = connectedEditors.synchronized(connectedEditors.toList)
+      editors.foreach { case (uri, manager) => replayVersions.put(uri, ReplayedDocument(manager.getVersion, manager.editor.getDocument.getModificationStamp)) }
+      hibernating = true
+      try stop() finally hibernating = false
+      hibernatedResult = result
+      hibernatedEditors = editors.map(_._1)
+      hibernation.hibernated(if (memory >= 0 && spareMemory > 0) memory + spareMemory else memory)
+      val disposable = Disposer.newDisposable()
+      wakeDisposable = disposable
+      //Only the first event restarts the server, the listeners being removed right away
+      val woken = new AtomicBoolean()
+      val wakeUp: () => Unit = () => if (woken.compareAndSet(false, true)) {
+        Disposer.dispose(disposable)
+        ApplicationUtils.pool(() => start())
+      }
+      val documentListener = new DocumentListener {
+        override def documentChanged(event: DocumentEvent): Unit = wakeUp()
+      }
+      val caretListener = new CaretListener {
+        override def caretPositionChanged(event: CaretEvent): Unit = wakeUp()
+      }
+      editors.flatMap { case (uri, _) => editorFor(uri) }.foreach(e => {
+        e.getDocument.addDocumentListener(documentListener, disposable)
+        e.getCaretModel.addCaretListener(caretListener, disposable)
+      })
+    }
+    idle
+  }
+
+  /**
+   * Queues the editors of the hibernated server, so that they are opened with their remembered versions once it is restarted
+   * Their diagnostics highlighters are kept until their new managers are created
+   */
+  private def wake(): Unit = {
+    val uris = hibernatedEditors
+    forgetHibernation()
+    if (uris.nonEmpty) {
+      hibernation.wokeUp()
+      uris.foreach(uri => editorFor(uri) match {
+        case Some(e) => pendingEditors.synchronized(pendingEditors.put(uri, e))
+        case None => forgetHibernatedEditor(uri)
       })
     }
   }
 
+  /**
+   * Forgets a document of the hibernated server, when its editor is closed or the server is stopped for good
+   *
+   * @param uri The uri of the document
+   */
+  private def forgetHibernatedEditor(uri: String): Unit = {
+    replayVersions.remove(uri)
+    uriToLanguageServerWrapper.synchronized(uriToLanguageServerWrapper.remove((uri, FileUtils.projectToUri(project))))
+    hibernatedManagers.synchronized(hibernatedManagers.remove(uri)).foreach(m => m.clearDiagnostics())
+  }
+
+  private def forgetHibernation(): Unit = {
+    hibernatedEditors = Nil
+    hibernatedResult = null
+    val disposable = wakeDisposable
+    wakeDisposable = null
+    if (disposable != null) ApplicationUtils.invokeLater(() => Disposer.dispose(disposable))
+  }
+
+  private def isServerAlive: Boolean = {
+    val sharedHost = host
+    val future = launcherFuture
+    if (sharedHost != null) sharedHost.isServerAlive
+    else status != STARTED || (future != null && !future.isDone && serverDefinition.isAlive(rootPath))
+  }
+
+  private def gaveUp(e: Exception): Unit = {
+    setFailed()
+    if (!alreadyShownCrash) ApplicationUtils.invokeLater(() => if (!alreadyShownCrash) {
+      Messages.showErrorDialog("LanguageServer for definition " + serverDefinition + ", project " + project + " keeps crashing due to \n" + e.getMessage + "\nCheck settings.", "LSP Error")
+      alreadyShownCrash = true
+    })
+  }
+
   override def getConnectedFiles: Iterable[String] = {
     connectedEditors.keys.map(s => new URI(FileUtils.sanitizeURI(s)).toString)
   }
@@ -528,12 +1066,24 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
     statusWidget.setStatus(ServerStatus.FAILED)
   }
 
-  private def connect(uri: String): Unit = {
-    val editors = FileEditorManager.getInstance(project).getAllEditors(FileUtils.URIToVFS(uri))
-      .collect { case t: TextEditor => t.getEditor }
-    if (editors.nonEmpty) {
-      connect(editors.head)
-    }
+  /**
+   * Starts a spare process in the background, taken over by the next start after a crash
+   */
+  private def startSpare(): Unit = {
+    ApplicationUtils.pool(() => {
+      try {
+        serverDefinition.startSpare(rootPath)
+        //The server may have been stopped while the spare was starting
+        if ((status == STOPPED && !supervisor.isRestarting) || status == FAILED) serverDefinition.stopSpare(rootPath)
+      } catch {
+        case e@(_: LSPException | _: IOException) => LOG.warn("Couldn't start a spare server for " + serverDefinition, e)
+      }
+    })
+  }
+
+  private def editorFor(uri: String): Option[Editor] = {
+    FileEditorManager.getInstance(project).getAllEditors(FileUtils.URIToVFS(uri))
+      .collect { case t: TextEditor => t.getEditor }.headOption
   }
 
   private def startLoggingServerErrors(): Unit = {
@@ -613,8 +1163,11 @@ class LanguageServerWrapperImpl(val serverDefinition: LanguageServerDefinition,
       case e: Exception => LOG.warn(e)
       case _: Throwable =>
     }
-    if (registrations.values.toSet.contains(DynamicRegistrationMethods.DID_CHANGE_WATCHED_FILES)) {
-      if (fileWatchers.exists(fw => {
+    //The registrations of a shared server are made with the wrapper owning it
+    val sharedHost = host
+    val owner = if (sharedHost != null) sharedHost else this
+    if (owner.registrations.synchronized(owner.registrations.values.toSet).contains(DynamicRegistrationMethods.DID_CHANGE_WATCHED_FILES)) {
+      if (owner.fileWatchers.exists(fw => {
         val pattern = fw.getGlobPattern
         val event = fw.getKind
         val typInt = typ match {
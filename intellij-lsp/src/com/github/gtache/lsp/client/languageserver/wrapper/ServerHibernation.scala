@@ -0,0 +1,100 @@
+package com.github.gtache.lsp.client.languageserver.wrapper
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ScheduledFuture, TimeUnit}
+
+import com.github.gtache.lsp.settings.LSPState
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.concurrency.AppExecutorUtil
+
+object ServerHibernation {
+
+  private val LOG: Logger = Logger.getInstance(classOf[ServerHibernation])
+
+  /**
+    * The interval between two checks of the activity of the server
+    */
+  private val CHECK_INTERVAL = 60000
+}
+
+/**
+  * Stops a server once its project has been idle for the number of minutes configured in the settings (0 to never stop it)
+  * The wrapper remembers the state of the server and restarts it on the next interaction
+  * The memory reclaimed and the time spent hibernating are counted, to tune the delay
+  *
+  * @param name         The name of the server, for the logs
+  * @param lastActivity The time of the last message sent to the server
+  * @param hibernate    Stops the server, returns false if it can't be stopped right now
+  */
+class ServerHibernation(name: String, lastActivity: () => Long, hibernate: () => Boolean) {
+
+  import ServerHibernation._
+
+  private val checkRunnable: Runnable = () => check()
+  private val hibernations = new AtomicLong()
+  private val wakeUps = new AtomicLong()
+  private val reclaimedBytes = new AtomicLong()
+  private val unknownMemory = new AtomicLong()
+  private val hibernatedMillis = new AtomicLong()
+  @volatile private var hibernatedSince = 0L
+  private var checkTask: ScheduledFuture[_] = _
+
+  /**
+    * Starts checking the activity of the server, once it is initialized
+    */
+  def started(): Unit = this.synchronized {
+    if (checkTask == null) {
+      checkTask = AppExecutorUtil.getAppScheduledExecutorService.scheduleWithFixedDelay(checkRunnable, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS)
+    }
+  }
+
+  /**
+    * Stops checking the activity of the server, when it is stopped
+    */
+  def stopped(): Unit = this.synchronized {
+    if (checkTask != null) checkTask.cancel(false)
+    checkTask = null
+  }
+
+  /**
+    * Records that the server hibernated
+    *
+    * @param bytes The memory used by the server before it was stopped, or -1 if it is unknown
+    */
+  def hibernated(bytes: Long): Unit = {
+    hibernations.incrementAndGet()
+    if (bytes >= 0) reclaimedBytes.addAndGet(bytes) else unknownMemory.incrementAndGet()
+    hibernatedSince = System.currentTimeMillis()
+    LOG.info(name + " hibernated" + (if (bytes >= 0) ", reclaimed " + bytes / 1024 + "KB" else ""))
+  }
+
+  /**
+    * Records that the server was restarted after hibernating
+    */
+  def wokeUp(): Unit = {
+    val since = hibernatedSince
+    if (since > 0) {
+      hibernatedSince = 0
+      wakeUps.incrementAndGet()
+      hibernatedMillis.addAndGet(System.currentTimeMillis() - since)
+      LOG.info(name + " woke up after " + (System.currentTimeMillis() - since) / 1000 + "s")
+    }
+  }
+
+  /**
+    * @return The counters as (name, value) pairs
+    */
+  def getCounters: Seq[(String, Long)] = Seq(
+    ("Hibernations", hibernations.get()),
+    ("Wake ups", wakeUps.get()),
+    ("Memory reclaimed (KB)", reclaimedBytes.get() / 1024),
+    ("Hibernations with unknown memory", unknownMemory.get()),
+    ("Time hibernated (s)", hibernatedMillis.get() / 1000)
+  )
+
+  private def check(): Unit = {
+    val state = LSPState.getInstance()
+    val delay = if (state != null) state.getHibernationDelay else 0
+    if (delay > 0 && System.currentTimeMillis() - lastActivity() > delay * 60000L && hibernate()) stopped()
+  }
+}
@@ -0,0 +1,140 @@
+package com.github.gtache.lsp.client.languageserver.wrapper
+
+import java.io.IOException
+import java.util.concurrent.{ScheduledFuture, TimeUnit}
+
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.concurrency.AppExecutorUtil
+
+object ServerSupervisor {
+
+  private val LOG: Logger = Logger.getInstance(classOf[ServerSupervisor])
+
+  /**
+    * The delay before restarting a server after its first crash, doubled after each consecutive crash
+    */
+  private val INITIAL_BACKOFF = 500
+
+  /**
+    * The maximum delay before restarting a server
+    */
+  private val MAX_BACKOFF = 30000
+
+  /**
+    * The number of consecutive crashes after which the server isn't restarted anymore
+    */
+  private val MAX_CRASHES = 6
+
+  /**
+    * The time without crash after which the crashes are not consecutive anymore
+    */
+  private val STABLE_TIME = 5 * 60 * 1000
+
+  /**
+    * The interval between two health probes
+    */
+  private val PROBE_INTERVAL = 10000
+
+  /**
+    * @param crashes The number of consecutive crashes
+    * @return The delay in milliseconds before restarting the server, or -1 if it shouldn't be restarted anymore
+    */
+  private[wrapper] def backoff(crashes: Int): Int = {
+    if (crashes >= MAX_CRASHES) -1 else math.min(MAX_BACKOFF, INITIAL_BACKOFF.toLong << (crashes - 1)).toInt
+  }
+}
+
+/**
+  * Restarts a server after it crashes, waiting twice as long after each consecutive crash (exponential backoff)
+  * The server is probed periodically, so that a dead process is restarted before a request fails because of it
+  * The supervisor gives up after too many consecutive crashes
+  *
+  * @param name    The name of the server, for the logs
+  * @param isAlive Whether the server is alive, checked by the health probe
+  * @param stop    Stops the crashed server
+  * @param restart Restarts the server
+  * @param giveUp  Called with the last error when the server keeps crashing
+  */
+class ServerSupervisor(name: String, isAlive: () => Boolean, stop: () => Unit, restart: () => Unit, giveUp: Exception => Unit) {
+
+  import ServerSupervisor._
+
+  private val probeRunnable: Runnable = () => probe()
+  private val restartRunnable: Runnable = () => {
+    this.synchronized {
+      restartTask = null
+      restarting = false
+    }
+    LOG.info("Restarting " + name)
+    restart()
+  }
+  private var crashes = 0
+  private var lastCrash = 0L
+  private var restarting = false
+  private var restartTask: ScheduledFuture[_] = _
+  private var probeTask: ScheduledFuture[_] = _
+
+  /**
+    * Starts probing the server, once it is initialized
+    */
+  def started(): Unit = this.synchronized {
+    if (probeTask == null) {
+      probeTask = AppExecutorUtil.getAppScheduledExecutorService.scheduleWithFixedDelay(probeRunnable, PROBE_INTERVAL, PROBE_INTERVAL, TimeUnit.MILLISECONDS)
+    }
+  }
+
+  /**
+    * Stops probing the server and cancels the scheduled restart, when the server is stopped on purpose
+    */
+  def stopped(): Unit = this.synchronized {
+    if (probeTask != null) probeTask.cancel(false)
+    probeTask = null
+    if (restartTask != null) restartTask.cancel(false)
+    restartTask = null
+    restarting = false
+  }
+
+  /**
+    * @return Whether the server is being stopped or restarted after a crash
+    */
+  def isRestarting: Boolean = this.synchronized(restarting)
+
+  /**
+    * Stops the server after a crash and schedules its restart
+    * The crashes reported while the server is restarting are ignored, as they are due to the same one
+    *
+    * @param e The error
+    */
+  def crashed(e: Exception): Unit = {
+    val delay = this.synchronized {
+      if (restarting) 0 else {
+        val now = System.currentTimeMillis()
+        if (now - lastCrash > STABLE_TIME) crashes = 0
+        crashes += 1
+        lastCrash = now
+        val backoffDelay = backoff(crashes)
+        if (backoffDelay >= 0) {
+          restarting = true
+          if (probeTask != null) probeTask.cancel(false)
+          probeTask = null
+        }
+        backoffDelay
+      }
+    }
+    if (delay < 0) {
+      LOG.warn(name + " crashed " + MAX_CRASHES + " times, giving up", e)
+      stopped()
+      giveUp(e)
+    } else if (delay > 0) {
+      LOG.warn(name + " crashed, restarting in " + delay + "ms", e)
+      stop()
+      this.synchronized {
+        if (restarting) restartTask = AppExecutorUtil.getAppScheduledExecutorService.schedule(restartRunnable, delay, TimeUnit.MILLISECONDS)
+      }
+    }
+  }
+
+  private def probe(): Unit = {
+    if (!isRestarting && !isAlive()) crashed(new IOException(name + " isn't running anymore"))
+  }
+}
@@ -0,0 +1,30 @@
+package com.github.gtache.lsp.contributors.fixes
+
+import com.github.gtache.lsp.contributors.psi.LSPPsiElement
+import com.github.gtache.lsp.editor.EditorEventManager
+import com.intellij.codeInspection.{LocalQuickFix, ProblemDescriptor}
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.TextRange
+
+/**
+  * The Quickfix for LSP which requests the CodeActions of a diagnostic only when the user chooses it
+  *
+  * @param uri The file in which the CodeActions will be applied
+  */
+class LSPCodeActionsFix(uri: String) extends LocalQuickFix {
+
+  override def applyFix(project: Project, descriptor: ProblemDescriptor): Unit = {
+    val range = descriptor.getPsiElement match {
+      case element: LSPPsiElement => new TextRange(element.start, element.end)
+      case _ => descriptor.getTextRangeInElement
+    }
+    if (range != null) EditorEventManager.forUri(uri).foreach(m => m.showCodeActions(range))
+  }
+
+  override def startInWriteAction(): Boolean = false
+
+  override def getFamilyName: String = "LSP Fixes"
+
+  override def getName: String = "Show code actions"
+
+}
@@ -0,0 +1,202 @@
+package com.github.gtache.lsp.contributors.inspection
+
+import java.io.{BufferedWriter, File, FileWriter, IOException, PrintWriter}
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CancellationException, CompletableFuture, ExecutionException, Semaphore, TimeUnit, TimeoutException}
+
+import com.github.gtache.lsp.PluginMain
+import com.github.gtache.lsp.client.languageserver.requestmanager.RequestManager
+import com.github.gtache.lsp.client.languageserver.serverdefinition.LanguageServerDefinition
+import com.github.gtache.lsp.client.languageserver.wrapper.LanguageServerWrapper
+import com.github.gtache.lsp.settings.LSPState
+import com.github.gtache.lsp.utils.ApplicationUtils.computableReadAction
+import com.github.gtache.lsp.utils.FileUtils
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vfs.{VfsUtilCore, VirtualFile}
+import org.eclipse.lsp4j.Diagnostic
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+
+object BatchInspectionRunner {
+
+  private val LOG: Logger = Logger.getInstance(classOf[BatchInspectionRunner])
+  private val DIAGNOSTICS_TIMEOUT = 5000
+  private val DEFAULT_PARALLELISM = 8
+  private val DEFAULT_MAX_FILE_SIZE = 1024
+
+  /**
+    * The result of an inspection
+    *
+    * @param files       The number of files inspected
+    * @param skipped     The number of files skipped (too big, unreadable or without an available server)
+    * @param timedOut    The number of files for which the server didn't publish diagnostics in time
+    * @param diagnostics The number of diagnostics reported
+    * @param report      The report file
+    */
+  case class Summary(files: Int, skipped: Int, timedOut: Int, diagnostics: Int, report: File)
+
+}
+
+/**
+  * Inspects all the files of a project supported by a server, without opening editors
+  * The documents are opened directly on the servers (at most LSPState.getBatchInspectionParallelism at the same time per server),
+  * closed once their diagnostics are published, and the diagnostics are written to a CSV report as they arrive
+  * Files bigger than LSPState.getBatchInspectionMaxFileSize KB are skipped
+  * The servers supporting workspace pull diagnostics are asked for the diagnostics of the whole workspace at once instead
+  *
+  * @param project The project
+  */
+class BatchInspectionRunner(project: Project) {
+
+  import BatchInspectionRunner._
+
+  private val inspected = new AtomicInteger()
+  private val skipped = new AtomicInteger()
+  private val timedOut = new AtomicInteger()
+  private val diagnosticsCount = new AtomicInteger()
+
+  /**
+    * Runs the inspection
+    *
+    * @param indicator The progress indicator, used for cancellation
+    * @return The summary of the inspection
+    */
+  def run(indicator: ProgressIndicator): Summary = {
+    val state = LSPState.getInstance()
+    val parallelism = math.max(1, if (state != null) state.getBatchInspectionParallelism else DEFAULT_PARALLELISM)
+    val maxFileSize = 1024L * (if (state != null) state.getBatchInspectionMaxFileSize else DEFAULT_MAX_FILE_SIZE)
+    val files = collectFiles()
+    indicator.setIndeterminate(false)
+    val report = reportFile()
+    val writer = new PrintWriter(new BufferedWriter(new FileWriter(report)))
+    writer.println("file,line,character,severity,source,code,message")
+    //The files of an extension may be forced to another server, so the wrappers are looked up by the server of each file
+    val wrappers: mutable.Map[LanguageServerDefinition, Option[LanguageServerWrapper]] = mutable.HashMap()
+    val semaphores: mutable.Map[LanguageServerWrapper, Semaphore] = mutable.LinkedHashMap()
+    val workspacePulls: mutable.Map[LanguageServerWrapper, CompletableFuture[Void]] = mutable.HashMap()
+    try {
+      files.zipWithIndex.foreach { case (file, idx) =>
+        indicator.checkCanceled()
+        indicator.setFraction(idx.toDouble / files.size)
+        indicator.setText2(file.getPresentableUrl)
+        PluginMain.getServerDefinitionFor(file, project).flatMap(d => wrappers.getOrElseUpdate(d, PluginMain.getWrapperFor(file, project))) match {
+          case Some(wrapper) if wrapper.getPullDiagnostics != null && wrapper.getPullDiagnostics.isWorkspaceSupported =>
+            val pull = workspacePulls.getOrElseUpdate(wrapper, wrapper.getPullDiagnostics.pullWorkspace())
+            await(pull, indicator)
+            inspectFromStore(wrapper, file, writer)
+          case Some(wrapper) if file.getLength <= maxFileSize =>
+            val semaphore = semaphores.getOrElseUpdate(wrapper, new Semaphore(parallelism))
+            acquire(semaphore, 1, indicator)
+            inspect(wrapper, file, writer).whenComplete((_: Void, _: Throwable) => semaphore.release())
+          case _ =>
+            skipped.incrementAndGet()
+        }
+      }
+      semaphores.values.foreach(s => acquire(s, parallelism, indicator))
+    } finally {
+      writer.synchronized(writer.close())
+    }
+    Summary(inspected.get(), skipped.get(), timedOut.get(), diagnosticsCount.get(), report)
+  }
+
+  private def collectFiles(): Seq[VirtualFile] = {
+    val files = ArrayBuffer[VirtualFile]()
+    computableReadAction(() => {
+      ProjectFileIndex.getInstance(project).iterateContent((fileOrDir: VirtualFile) => {
+        if (!fileOrDir.isDirectory && PluginMain.isExtensionSupported(fileOrDir.getExtension)) files += fileOrDir
+        true
+      })
+    })
+    files
+  }
+
+  private def acquire(semaphore: Semaphore, permits: Int, indicator: ProgressIndicator): Unit = {
+    while (!semaphore.tryAcquire(permits, 100, TimeUnit.MILLISECONDS)) indicator.checkCanceled()
+  }
+
+  private def await(future: CompletableFuture[Void], indicator: ProgressIndicator): Unit = {
+    while (!future.isDone) {
+      indicator.checkCanceled()
+      try {
+        future.get(100, TimeUnit.MILLISECONDS)
+      } catch {
+        case _: TimeoutException =>
+        case _: ExecutionException | _: CancellationException =>
+      }
+    }
+  }
+
+  /**
+    * Writes the diagnostics of a document reported by a workspace pull
+    */
+  private def inspectFromStore(wrapper: LanguageServerWrapper, file: VirtualFile, writer: PrintWriter): Unit = {
+    val uri = FileUtils.VFSToURI(file)
+    if (uri != null) write(writer, file, wrapper.getDiagnosticsStore.get(uri)) else skipped.incrementAndGet()
+  }
+
+  /**
+    * Opens a document on the server, waits for its diagnostics and closes it
+    * The diagnostics of a document already opened in an editor are taken directly from the store
+    */
+  private def inspect(wrapper: LanguageServerWrapper, file: VirtualFile, writer: PrintWriter): CompletableFuture[Void] = {
+    val uri = FileUtils.VFSToURI(file)
+    val store = wrapper.getDiagnosticsStore
+    if (uri == null) {
+      skipped.incrementAndGet()
+      CompletableFuture.completedFuture(null)
+    } else if (wrapper.isConnectedTo(uri)) {
+      write(writer, file, store.get(uri))
+      CompletableFuture.completedFuture(null)
+    } else {
+      val text = try {
+        VfsUtilCore.loadText(file)
+      } catch {
+        case e: IOException =>
+          LOG.warn(e)
+          null
+      }
+      val published = store.nextPublish(uri)
+      if (text != null && wrapper.openHeadless(uri, text)) {
+        RequestManager.withTimeout(published, DIAGNOSTICS_TIMEOUT).handle[Void]((_: Void, error: Throwable) => {
+          if (error != null) timedOut.incrementAndGet()
+          wrapper.closeHeadless(uri)
+          write(writer, file, store.get(uri))
+          null
+        })
+      } else {
+        skipped.incrementAndGet()
+        CompletableFuture.completedFuture(null)
+      }
+    }
+  }
+
+  private def write(writer: PrintWriter, file: VirtualFile, diagnostics: Seq[Diagnostic]): Unit = {
+    inspected.incrementAndGet()
+    diagnosticsCount.addAndGet(diagnostics.size)
+    val path = escape(file.getPath)
+    writer.synchronized {
+      diagnostics.foreach(d => {
+        val start = d.getRange.getStart
+        val severity = if (d.getSeverity != null) d.getSeverity.name() else ""
+        writer.println(Seq(path, (start.getLine + 1).toString, (start.getCharacter + 1).toString, severity,
+          escape(d.getSource), escape(d.getCode), escape(d.getMessage)).mkString(","))
+      })
+    }
+  }
+
+  private def escape(s: String): String = {
+    if (s == null) "" else "\"" + s.replace("\"", "\"\"") + "\""
+  }
+
+  private def reportFile(): File = {
+    val dir = new File(project.getBasePath + "/" + FileUtils.LSP_LOG_DIR)
+    dir.mkdirs()
+    new File(dir, "inspection_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".csv")
+  }
+}
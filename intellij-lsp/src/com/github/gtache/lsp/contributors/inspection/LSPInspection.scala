@@ -1,11 +1,12 @@
 package com.github.gtache.lsp.contributors.inspection
 
 import com.github.gtache.lsp.PluginMain
-import com.github.gtache.lsp.contributors.fixes.{LSPCodeActionFix, LSPCommandFix}
+import com.github.gtache.lsp.contributors.fixes.LSPCodeActionsFix
 import com.github.gtache.lsp.contributors.psi.LSPPsiElement
 import com.github.gtache.lsp.editor.{DiagnosticRangeHighlighter, EditorEventManager}
 import com.github.gtache.lsp.utils.FileUtils
 import com.intellij.codeInspection._
+import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiFile
 import javax.swing.JComponent
@@ -25,57 +26,65 @@ class LSPInspection extends LocalInspectionTool {
       /**
         * Get all the ProblemDescriptor given an EditorEventManager
         * Look at the DiagnosticHighlights, create dummy PsiElement for each, create descriptor using it
+        * The CodeActions are only requested when the user chooses the fix
         *
         * @param m The manager
         * @return The ProblemDescriptors
         */
       def descriptorsForManager(m: EditorEventManager): Array[ProblemDescriptor] = {
         val diagnostics = m.getDiagnostics
+        val fix = new LSPCodeActionsFix(uri)
         diagnostics.collect { case DiagnosticRangeHighlighter(rangeHighlighter, diagnostic) =>
           val start = rangeHighlighter.getStartOffset
           val end = rangeHighlighter.getEndOffset
           if (start < end) {
             val name = m.editor.getDocument.getTextClamped(start, end)
-            val severity = diagnostic.getSeverity match {
-              case DiagnosticSeverity.Error => ProblemHighlightType.ERROR
-              case DiagnosticSeverity.Warning => ProblemHighlightType.GENERIC_ERROR_OR_WARNING
-              case DiagnosticSeverity.Information => ProblemHighlightType.INFORMATION
-              case DiagnosticSeverity.Hint => ProblemHighlightType.INFORMATION
-              case _ => null
-            }
+            val severity = highlightType(diagnostic.getSeverity)
             val element = LSPPsiElement(name, m.editor.getProject, start, end, file, m.editor)
-            val codeActionResult = m.codeAction(element)
-            val fixes = if (codeActionResult != null) {
-              val (commandsE, codeActionsE) = codeActionResult.filter(e => e != null && (e.isLeft || e.isRight)).partition(e => e.isLeft)
-              val commands = commandsE.map(e => e.getLeft).map(c => new LSPCommandFix(uri, c))
-              val codeActions = codeActionsE.map(e => e.getRight).map(c => new LSPCodeActionFix(uri, c))
-              (commands ++ codeActions).toArray
-            } else null
-            manager.createProblemDescriptor(element, null.asInstanceOf[TextRange], diagnostic.getMessage, severity, isOnTheFly, fixes: _*)
+            manager.createProblemDescriptor(element, null.asInstanceOf[TextRange], diagnostic.getMessage, severity, isOnTheFly, fix)
           } else null
         }.toArray.filter(d => d != null)
       }
 
+      /**
+        * Get all the ProblemDescriptor from the diagnostics stored for a file which isn't opened in an editor
+        * No fix is offered, as the CodeActions can only be requested for a document opened in an editor
+        *
+        * @return The ProblemDescriptors
+        */
+      def descriptorsFromStore(): Array[ProblemDescriptor] = {
+        val doc = FileDocumentManager.getInstance().getDocument(virtualFile)
+        if (doc != null) {
+          PluginMain.getAllServerWrappers.filter(w => w.getProject == file.getProject).toArray
+            .flatMap(w => w.getDiagnosticsStore.get(uri))
+            .flatMap(diagnostic => {
+              val range = LSPRangeToTextRange(doc, diagnostic.getRange)
+              if (range != null && range.getStartOffset < range.getEndOffset && range.getEndOffset <= file.getTextLength) {
+                Some(manager.createProblemDescriptor(file, range, diagnostic.getMessage, highlightType(diagnostic.getSeverity), isOnTheFly))
+              } else None
+            })
+        } else Array.empty
+      }
+
       EditorEventManager.forUri(uri) match {
         case Some(m) =>
-          descriptorsForManager(m)
+          m.getProblemDescriptors(file, isOnTheFly)(descriptorsForManager(m))
         case None =>
-          if (isOnTheFly) {
-            super.checkFile(file, manager, isOnTheFly)
-          } else {
-            /*val descriptor = new OpenFileDescriptor(manager.getProject, virtualFile)
-            ApplicationUtils.writeAction(() => FileEditorManager.getInstance(manager.getProject).openTextEditor(descriptor, false))
-            EditorEventManager.forUri(uri) match {
-              case Some(m) => descriptorsForManager(m)
-              case None => super.checkFile(file, manager, isOnTheFly)
-            }*/
-            //TODO need dispatch thread
-            super.checkFile(file, manager, isOnTheFly)
-          }
+          descriptorsFromStore()
       }
     } else super.checkFile(file, manager, isOnTheFly)
   }
 
+  private def highlightType(severity: DiagnosticSeverity): ProblemHighlightType = {
+    severity match {
+      case DiagnosticSeverity.Error => ProblemHighlightType.ERROR
+      case DiagnosticSeverity.Warning => ProblemHighlightType.GENERIC_ERROR_OR_WARNING
+      case DiagnosticSeverity.Information => ProblemHighlightType.INFORMATION
+      case DiagnosticSeverity.Hint => ProblemHighlightType.INFORMATION
+      case _ => ProblemHighlightType.GENERIC_ERROR_OR_WARNING
+    }
+  }
+
   override def getDisplayName: String = getShortName
 
   override def createOptionsPanel(): JComponent = {
@@ -0,0 +1,185 @@
+package com.github.gtache.lsp.editor
+
+import java.awt.Font
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.github.gtache.lsp.utils.ApplicationUtils.{computableReadAction, invokeLater, pool}
+import com.github.gtache.lsp.utils.DocumentUtils
+import com.intellij.openapi.editor.markup.{EffectType, HighlighterLayer, HighlighterTargetArea, TextAttributes}
+import com.intellij.openapi.editor.{Document, Editor}
+import com.intellij.openapi.util.TextRange
+import org.eclipse.lsp4j.{Diagnostic, DiagnosticSeverity, Range}
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+
+object DiagnosticsHighlighter {
+
+  /**
+    * The identity of a diagnostic, used to compare two consecutive sets of diagnostics
+    * The range isn't part of it, as the highlighters follow the edits of the document
+    */
+  private case class Key(severity: DiagnosticSeverity, code: Any, message: String)
+
+  private object Key {
+    def apply(diagnostic: Diagnostic): Key = Key(diagnostic.getSeverity, diagnostic.getCode, diagnostic.getMessage)
+  }
+
+  private def toOffsets(doc: Document, diagnostics: Iterable[Diagnostic]): List[(Diagnostic, TextRange)] = {
+    diagnostics.map(d => (d, rangeToOffsets(doc, d.getRange))).toList
+  }
+
+  private def rangeToOffsets(doc: Document, range: Range): TextRange = {
+    val textRange = DocumentUtils.LSPRangeToTextRange(doc, range)
+    if (textRange.isEmpty) {
+      DocumentUtils.expandOffsetToToken(doc, textRange.getStartOffset)
+    } else {
+      textRange
+    }
+  }
+}
+
+/**
+  * Class keeping the diagnostics highlighters of an editor in sync with the diagnostics published by the server
+  * The ranges of the new diagnostics are converted to offsets on a pooled thread, then compared on the EDT with the current
+  * highlighters (by severity, code and message, and by the current range of the highlighter, which moves with the edits)
+  * so that only the highlighters which changed are removed or added. The changes are applied by the ViewportScheduler of
+  * the editor (visible ones first), and an update is abandoned as soon as a newer one arrives. If the document changes before
+  * all the changes are applied, the update is computed again from the last published diagnostics.
+  *
+  * @param editor    The editor
+  * @param scheduler The scheduler of the painting work of the editor
+  */
+class DiagnosticsHighlighter(editor: Editor, scheduler: ViewportScheduler) {
+
+  import DiagnosticsHighlighter._
+
+  private val highlights: mutable.Map[Key, List[DiagnosticRangeHighlighter]] = mutable.HashMap()
+  private val generation = new AtomicInteger()
+  @volatile private var modificationCount = 0
+  @volatile private var published: Iterable[Diagnostic] = Nil
+
+  /**
+    * Replaces the diagnostics shown in the editor
+    *
+    * @param diagnostics The diagnostics published by the server
+    */
+  def update(diagnostics: Iterable[Diagnostic]): Unit = {
+    val gen = generation.incrementAndGet()
+    published = diagnostics
+    val doc = editor.getDocument
+    pool(() => {
+      if (isCurrent(gen)) {
+        val (stamp, converted) = computableReadAction(() => (doc.getModificationStamp, toOffsets(doc, diagnostics)))
+        invokeLater(() => {
+          if (isCurrent(gen)) {
+            //Converted again if the document changed in the meantime
+            val wanted = (if (doc.getModificationStamp == stamp) converted else toOffsets(doc, diagnostics)).groupBy(t => Key(t._1))
+            val (stale, missing) = diff(wanted)
+            val tasks = stale.map { case (key, h) => ViewportScheduler.Task(h.rangeHighlighter.getStartOffset, () => remove(key, h)) } ++
+              missing.map { case (key, d, range) => ViewportScheduler.Task(range.getStartOffset, () => add(key, d, range)) }
+            //The server may not publish again after the change (e.g. an "unchanged" pull report), so the dropped work is redone
+            scheduler.schedule(tasks, () => isCurrent(gen), () => update(published))
+          }
+        })
+      }
+    })
+  }
+
+  /**
+    * @return The current diagnostics highlighters
+    */
+  def getDiagnostics: mutable.Set[DiagnosticRangeHighlighter] = {
+    highlights.synchronized {
+      mutable.HashSet() ++= highlights.valuesIterator.flatten
+    }
+  }
+
+  /**
+    * @return A counter incremented each time a highlighter is added or removed
+    */
+  def getModificationCount: Int = modificationCount
+
+  /**
+    * Removes all the highlighters and abandons the pending updates
+    */
+  def clear(): Unit = {
+    generation.incrementAndGet()
+    published = Nil
+    invokeLater(() => {
+      if (!editor.isDisposed) {
+        highlights.synchronized {
+          highlights.valuesIterator.flatten.foreach(h => editor.getMarkupModel.removeHighlighter(h.rangeHighlighter))
+          highlights.clear()
+        }
+        modificationCount += 1
+      }
+    })
+  }
+
+  private def isCurrent(gen: Int): Boolean = gen == generation.get() && !editor.isDisposed
+
+  /**
+    * Computes the highlighters to remove and the diagnostics to add, must be called on the EDT
+    * A highlighter is kept if its key is still published and it covers the range of the diagnostic, its diagnostic being
+    * replaced by the published one
+    */
+  private def diff(wanted: Map[Key, List[(Diagnostic, TextRange)]]): (Seq[(Key, DiagnosticRangeHighlighter)], Seq[(Key, Diagnostic, TextRange)]) = {
+    val stale = ArrayBuffer[(Key, DiagnosticRangeHighlighter)]()
+    val missing = ArrayBuffer[(Key, Diagnostic, TextRange)]()
+    var replaced = false
+    highlights.synchronized {
+      highlights.foreach { case (key, current) =>
+        if (!wanted.contains(key)) current.foreach(h => stale += ((key, h)))
+      }
+      wanted.foreach { case (key, diagnostics) =>
+        var current = highlights.getOrElse(key, Nil)
+        var kept: List[DiagnosticRangeHighlighter] = Nil
+        diagnostics.foreach { case (d, range) =>
+          current.find(h => h.rangeHighlighter.isValid && h.rangeHighlighter.getStartOffset == range.getStartOffset &&
+            h.rangeHighlighter.getEndOffset == range.getEndOffset) match {
+            case Some(h) =>
+              current = current.filterNot(_ eq h)
+              if (h.diagnostic ne d) replaced = true
+              kept = DiagnosticRangeHighlighter(h.rangeHighlighter, d) :: kept
+            case None => missing += ((key, d, range))
+          }
+        }
+        current.foreach(h => stale += ((key, h)))
+        if (kept.nonEmpty || current.nonEmpty) highlights.put(key, kept ++ current)
+      }
+    }
+    if (replaced) modificationCount += 1
+    (stale, missing)
+  }
+
+  private def remove(key: Key, highlighter: DiagnosticRangeHighlighter): Unit = {
+    editor.getMarkupModel.removeHighlighter(highlighter.rangeHighlighter)
+    modificationCount += 1
+    highlights.synchronized {
+      highlights.get(key).map(_.filterNot(_.rangeHighlighter eq highlighter.rangeHighlighter)) match {
+        case Some(Nil) | None => highlights.remove(key)
+        case Some(remaining) => highlights.put(key, remaining)
+      }
+    }
+  }
+
+  private def add(key: Key, diagnostic: Diagnostic, textRange: TextRange): Unit = {
+    if (textRange.getEndOffset <= editor.getDocument.getTextLength) {
+      val colorScheme = editor.getColorsScheme
+      val (effectType, effectColor, layer) = diagnostic.getSeverity match {
+        case DiagnosticSeverity.Warning => (EffectType.WAVE_UNDERSCORE, java.awt.Color.YELLOW, HighlighterLayer.WARNING)
+        case DiagnosticSeverity.Information => (EffectType.WAVE_UNDERSCORE, java.awt.Color.GRAY, HighlighterLayer.WARNING)
+        case DiagnosticSeverity.Hint => (EffectType.BOLD_DOTTED_LINE, java.awt.Color.GRAY, HighlighterLayer.WARNING)
+        case _ => (EffectType.WAVE_UNDERSCORE, java.awt.Color.RED, HighlighterLayer.ERROR)
+      }
+      val rangeHighlighter = editor.getMarkupModel.addRangeHighlighter(textRange.getStartOffset, textRange.getEndOffset, layer,
+        new TextAttributes(colorScheme.getDefaultForeground, colorScheme.getDefaultBackground, effectColor, effectType, Font.PLAIN),
+        HighlighterTargetArea.EXACT_RANGE)
+      highlights.synchronized {
+        highlights.put(key, DiagnosticRangeHighlighter(rangeHighlighter, diagnostic) :: highlights.getOrElse(key, Nil))
+      }
+      modificationCount += 1
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package com.github.gtache.lsp.editor
+
+import java.util
+import java.util.concurrent.{ScheduledFuture, TimeUnit}
+
+import com.github.gtache.lsp.client.languageserver.requestmanager.RequestManager
+import com.github.gtache.lsp.settings.LSPState
+import com.github.gtache.lsp.utils.ApplicationUtils.computableReadAction
+import com.github.gtache.lsp.utils.DocumentUtils
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.event.DocumentEvent
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.eclipse.lsp4j._
+
+import scala.collection.mutable.ArrayBuffer
+
+object DocumentChangesPipeline {
+
+  /**
+    * Creates an incremental change event
+    *
+    * @param start   The position at which the change starts
+    * @param oldText The text which was replaced
+    * @param newText The text which was inserted
+    * @return The change event
+    */
+  def createChangeEvent(start: Position, oldText: CharSequence, newText: CharSequence): TextDocumentContentChangeEvent = {
+    val newLines = StringUtil.countNewLines(oldText)
+    //if text was deleted/replaced, calculate the end position of the deleted text
+    val end = if (newLines == 0) {
+      new Position(start.getLine, start.getCharacter + oldText.length())
+    } else {
+      var lastNewLine = oldText.length() - 1
+      while (oldText.charAt(lastNewLine) != '\n') lastNewLine -= 1
+      new Position(start.getLine + newLines, oldText.length() - lastNewLine - 1)
+    }
+    new TextDocumentContentChangeEvent(new Range(start, end), oldText.length(), newText.toString)
+  }
+
+  /**
+    * Tries to merge two consecutive changes into one (typing a word, or deleting multiple characters)
+    *
+    * @param previous The first change
+    * @param next     The change which was made after the first one
+    * @return The merged change, or null if they can't be merged
+    */
+  def mergeChanges(previous: TextDocumentContentChangeEvent, next: TextDocumentContentChangeEvent): TextDocumentContentChangeEvent = {
+    if (previous.getRange == null || next.getRange == null || previous.getRangeLength == null || next.getRangeLength == null) {
+      null
+    } else {
+      val prevStart = previous.getRange.getStart
+      val prevText = previous.getText
+      val nextStart = next.getRange.getStart
+      val nextEnd = next.getRange.getEnd
+      val nextText = next.getText
+      if (prevText.indexOf('\n') != -1 || nextStart.getLine != prevStart.getLine || nextEnd.getLine != prevStart.getLine) {
+        null
+      } else {
+        val insertedEnd = prevStart.getCharacter + prevText.length
+        if (nextStart.getCharacter == insertedEnd && nextEnd.getCharacter == insertedEnd) {
+          //Inserts right after the previous change
+          new TextDocumentContentChangeEvent(previous.getRange, previous.getRangeLength, prevText + nextText)
+        } else if (nextText.isEmpty && nextEnd.getCharacter == insertedEnd && nextStart.getCharacter >= prevStart.getCharacter) {
+          //Deletes the end of the text inserted by the previous change
+          new TextDocumentContentChangeEvent(previous.getRange, previous.getRangeLength, prevText.substring(0, nextStart.getCharacter - prevStart.getCharacter))
+        } else if (prevText.isEmpty && nextText.isEmpty && nextEnd.getCharacter == prevStart.getCharacter) {
+          //Deletes the text right before the previous deletion
+          new TextDocumentContentChangeEvent(new Range(nextStart, previous.getRange.getEnd), previous.getRangeLength + next.getRangeLength, "")
+        } else null
+      }
+    }
+  }
+}
+
+/**
+  * Class queuing the changes made to a document and sending them in a single didChange notification
+  * The changes are sent after a delay (see LSPState.getDocumentSyncDelay) on a background thread, or immediately if flush is called
+  * If the server only supports full synchronization, the text is copied at most once per LSPState.getFullSyncInterval, and only if the document was modified
+  *
+  * @param editor         The editor of the document
+  * @param identifier     The identifier of the document
+  * @param languageId     The language id of the document
+  * @param requestManager The RequestManager used to notify the server
+  * @param syncKind       The synchronization kind supported by the server
+  * @param statistics     The statistics to update when sending changes
+  */
+class DocumentChangesPipeline(editor: Editor, identifier: TextDocumentIdentifier, languageId: String,
+                              requestManager: RequestManager, syncKind: TextDocumentSyncKind, statistics: DocumentSyncStatistics) {
+
+  import DocumentChangesPipeline._
+
+  private val pendingChanges: ArrayBuffer[TextDocumentContentChangeEvent] = ArrayBuffer()
+  private val flushRunnable: Runnable = () => flush()
+  private var fullTextChanged: Boolean = false
+  private var lastSentStamp: Long = -1
+  private var scheduledFlush: ScheduledFuture[_] = _
+  private var version: Int = 0
+  private var isOpen: Boolean = false
+
+  /**
+    * @return The version of the document last sent to the server
+    */
+  def getVersion: Int = this.synchronized(version)
+
+  /**
+    * Sends the didOpen notification with the current content of the document
+    * The read action must be acquired before the lock, as changes are queued inside write actions
+    *
+    * @param version The version of the opened document
+    * @return true if the notification was sent, false if the document was already open
+    */
+  def open(version: Int = 0): Boolean = {
+    computableReadAction(() => this.synchronized {
+      if (isOpen) false else {
+        this.version = version
+        pendingChanges.clear()
+        fullTextChanged = false
+        lastSentStamp = editor.getDocument.getModificationStamp
+        requestManager.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(identifier.getUri, languageId, version, editor.getDocument.getText)))
+        isOpen = true
+        true
+      }
+    })
+  }
+
+  /**
+    * Sends the remaining changes and the didClose notification
+    *
+    * @return true if the notification was sent, false if the document was already closed
+    */
+  def close(): Boolean = this.synchronized {
+    if (isOpen) {
+      sendChanges()
+      requestManager.didClose(new DidCloseTextDocumentParams(identifier))
+      isOpen = false
+      true
+    } else false
+  }
+
+  /**
+    * Queues a change of the document
+    *
+    * @param event The DocumentEvent
+    */
+  def documentChanged(event: DocumentEvent): Unit = {
+    syncKind match {
+      case TextDocumentSyncKind.Incremental =>
+        val changeEvent = createChangeEvent(DocumentUtils.offsetToLSPPos(editor, event.getOffset), event.getOldFragment, event.getNewFragment)
+        this.synchronized {
+          if (isOpen) {
+            val merged = if (pendingChanges.nonEmpty) mergeChanges(pendingChanges.last, changeEvent) else null
+            if (merged != null) pendingChanges(pendingChanges.size - 1) = merged else pendingChanges.append(changeEvent)
+            scheduleFlush(getDelay(_.getDocumentSyncDelay))
+          }
+        }
+      case TextDocumentSyncKind.Full =>
+        this.synchronized {
+          if (isOpen) {
+            fullTextChanged = true
+            scheduleFlush(getDelay(_.getFullSyncInterval))
+          }
+        }
+      case _ =>
+    }
+  }
+
+  /**
+    * Immediately sends the queued changes to the server
+    * Must be called before any request depending on the state of the document
+    */
+  def flush(): Unit = this.synchronized {
+    sendChanges()
+  }
+
+  private def getDelay(getter: LSPState => Int): Int = {
+    val state = LSPState.getInstance()
+    if (state != null) getter(state) else 0
+  }
+
+  private def scheduleFlush(delay: Int): Unit = {
+    if (delay <= 0) {
+      sendChanges()
+    } else if (scheduledFlush == null) {
+      scheduledFlush = AppExecutorUtil.getAppScheduledExecutorService.schedule(flushRunnable, delay, TimeUnit.MILLISECONDS)
+    }
+  }
+
+  private def sendChanges(): Unit = {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false)
+      scheduledFlush = null
+    }
+    if (isOpen && !editor.isDisposed) {
+      if (fullTextChanged) {
+        fullTextChanged = false
+        sendFullText()
+      } else if (pendingChanges.nonEmpty) {
+        val changes = new util.ArrayList[TextDocumentContentChangeEvent](pendingChanges.size)
+        pendingChanges.foreach(changes.add)
+        statistics.incrementalSent(pendingChanges.size, pendingChanges.map(_.getText.length).sum)
+        pendingChanges.clear()
+        send(changes)
+      }
+    }
+  }
+
+  private def sendFullText(): Unit = {
+    //The stamp must be read before the text ; if the document changes in-between, the next update will only send the same text again
+    val document = editor.getDocument
+    val stamp = document.getModificationStamp
+    if (stamp == lastSentStamp) {
+      statistics.fullTextSkipped()
+    } else {
+      val text = document.getImmutableCharSequence.toString
+      lastSentStamp = stamp
+      statistics.fullTextSent(text.length)
+      send(util.Collections.singletonList(new TextDocumentContentChangeEvent(text)))
+    }
+  }
+
+  private def send(changes: util.List[TextDocumentContentChangeEvent]): Unit = {
+    version += 1
+    requestManager.didChange(new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(identifier.getUri, version), changes))
+  }
+}
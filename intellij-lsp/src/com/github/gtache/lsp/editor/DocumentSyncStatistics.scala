@@ -0,0 +1,64 @@
+package com.github.gtache.lsp.editor
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+  * Counters of the document synchronization notifications sent to a server, used to check the allocations made by the synchronization
+  */
+class DocumentSyncStatistics {
+
+  private val fullSyncSent = new AtomicLong()
+  private val fullSyncSkipped = new AtomicLong()
+  private val fullSyncChars = new AtomicLong()
+  private val incrementalSent = new AtomicLong()
+  private val incrementalChanges = new AtomicLong()
+  private val incrementalChars = new AtomicLong()
+
+  /**
+    * Records a full text update
+    *
+    * @param chars The number of characters copied
+    */
+  def fullTextSent(chars: Int): Unit = {
+    fullSyncSent.incrementAndGet()
+    fullSyncChars.addAndGet(chars)
+  }
+
+  /**
+    * Records a full text update which wasn't sent because the document was unchanged
+    */
+  def fullTextSkipped(): Unit = {
+    fullSyncSkipped.incrementAndGet()
+  }
+
+  /**
+    * Records an incremental update
+    *
+    * @param changes The number of content changes
+    * @param chars   The number of characters sent
+    */
+  def incrementalSent(changes: Int, chars: Int): Unit = {
+    incrementalSent.incrementAndGet()
+    incrementalChanges.addAndGet(changes)
+    incrementalChars.addAndGet(chars)
+  }
+
+  /**
+    * @return The counters as (name, value) pairs
+    */
+  def getCounters: Seq[(String, Long)] = Seq(
+    ("Full text updates sent", fullSyncSent.get()),
+    ("Full text updates skipped", fullSyncSkipped.get()),
+    ("Full text characters copied", fullSyncChars.get()),
+    ("Incremental updates sent", incrementalSent.get()),
+    ("Incremental changes sent", incrementalChanges.get()),
+    ("Incremental characters sent", incrementalChars.get())
+  )
+
+  /**
+    * Resets all the counters
+    */
+  def reset(): Unit = {
+    Seq(fullSyncSent, fullSyncSkipped, fullSyncChars, incrementalSent, incrementalChanges, incrementalChars).foreach(_.set(0))
+  }
+}
@@ -4,52 +4,52 @@ import java.awt._
 import java.awt.event.{KeyEvent, MouseAdapter, MouseEvent}
 import java.io.File
 import java.net.URI
-import java.util
-import java.util.concurrent.{ExecutionException, TimeUnit, TimeoutException}
+import java.util.concurrent.{CancellationException, CompletableFuture, CompletionException, ExecutionException, Future, TimeUnit, TimeoutException}
 import java.util.{Timer, TimerTask}
 
 import com.github.gtache.lsp.actions.LSPReferencesAction
 import com.github.gtache.lsp.client.languageserver.ServerOptions
 import com.github.gtache.lsp.client.languageserver.requestmanager.RequestManager
+import com.github.gtache.lsp.client.languageserver.semantictokens.LSPServerCapabilities
 import com.github.gtache.lsp.client.languageserver.wrapper.LanguageServerWrapperImpl
 import com.github.gtache.lsp.contributors.psi.LSPPsiElement
 import com.github.gtache.lsp.contributors.rename.LSPRenameProcessor
-import com.github.gtache.lsp.requests.{HoverHandler, SemanticHighlightingHandler, Timeouts, WorkspaceEditHandler}
+import com.github.gtache.lsp.requests.{HoverHandler, PendingRequests, SemanticHighlightingHandler, Timeouts, WorkspaceEditHandler}
 import com.github.gtache.lsp.settings.LSPState
 import com.github.gtache.lsp.utils.ConversionUtils._
 import com.github.gtache.lsp.utils.DocumentUtils._
 import com.github.gtache.lsp.utils.{DocumentUtils, FileUtils, GUIUtils}
 import com.intellij.codeInsight.CodeInsightSettings
+import com.intellij.codeInspection.ProblemDescriptor
 import com.intellij.codeInsight.completion.InsertionContext
 import com.intellij.codeInsight.hint.HintManager
 import com.intellij.codeInsight.lookup._
 import com.intellij.codeInsight.template.impl.{TemplateImpl, TextExpression}
 import com.intellij.codeInsight.template.{Template, TemplateManager}
 import com.intellij.lang.LanguageDocumentation
-import com.intellij.openapi.actionSystem.ActionManager
+import com.intellij.ide.DataManager
+import com.intellij.openapi.actionSystem.{ActionManager, AnAction, AnActionEvent, DefaultActionGroup}
 import com.intellij.openapi.command.CommandProcessor
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.editor.colors.EditorColors
 import com.intellij.openapi.editor.event._
 import com.intellij.openapi.editor.ex.EditorSettingsExternalizable
 import com.intellij.openapi.editor.markup._
-import com.intellij.openapi.editor.{Editor, LogicalPosition, ScrollType}
+import com.intellij.openapi.editor.{Document, Editor, LogicalPosition, ScrollType}
 import com.intellij.openapi.fileEditor.{FileDocumentManager, FileEditorManager, OpenFileDescriptor, TextEditor}
 import com.intellij.openapi.fileTypes.PlainTextLanguage
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.popup.JBPopupFactory
 import com.intellij.openapi.util.TextRange
-import com.intellij.openapi.util.text.StringUtil
 import com.intellij.openapi.vfs.{LocalFileSystem, VirtualFile}
-import com.intellij.psi.{PsiDocumentManager, PsiElement}
+import com.intellij.psi.{PsiDocumentManager, PsiElement, PsiFile}
 import com.intellij.ui.Hint
 import com.intellij.uiDesigner.core.{GridConstraints, GridLayoutManager, Spacer}
 import javax.swing.{JFrame, JLabel, JPanel}
 import org.eclipse.lsp4j._
 import org.eclipse.lsp4j.jsonrpc.JsonRpcException
-import org.eclipse.lsp4j.util.SemanticHighlightingTokens
 
-import scala.collection.mutable.ArrayBuffer
-import scala.collection.{JavaConverters, mutable}
+import scala.collection.mutable
 import scala.util.Random
 
 object EditorEventManager {
@@ -63,6 +63,11 @@ object EditorEventManager {
   @volatile private var isCtrlDown = false
   @volatile private var docRange: RangeMarker = _
 
+  /**
+    * What the problem descriptors of an editor depend on
+    */
+  private case class DescriptorsKey(diagnosticsModificationCount: Int, documentStamp: Long, file: PsiFile, isOnTheFly: Boolean)
+
   KeyboardFocusManager.getCurrentKeyboardFocusManager.addKeyEventDispatcher((e: KeyEvent) => this.synchronized {
     e.getID match {
       case KeyEvent.KEY_PRESSED =>
@@ -81,6 +86,14 @@ object EditorEventManager {
     false
   })
 
+  /**
+    * Repaints the semantic highlighting of all the editors, after the color scheme changed
+    */
+  def colorSchemeChanged(): Unit = {
+    prune()
+    editorToManager.values.foreach(m => if (m.semanticHighlightingStore != null) m.semanticHighlightingStore.refresh())
+  }
+
   /**
     * @param uri A file uri
     * @return The manager for the given uri, or None
@@ -121,27 +134,30 @@ object EditorEventManager {
   * @param mouseMotionListener A listener for mouse movement
   * @param documentListener    A listener for keystrokes
   * @param selectionListener   A listener for selection changes in the editor
+  * @param caretListener       A listener for caret movements in the editor
   * @param requestManager      The related RequestManager, connected to the right LanguageServer
   * @param serverOptions       the options of the server regarding completion, signatureHelp, syncKind, etc
   * @param wrapper             The corresponding LanguageServerWrapper
   */
 class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListener, val mouseMotionListener: EditorMouseMotionListener,
-                         val documentListener: DocumentListener, val selectionListener: SelectionListener,
+                         val documentListener: DocumentListener, val selectionListener: SelectionListener, val caretListener: CaretListener,
                          val requestManager: RequestManager, val serverOptions: ServerOptions, val wrapper: LanguageServerWrapperImpl) {
 
   import EditorEventManager._
   import GUIUtils.createAndShowEditorHint
-  import com.github.gtache.lsp.requests.Timeout._
   import com.github.gtache.lsp.utils.ApplicationUtils._
 
   import scala.collection.JavaConverters._
 
   private val identifier: TextDocumentIdentifier = new TextDocumentIdentifier(FileUtils.editorToURIString(editor))
   private val LOG: Logger = Logger.getInstance(classOf[EditorEventManager])
-  private val changesParams = new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(), new util.ArrayList[TextDocumentContentChangeEvent]())
   private val selectedSymbHighlights: mutable.Set[RangeHighlighter] = mutable.HashSet()
-  private val diagnosticsHighlights: mutable.Set[DiagnosticRangeHighlighter] = mutable.HashSet()
-  private val semanticHighlights: mutable.Map[Int, Seq[RangeHighlighter]] = mutable.Map()
+  private val viewportScheduler: ViewportScheduler = new ViewportScheduler(editor)
+  private val diagnosticsHighlighter: DiagnosticsHighlighter = new DiagnosticsHighlighter(editor, viewportScheduler)
+  private var selectionGeneration = 0
+  @volatile private var cachedDescriptors: (DescriptorsKey, Array[ProblemDescriptor]) = _
+  private val codeActionsCache: mutable.Map[(Int, Int), Iterable[jsonrpc.messages.Either[Command, CodeAction]]] = mutable.HashMap()
+  private var codeActionsVersion = -1
   private val syncKind = serverOptions.syncKind
 
   private val completionTriggers =
@@ -163,9 +179,8 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     else
       Set[String]()
 
-  private val semanticHighlightingScopes: IndexedSeq[Seq[String]] =
-    if (serverOptions.semanticHighlightingOptions != null && serverOptions.semanticHighlightingOptions.getScopes != null)
-      serverOptions.semanticHighlightingOptions.getScopes.asScala.toList.map(l => l.asScala.toList).toIndexedSeq else null
+  private val semanticHighlightingStore: SemanticHighlightingStore =
+    if (wrapper.getSemanticScopesResolver != null) new SemanticHighlightingStore(editor, wrapper.getSemanticScopesResolver) else null
 
   private val project: Project = editor.getProject
   @volatile var needSave = false
@@ -173,17 +188,19 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
   private var prepareDocThread = new Timer("PrepareDocThread", true)
   private var showDocTask: TimerTask = _
   private var prepareDocTask: TimerTask = _
-  private var version: Int = 0
-  private var isOpen: Boolean = false
   private var mouseInEditor: Boolean = true
   private var currentHint: Hint = _
   private var currentDoc: String = _
-  private var holdDCE: Boolean = false
-  private val DCEs: ArrayBuffer[DocumentEvent] = ArrayBuffer()
+  private val pendingRequests = new PendingRequests(wrapper)
+  private val changesPipeline = new DocumentChangesPipeline(editor, identifier, wrapper.serverDefinition.id, requestManager, syncKind, wrapper.getSyncStatistics)
+  private val semanticTokensSync: SemanticTokensSync = {
+    val provider = LSPServerCapabilities.getSemanticTokensProvider(wrapper.getServerCapabilities)
+    if (provider != null && semanticHighlightingStore != null && (provider.isFullSupported || provider.isRangeSupported))
+      new SemanticTokensSync(editor, identifier, wrapper, requestManager, changesPipeline, semanticHighlightingStore, provider) else null
+  }
 
   uriToManager.put(FileUtils.editorToURIString(editor), this)
   editorToManager.put(editor, this)
-  changesParams.getTextDocument.setUri(identifier.getUri)
 
   /**
     * Calls onTypeFormatting or signatureHelp if the character typed was a trigger character
@@ -205,80 +222,114 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     */
   def signatureHelp(): Unit = {
     val lPos = editor.getCaretModel.getCurrentCaret.getLogicalPosition
+    val offset = editor.getCaretModel.getCurrentCaret.getOffset
     val point = editor.logicalPositionToXY(lPos)
     val params = new TextDocumentPositionParams(identifier, DocumentUtils.logicalToLSPPos(lPos, editor))
     pool(() => {
       if (!editor.isDisposed) {
-        val future = requestManager.signatureHelp(params)
-        if (future != null) {
-          try {
-            val signature = future.get(SIGNATURE_TIMEOUT, TimeUnit.MILLISECONDS)
-            wrapper.notifySuccess(Timeouts.SIGNATURE)
-            if (signature != null) {
-              val signatures = signature.getSignatures
-              if (signatures != null && !signatures.isEmpty) {
-                val scalaSignatures = signatures.asScala
-                val activeSignatureIndex = signature.getActiveSignature
-                val activeParameterIndex = signature.getActiveParameter
-                val activeParameterLabel = scalaSignatures(activeSignatureIndex).getParameters.get(activeParameterIndex).getLabel
-                val activeParameter = if (activeParameterLabel.isLeft) activeParameterLabel.getLeft else
-                  scalaSignatures(activeSignatureIndex).getLabel.substring(activeParameterLabel.getRight.getFirst, activeParameterLabel.getRight.getSecond)
-                val builder = StringBuilder.newBuilder
-                builder.append("<html>")
-                scalaSignatures.take(activeSignatureIndex).foreach(sig => builder.append(sig.getLabel).append("<br>"))
-                builder.append("<b>").append(scalaSignatures(activeSignatureIndex).getLabel
-                  .replace(activeParameter, "<font color=\"yellow\">" + activeParameter + "</font>")).append("</b>")
-                scalaSignatures.drop(activeSignatureIndex + 1).foreach(sig => builder.append("<br>").append(sig.getLabel))
-                builder.append("</html>")
-                val flags = HintManager.HIDE_BY_ESCAPE | HintManager.HIDE_BY_OTHER_HINT | HintManager.HIDE_IF_OUT_OF_EDITOR
-                invokeLater(() => currentHint = createAndShowEditorHint(editor, builder.toString(), point, HintManager.UNDER, flags = flags))
-              }
+        flushChanges()
+        whenResponse(Timeouts.SIGNATURE, requestManager.signatureHelp(params), track = true, at = offset)(signature => {
+          if (signature != null) {
+            val signatures = signature.getSignatures
+            if (signatures != null && !signatures.isEmpty) {
+              val scalaSignatures = signatures.asScala
+              val activeSignatureIndex = signature.getActiveSignature
+              val activeParameterIndex = signature.getActiveParameter
+              val activeParameterLabel = scalaSignatures(activeSignatureIndex).getParameters.get(activeParameterIndex).getLabel
+              val activeParameter = if (activeParameterLabel.isLeft) activeParameterLabel.getLeft else
+                scalaSignatures(activeSignatureIndex).getLabel.substring(activeParameterLabel.getRight.getFirst, activeParameterLabel.getRight.getSecond)
+              val builder = StringBuilder.newBuilder
+              builder.append("<html>")
+              scalaSignatures.take(activeSignatureIndex).foreach(sig => builder.append(sig.getLabel).append("<br>"))
+              builder.append("<b>").append(scalaSignatures(activeSignatureIndex).getLabel
+                .replace(activeParameter, "<font color=\"yellow\">" + activeParameter + "</font>")).append("</b>")
+              scalaSignatures.drop(activeSignatureIndex + 1).foreach(sig => builder.append("<br>").append(sig.getLabel))
+              builder.append("</html>")
+              val flags = HintManager.HIDE_BY_ESCAPE | HintManager.HIDE_BY_OTHER_HINT | HintManager.HIDE_IF_OUT_OF_EDITOR
+              invokeLater(() => currentHint = createAndShowEditorHint(editor, builder.toString(), point, HintManager.UNDER, flags = flags))
             }
-          } catch {
-            case e: TimeoutException =>
-              LOG.warn(e)
-              wrapper.notifyFailure(Timeouts.SIGNATURE)
-            case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-              LOG.warn(e)
-              wrapper.crashed(e.asInstanceOf[Exception])
           }
-        }
+        })
       }
     })
   }
 
   /**
-    * Retrieves the commands needed to apply a CodeAction
+    * Requests the CodeActions of a range without blocking
+    * The responses are cached for the current version of the document
     *
-    * @param element The element which needs the CodeAction
-    * @return The list of commands, or null if none are given / the request times out
+    * @param range The range
+    * @return A future completed with the CodeActions, or with null if none are given / the request fails
     */
-  def codeAction(element: LSPPsiElement): Iterable[jsonrpc.messages.Either[Command, CodeAction]] = {
-    val params = new CodeActionParams()
-    params.setTextDocument(identifier)
-    val range = new Range(DocumentUtils.offsetToLSPPos(editor, element.start), DocumentUtils.offsetToLSPPos(editor, element.end))
-    params.setRange(range)
-    val context = new CodeActionContext(diagnosticsHighlights.map(_.diagnostic).toList.asJava)
-    params.setContext(context)
-    val future = requestManager.codeAction(params)
-    if (future != null) {
-      try {
-        val res = future.get(CODEACTION_TIMEOUT, TimeUnit.MILLISECONDS).asScala
-        wrapper.notifySuccess(Timeouts.CODEACTION)
-        res
-      } catch {
-        case e: TimeoutException =>
-          LOG.warn(e)
-          wrapper.notifyFailure(Timeouts.CODEACTION)
-          null
-        case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-          LOG.warn(e)
-          wrapper.crashed(e.asInstanceOf[Exception])
-          null
+  def codeActions(range: TextRange): CompletableFuture[Iterable[jsonrpc.messages.Either[Command, CodeAction]]] = {
+    flushChanges()
+    val version = changesPipeline.getVersion
+    val key = (range.getStartOffset, range.getEndOffset)
+    val cached = codeActionsCache.synchronized {
+      if (codeActionsVersion != version) {
+        codeActionsCache.clear()
+        codeActionsVersion = version
       }
+      codeActionsCache.get(key)
+    }
+    cached match {
+      case Some(actions) => CompletableFuture.completedFuture(actions)
+      case None =>
+        val params = new CodeActionParams()
+        params.setTextDocument(identifier)
+        params.setRange(new Range(DocumentUtils.offsetToLSPPos(editor, range.getStartOffset), DocumentUtils.offsetToLSPPos(editor, range.getEndOffset)))
+        val diagnostics = diagnosticsHighlighter.getDiagnostics.filter(h => h.rangeHighlighter.isValid &&
+          h.rangeHighlighter.getStartOffset <= range.getEndOffset && range.getStartOffset <= h.rangeHighlighter.getEndOffset)
+        params.setContext(new CodeActionContext(diagnostics.map(_.diagnostic).toList.asJava))
+        val result = new CompletableFuture[Iterable[jsonrpc.messages.Either[Command, CodeAction]]]()
+        whenResponse(Timeouts.CODEACTION, requestManager.codeAction(params))(res => {
+          val actions = if (res != null) res.asScala.toList else Nil
+          codeActionsCache.synchronized {
+            if (codeActionsVersion == version) codeActionsCache.put(key, actions)
+          }
+          result.complete(actions)
+        }).whenComplete((_: Void, _: Throwable) => result.complete(null))
+        result
+    }
+  }
+
+  /**
+    * Requests the CodeActions of a range and shows them in a popup, applying the one chosen by the user
+    *
+    * @param range The range
+    */
+  def showCodeActions(range: TextRange): Unit = {
+    pool(() => {
+      if (!editor.isDisposed) {
+        codeActions(range).thenAccept((actions: Iterable[jsonrpc.messages.Either[Command, CodeAction]]) => invokeLater(() => {
+          if (!editor.isDisposed) {
+            val valid = if (actions != null) actions.filter(e => e != null && (e.isLeft || e.isRight)) else Nil
+            if (valid.isEmpty) {
+              HintManager.getInstance().showInformationHint(editor, "No code actions available")
+            } else {
+              val group = new DefaultActionGroup(valid.map(e => {
+                val title = if (e.isLeft) e.getLeft.getTitle else e.getRight.getTitle
+                new AnAction(title) {
+                  override def actionPerformed(event: AnActionEvent): Unit = applyCodeAction(e)
+                }: AnAction
+              }).toSeq: _*)
+              val context = DataManager.getInstance().getDataContext(editor.getContentComponent)
+              JBPopupFactory.getInstance().createActionGroupPopup("Code actions", group, context, JBPopupFactory.ActionSelectionAid.SPEEDSEARCH, true)
+                .showInBestPositionFor(editor)
+            }
+          }
+        }))
+      }
+    })
+  }
 
+  private def applyCodeAction(action: jsonrpc.messages.Either[Command, CodeAction]): Unit = {
+    if (action.isLeft) {
+      executeCommands(Seq(action.getLeft))
     } else {
-      null
+      val codeAction = action.getRight
+      if (codeAction.getEdit != null) WorkspaceEditHandler.applyEdit(codeAction.getEdit, codeAction.getTitle)
+      if (codeAction.getCommand != null) executeCommands(Seq(codeAction.getCommand))
     }
   }
 
@@ -289,10 +340,11 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     * @return The suggestions
     */
   def completion(pos: Position): Iterable[_ <: LookupElement] = {
-    val request = requestManager.completion(new CompletionParams(identifier, pos))
+    flushChanges()
+    val request = pendingRequests.track(Timeouts.COMPLETION, requestManager.completion(new CompletionParams(identifier, pos)))
     if (request != null) {
       try {
-        val res = request.get(COMPLETION_TIMEOUT, TimeUnit.MILLISECONDS)
+        val res = request.get(wrapper.getTimeout(Timeouts.COMPLETION), TimeUnit.MILLISECONDS)
         wrapper.notifySuccess(Timeouts.COMPLETION)
         if (res != null) {
           import scala.collection.JavaConverters._
@@ -458,13 +510,15 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         } else Iterable()
       }
       catch {
+        case _: CancellationException =>
+          Iterable.empty
         case e: TimeoutException =>
           LOG.warn(e)
           wrapper.notifyFailure(Timeouts.COMPLETION)
+          pendingRequests.cancel(Timeouts.COMPLETION, request)
           Iterable.empty
         case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-          LOG.warn(e)
-          wrapper.crashed(e.asInstanceOf[Exception])
+          requestFailed(Timeouts.COMPLETION, e)
           Iterable.empty
       }
     } else Iterable.empty
@@ -478,27 +532,15 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
   def executeCommands(commands: Iterable[Command]): Unit = {
     pool(() => {
       if (!editor.isDisposed) {
-        commands.map(c => {
-          requestManager.executeCommand(new ExecuteCommandParams(c.getCommand, c.getArguments))
-        }).foreach(f => {
-          if (f != null) {
-            try {
-              val ret = f.get(EXECUTE_COMMAND_TIMEOUT, TimeUnit.MILLISECONDS)
-              wrapper.notifySuccess(Timeouts.EXECUTE_COMMAND)
-              ret match {
-                case e: WorkspaceEdit => WorkspaceEditHandler.applyEdit(e, name = "Execute command")
-                case _ =>
-                  LOG.warn("ExecuteCommand returned " + ret)
-              }
-            } catch {
-              case e: TimeoutException =>
-                LOG.warn(e)
-                wrapper.notifyFailure(Timeouts.EXECUTE_COMMAND)
-              case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-                LOG.warn(e)
-                wrapper.crashed(e.asInstanceOf[Exception])
+        flushChanges()
+        commands.foreach(c => {
+          whenResponse(Timeouts.EXECUTE_COMMAND, requestManager.executeCommand(new ExecuteCommandParams(c.getCommand, c.getArguments)))(ret => {
+            ret match {
+              case e: WorkspaceEdit => WorkspaceEditHandler.applyEdit(e, name = "Execute command")
+              case _ =>
+                LOG.warn("ExecuteCommand returned " + ret)
             }
-          }
+          })
         })
       }
     })
@@ -510,90 +552,14 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     * @param diagnostics The diagnostics to apply from the server
     */
   def diagnostics(diagnostics: Iterable[Diagnostic]): Unit = {
-    def rangeToOffsets(range: Range): TextRange = {
-      val (start, end) = (DocumentUtils.LSPPosToOffset(editor, range.getStart), DocumentUtils.LSPPosToOffset(editor, range.getEnd))
-      if (start == end) {
-        DocumentUtils.expandOffsetToToken(editor, start)
-      } else {
-        new TextRange(start, end)
-      }
-    }
-
-    invokeLater(() => {
-      if (!editor.isDisposed) {
-        diagnosticsHighlights.synchronized {
-          diagnosticsHighlights.foreach(highlight => editor.getMarkupModel.removeHighlighter(highlight.rangeHighlighter))
-          diagnosticsHighlights.clear()
-        }
-        for (diagnostic <- diagnostics) {
-          val range = diagnostic.getRange
-          val severity = diagnostic.getSeverity
-
-          val markupModel = editor.getMarkupModel
-          val colorScheme = editor.getColorsScheme
-
-          val (effectType, effectColor, layer) = severity match {
-            case null => null
-            case DiagnosticSeverity.Error => (EffectType.WAVE_UNDERSCORE, java.awt.Color.RED, HighlighterLayer.ERROR)
-            case DiagnosticSeverity.Warning => (EffectType.WAVE_UNDERSCORE, java.awt.Color.YELLOW, HighlighterLayer.WARNING)
-            case DiagnosticSeverity.Information => (EffectType.WAVE_UNDERSCORE, java.awt.Color.GRAY, HighlighterLayer.WARNING)
-            case DiagnosticSeverity.Hint => (EffectType.BOLD_DOTTED_LINE, java.awt.Color.GRAY, HighlighterLayer.WARNING)
-          }
-
-          val textRange = rangeToOffsets(range)
-          val start = textRange.getStartOffset
-          val end = textRange.getEndOffset
-          diagnosticsHighlights.synchronized {
-            diagnosticsHighlights
-              .add(DiagnosticRangeHighlighter(markupModel.addRangeHighlighter(start, end, layer,
-                new TextAttributes(colorScheme.getDefaultForeground, colorScheme.getDefaultBackground, effectColor, effectType, Font.PLAIN), HighlighterTargetArea.EXACT_RANGE),
-                diagnostic))
-          }
-        }
-      }
-    })
+    diagnosticsHighlighter.update(diagnostics)
   }
 
-  private def releaseDCE(): Unit = {
-    DCEs.synchronized {
-      if (!editor.isDisposed) {
-        changesParams.synchronized {
-          val changeEvent = new TextDocumentContentChangeEvent()
-          syncKind match {
-            case TextDocumentSyncKind.None =>
-            case TextDocumentSyncKind.Full =>
-              changeEvent.setText(editor.getDocument.getText)
-              changesParams.getContentChanges.add(changeEvent)
-            case TextDocumentSyncKind.Incremental =>
-              DCEs.filter(e => e.getDocument == editor.getDocument).map(event => {
-                val newText = event.getNewFragment
-                val offset = event.getOffset
-                val newTextLength = event.getNewLength
-                val lspPosition: Position = DocumentUtils.offsetToLSPPos(editor, offset)
-                val startLine = lspPosition.getLine
-                val startColumn = lspPosition.getCharacter
-                val oldText = event.getOldFragment
-
-                //if text was deleted/replaced, calculate the end position of inserted/deleted text
-                val (endLine, endColumn) = if (oldText.length() > 0) {
-                  val line = startLine + StringUtil.countNewLines(oldText)
-                  val oldLines = oldText.toString.split('\n')
-                  val oldTextLength = if (oldLines.isEmpty) 0 else oldLines.last.length
-                  val column = if (oldLines.length == 1) startColumn + oldTextLength else oldTextLength
-                  (line, column)
-                } else (startLine, startColumn) //if insert or no text change, the end position is the same
-                val range = new Range(new Position(startLine, startColumn), new Position(endLine, endColumn))
-                changeEvent.setRange(range)
-                changeEvent.setRangeLength(newTextLength)
-                changeEvent.setText(newText.toString)
-                changeEvent
-              }).foreach(changesParams.getContentChanges.add(_))
-          }
-        }
-        requestManager.didChange(changesParams)
-        changesParams.getContentChanges.clear()
-      }
-    }
+  /**
+    * Removes the diagnostics highlighters kept when the document was closed
+    */
+  def clearDiagnostics(): Unit = {
+    diagnosticsHighlighter.clear()
   }
 
   private def cancelDoc(): Unit = {
@@ -615,66 +581,39 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     * @param event The DocumentEvent
     */
   def documentChanged(event: DocumentEvent): Unit = {
-    if (holdDCE) {
-      DCEs.synchronized {
-        DCEs.append(event)
-      }
-    } else {
-      if (!editor.isDisposed) {
-        if (event.getDocument == editor.getDocument) {
-          cancelDoc()
-          changesParams.synchronized {
-            changesParams.getTextDocument.setVersion({
-              version += 1
-              version
-            })
-            val changeEvent = new TextDocumentContentChangeEvent()
-            syncKind match {
-              case TextDocumentSyncKind.None =>
-              case TextDocumentSyncKind.Incremental =>
-                val newText = event.getNewFragment
-                val offset = event.getOffset
-                val newTextLength = event.getNewLength
-                val lspPosition: Position = DocumentUtils.offsetToLSPPos(editor, offset)
-                val startLine = lspPosition.getLine
-                val startColumn = lspPosition.getCharacter
-                val oldText = event.getOldFragment.toString
-                //if text was deleted/replaced, calculate the end position of inserted/deleted text
-                val (endLine, endColumn) = if (oldText.length() > 0) {
-                  val line = startLine + StringUtil.countNewLines(oldText)
-                  val oldLines = oldText.split('\n')
-                  val oldTextLength = if (oldLines.isEmpty) 0 else oldLines.last.length
-                  val column = if (oldText.endsWith("\n")) 0 else if (oldLines.length == 1) startColumn + oldTextLength else oldTextLength
-                  (line, column)
-                } else (startLine, startColumn) //if insert or no text change, the end position is the same
-                val range = new Range(new Position(startLine, startColumn), new Position(endLine, endColumn))
-                changeEvent.setRange(range)
-                changeEvent.setRangeLength(DocumentUtils.LSPPosToOffset(editor, range.getEnd) - DocumentUtils.LSPPosToOffset(editor, range.getStart))
-                changeEvent.setText(newText.toString)
-                changesParams.getContentChanges.add(changeEvent)
-
-              case TextDocumentSyncKind.Full =>
-                changeEvent.setText(editor.getDocument.getText)
-                changesParams.getContentChanges.add(changeEvent)
-            }
-            requestManager.didChange(changesParams)
-            changesParams.getContentChanges.clear()
-          }
-        } else {
-          LOG.error("Wrong document for the EditorEventManager")
-        }
+    if (!editor.isDisposed) {
+      if (event.getDocument == editor.getDocument) {
+        cancelDoc()
+        pendingRequests.cancel(PendingRequests.CANCELLED_ON_CHANGE)
+        wrapper.getResponseCache.documentChanged(identifier.getUri)
+        if (semanticHighlightingStore != null) semanticHighlightingStore.documentChanged(event)
+        changesPipeline.documentChanged(event)
+        if (semanticTokensSync != null) semanticTokensSync.documentChanged()
+        if (wrapper.getPullDiagnostics != null) wrapper.getPullDiagnostics.documentChanged(identifier.getUri)
+      } else {
+        LOG.error("Wrong document for the EditorEventManager")
       }
     }
   }
 
+  /**
+    * Immediately sends the pending document changes to the server
+    */
+  def flushChanges(): Unit = {
+    changesPipeline.flush()
+  }
+
   /**
     * Notifies the server that the corresponding document has been closed
+    *
+    * @param keepDiagnostics Whether the diagnostics highlighters are kept until clearDiagnostics is called, when the server hibernates
     */
-  def documentClosed(): Unit = {
+  def documentClosed(keepDiagnostics: Boolean = false): Unit = {
+    pendingRequests.cancelAll()
+    if (!keepDiagnostics) diagnosticsHighlighter.clear()
     pool(() => {
-      if (isOpen) {
-        requestManager.didClose(new DidCloseTextDocumentParams(identifier))
-        isOpen = false
+      if (changesPipeline.close()) {
+        if (wrapper.getPullDiagnostics != null) wrapper.getPullDiagnostics.documentClosed(identifier.getUri)
         editorToManager.remove(editor)
         uriToManager.remove(FileUtils.editorToURIString(editor))
       } else {
@@ -683,19 +622,30 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     })
   }
 
-  def documentOpened(): Unit = {
-    pool(() => {
+  /**
+    * Notifies the server that the document has been opened
+    *
+    * @param version The version of the document, the one it had before the server restarted if it is replayed
+    * @return The future of the notification
+    */
+  def documentOpened(version: Int = 0): Future[_] = {
+    callablePool(() => {
       if (!editor.isDisposed) {
-        if (isOpen) {
+        if (!changesPipeline.open(version)) {
           LOG.warn("Editor " + editor + " was already open")
         } else {
-          requestManager.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(identifier.getUri, wrapper.serverDefinition.id, version, editor.getDocument.getText)))
-          isOpen = true
+          if (semanticTokensSync != null) semanticTokensSync.documentOpened()
+          if (wrapper.getPullDiagnostics != null) wrapper.getPullDiagnostics.documentOpened(identifier.getUri)
         }
       }
     })
   }
 
+  /**
+    * @return The version of the document last sent to the server
+    */
+  def getVersion: Int = changesPipeline.getVersion
+
   /**
     * Notifies the server that the corresponding document has been saved
     */
@@ -703,7 +653,9 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     pool(() => {
       if (!editor.isDisposed) {
         val params: DidSaveTextDocumentParams = new DidSaveTextDocumentParams(identifier, editor.getDocument.getText)
+        flushChanges()
         requestManager.didSave(params)
+        if (wrapper.getPullDiagnostics != null) wrapper.getPullDiagnostics.documentSaved()
       }
     })
   }
@@ -714,6 +666,7 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
   //TODO Manual
   def willSave(): Unit = {
     if (wrapper.isWillSaveWaitUntil && !needSave) willSaveWaitUntil() else pool(() => {
+      flushChanges()
       if (!editor.isDisposed) requestManager.willSave(new WillSaveTextDocumentParams(identifier, TextDocumentSaveReason.Manual))
     })
   }
@@ -727,29 +680,15 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
       pool(() => {
         if (!editor.isDisposed) {
           val params = new WillSaveTextDocumentParams(identifier, TextDocumentSaveReason.Manual)
-          val future = requestManager.willSaveWaitUntil(params)
-          if (future != null) {
-            try {
-              val edits = future.get(WILLSAVE_TIMEOUT, TimeUnit.MILLISECONDS)
-              wrapper.notifySuccess(Timeouts.WILLSAVE)
-              if (edits != null) {
-                invokeLater(() => applyEdit(edits = edits.asScala, name = "WaitUntil edits"))
-              }
-            } catch {
-              case e: TimeoutException =>
-                LOG.warn(e)
-                wrapper.notifyFailure(Timeouts.WILLSAVE)
-              case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-                LOG.warn(e)
-                wrapper.crashed(e.asInstanceOf[Exception])
-            } finally {
-              needSave = true
-              saveDocument()
+          flushChanges()
+          whenResponse(Timeouts.WILLSAVE, requestManager.willSaveWaitUntil(params), onEDT = true)(edits => {
+            if (edits != null) {
+              applyEdit(edits = edits.asScala, name = "WaitUntil edits")
             }
-          } else {
+          }).whenComplete((_: Void, _: Throwable) => {
             needSave = true
             saveDocument()
-          }
+          })
         }
       })
     } else {
@@ -772,16 +711,17 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     params.setContext(context)
     params.setPosition(DocumentUtils.offsetToLSPPos(editor, offset))
     params.setTextDocument(identifier)
+    flushChanges()
     val future = requestManager.references(params)
     if (future != null) {
       try {
-        val references = future.get(REFERENCES_TIMEOUT, TimeUnit.MILLISECONDS)
+        val references = future.get(wrapper.getTimeout(Timeouts.REFERENCES), TimeUnit.MILLISECONDS)
         wrapper.notifySuccess(Timeouts.REFERENCES)
         if (references != null) {
-          references.asScala.collect {
-            case l: Location if FileUtils.sanitizeURI(l.getUri) == identifier.getUri =>
-              (DocumentUtils.LSPPosToOffset(editor, l.getRange.getStart), DocumentUtils.LSPPosToOffset(editor, l.getRange.getEnd))
+          val ranges = references.asScala.collect {
+            case l: Location if FileUtils.sanitizeURI(l.getUri) == identifier.getUri => l.getRange
           }
+          DocumentUtils.LSPRangesToTextRanges(editor, ranges).map(r => (r.getStartOffset, r.getEndOffset))
         } else {
           null
         }
@@ -789,10 +729,10 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         case e: TimeoutException =>
           LOG.warn(e)
           wrapper.notifyFailure(Timeouts.REFERENCES)
+          pendingRequests.cancel(Timeouts.REFERENCES, future)
           null
         case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-          LOG.warn(e)
-          wrapper.crashed(e.asInstanceOf[Exception])
+          requestFailed(Timeouts.REFERENCES, e)
           null
       }
     }
@@ -805,38 +745,57 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     * @return The current diagnostics highlights
     */
   def getDiagnostics: mutable.Set[DiagnosticRangeHighlighter] = {
-    diagnosticsHighlights.clone()
+    diagnosticsHighlighter.getDiagnostics
+  }
+
+  /**
+    * Returns the problem descriptors of the current diagnostics, built only once per diagnostics generation and document version
+    *
+    * @param file       The file being inspected
+    * @param isOnTheFly Whether the inspection runs on the fly
+    * @param build      Builds the descriptors from the current diagnostics
+    * @return The descriptors
+    */
+  def getProblemDescriptors(file: PsiFile, isOnTheFly: Boolean)(build: => Array[ProblemDescriptor]): Array[ProblemDescriptor] = {
+    val key = DescriptorsKey(diagnosticsHighlighter.getModificationCount, editor.getDocument.getModificationStamp, file, isOnTheFly)
+    val cached = cachedDescriptors
+    if (cached != null && cached._1 == key) cached._2 else {
+      val descriptors = build
+      cachedDescriptors = (key, descriptors)
+      descriptors
+    }
   }
 
   def getElementAtOffset(offset: Int): LSPPsiElement = {
-    computableReadAction(() => {
-      if (!editor.isDisposed) {
-        val params = new TextDocumentPositionParams(identifier, DocumentUtils.offsetToLSPPos(editor, offset))
-        val future = requestManager.documentHighlight(params)
-        if (future != null) {
-          try {
-            val res = future.get(DOC_HIGHLIGHT_TIMEOUT, TimeUnit.MILLISECONDS)
-            wrapper.notifySuccess(Timeouts.DOC_HIGHLIGHT)
-            if (res != null && !editor.isDisposed)
-              res.asScala.map(dh => new TextRange(DocumentUtils.LSPPosToOffset(editor, dh.getRange.getStart), DocumentUtils.LSPPosToOffset(editor, dh.getRange.getEnd)))
+    if (!editor.isDisposed) {
+      //The response is waited for outside of the read action, so that the write actions aren't held off while the server works
+      val params = computableReadAction(() => new TextDocumentPositionParams(identifier, DocumentUtils.offsetToLSPPos(editor, offset)))
+      flushChanges()
+      val future = requestManager.documentHighlight(params)
+      if (future != null) {
+        try {
+          val res = future.get(wrapper.getTimeout(Timeouts.DOC_HIGHLIGHT), TimeUnit.MILLISECONDS)
+          wrapper.notifySuccess(Timeouts.DOC_HIGHLIGHT)
+          if (res != null) computableReadAction(() => {
+            if (!editor.isDisposed)
+              DocumentUtils.LSPRangesToTextRanges(editor, res.asScala.map(dh => dh.getRange))
                 .find(range => range.getStartOffset <= offset && offset <= range.getEndOffset)
                 .map(range => LSPPsiElement(editor.getDocument.getText(range), project, range.getStartOffset, range.getEndOffset, PsiDocumentManager.getInstance(project).getPsiFile(editor.getDocument), editor))
                 .orNull
             else null
-          } catch {
-            case e: TimeoutException =>
-              wrapper.notifyFailure(Timeouts.DOC_HIGHLIGHT)
-              LOG.warn(e)
-              null
-            case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-              LOG.warn(e)
-              wrapper.crashed(e.asInstanceOf[Exception])
-              null
-          }
-        } else null
-      }
-      else null
-    })
+          }) else null
+        } catch {
+          case e: TimeoutException =>
+            wrapper.notifyFailure(Timeouts.DOC_HIGHLIGHT)
+            pendingRequests.cancel(Timeouts.DOC_HIGHLIGHT, future)
+            LOG.warn(e)
+            null
+          case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
+            requestFailed(Timeouts.DOC_HIGHLIGHT, e)
+            null
+        }
+      } else null
+    } else null
   }
 
   /**
@@ -907,25 +866,12 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
           DocumentUtils.logicalToLSPPos(editor.getCaretModel.getCurrentCaret.getLogicalPosition, editor)
         })
         params.setPosition(serverPos)
-        val future = requestManager.references(params)
-        if (future != null) {
-          try {
-            val references = future.get(REFERENCES_TIMEOUT, TimeUnit.MILLISECONDS)
-            wrapper.notifySuccess(Timeouts.REFERENCES)
-            if (references != null) {
-              invokeLater(() => {
-                if (!editor.isDisposed) showReferences(references.asScala)
-              })
-            }
-          } catch {
-            case e: TimeoutException =>
-              LOG.warn(e)
-              wrapper.notifyFailure(Timeouts.REFERENCES)
-            case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-              LOG.warn(e)
-              wrapper.crashed(e.asInstanceOf[Exception])
+        flushChanges()
+        whenResponse(Timeouts.REFERENCES, requestManager.references(params), onEDT = true)(references => {
+          if (references != null) {
+            showReferences(references.asScala)
           }
-        }
+        })
       }
     })
   }
@@ -1071,59 +1017,48 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     }
   }
 
-  private def createRange(startOffset: Int, endOffset: Int, getDefinition: Boolean = false, visible: Boolean = true): Unit = {
-    val loc = if (getDefinition) requestDefinition(offsetToLSPPos(editor, (endOffset + startOffset) / 2)) else null
-    val isDefinition = loc != null && DocumentUtils.LSPPosToOffset(editor, loc.getTargetRange.getStart) == startOffset
-    invokeLater(() => {
-      if (docRange != null) docRange.dispose()
-      if (!editor.isDisposed) {
-        val range = if (!isDefinition && visible) editor.getMarkupModel.addRangeHighlighter(startOffset, endOffset, HighlighterLayer.HYPERLINK, editor.getColorsScheme.getAttributes(EditorColors.REFERENCE_HYPERLINK_COLOR), HighlighterTargetArea.EXACT_RANGE) else null
-        docRange = RangeMarker(startOffset, endOffset, editor, loc, range, isDefinition)
-      }
+  /**
+    * Creates the range under the mouse, requesting its definition if needed
+    *
+    * @return A future completed once the creation of the range is scheduled on the EDT
+    */
+  private def createRange(startOffset: Int, endOffset: Int, getDefinition: Boolean = false, visible: Boolean = true): CompletableFuture[Void] = {
+    val definition = if (getDefinition) requestDefinition(offsetToLSPPos(editor, (endOffset + startOffset) / 2)) else CompletableFuture.completedFuture[LocationLink](null)
+    definition.thenAccept((loc: LocationLink) => {
+      val isDefinition = loc != null && DocumentUtils.LSPPosToOffset(editor, loc.getTargetRange.getStart) == startOffset
+      invokeLater(() => {
+        if (docRange != null) docRange.dispose()
+        if (!editor.isDisposed) {
+          val range = if (!isDefinition && visible) editor.getMarkupModel.addRangeHighlighter(startOffset, endOffset, HighlighterLayer.HYPERLINK, editor.getColorsScheme.getAttributes(EditorColors.REFERENCE_HYPERLINK_COLOR), HighlighterTargetArea.EXACT_RANGE) else null
+          docRange = RangeMarker(startOffset, endOffset, editor, loc, range, isDefinition)
+        }
+      })
     })
   }
 
   /**
-    * Returns the position of the definition given a position in the editor
+    * Requests the position of the definition given a position in the editor
     *
     * @param position The position
-    * @return The location of the definition
+    * @return A future completed with the location of the definition, or null if there is none / the request fails
     */
-  private def requestDefinition(position: Position): LocationLink = {
+  private def requestDefinition(position: Position): CompletableFuture[LocationLink] = {
     val params = new TextDocumentPositionParams(identifier, position)
-    val request = requestManager.definition(params)
-    if (request != null) {
-      try {
-        val definition = request.get(DEFINITION_TIMEOUT, TimeUnit.MILLISECONDS)
-        wrapper.notifySuccess(Timeouts.DEFINITION)
-        if (definition != null) {
-          if (definition.isLeft) {
-            val left = definition.getLeft
-            if (left != null && !left.isEmpty) {
-              val loc = left.get(0)
-              if (loc != null) loc else null
-            } else null
-          } else {
-            val right = definition.getRight
-            if (right != null && !right.isEmpty) {
-              val locLink = right.get(0)
-              if (locLink != null) locLink else null
-            } else null
-          }
-        } else null
-      } catch {
-        case e: TimeoutException =>
-          LOG.warn(e)
-          wrapper.notifyFailure(Timeouts.DEFINITION)
-          null
-        case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-          LOG.warn(e)
-          wrapper.crashed(e.asInstanceOf[Exception])
-          null
-      }
-    } else {
-      null
-    }
+    flushChanges()
+    responseOf(Timeouts.DEFINITION, requestManager.definition(params)).thenApply[LocationLink]((definition: jsonrpc.messages.Either[java.util.List[_ <: Location], java.util.List[_ <: LocationLink]]) => {
+      if (definition != null) {
+        if (definition.isLeft) {
+          val left = definition.getLeft
+          if (left != null && !left.isEmpty) {
+            val loc = left.get(0)
+            if (loc != null) loc else null
+          } else null
+        } else {
+          val right = definition.getRight
+          if (right != null && !right.isEmpty) right.get(0) else null
+        }
+      } else null
+    })
   }
 
   /**
@@ -1168,27 +1103,25 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
       prepareDocThread.purge()
       prepareDocTask = new TimerTask {
         override def run(): Unit = {
+          //The hover, highlight and definition requests are chained without blocking the timer thread
           val offset = LSPPosToOffset(editor, serverPos)
-          val hover = requestHover(editor, offset)
-          if (hover != null) {
-            val doc = HoverHandler.getHoverString(hover)
-            currentDoc = doc
-            val range = if (hover.getRange == null) getRangeForOffset(offset) else LSPRangeToTextRange(editor, hover.getRange)
-            if (range != null) {
-              createRange(range.getStartOffset, range.getEndOffset, getDefinition = getDefinition, visible = visible)
-              invokeLater(() =>
-                scheduleShowDoc(if (docRange.definitionContainsOffset(offset)) "Show usages of " + editor.getDocument.getText(new TextRange(docRange.startOffset, docRange.endOffset)) else doc, point))
-            }
-          } else {
-            val range = getRangeForOffset(offset)
-            if (range != null) {
-              createRange(range.getStartOffset, range.getEndOffset, getDefinition, visible)
-              invokeLater(() =>
-                if (docRange.definitionContainsOffset(offset)) {
-                  scheduleShowDoc("Show usages of " + editor.getDocument.getText(new TextRange(docRange.startOffset, docRange.endOffset)), point)
-                })
-            }
-          }
+          flushChanges()
+          responseOf(Timeouts.HOVER, requestManager.hover(new TextDocumentPositionParams(identifier, serverPos))).thenAccept((hover: Hover) => {
+            val doc = if (hover != null) HoverHandler.getHoverString(hover) else null
+            if (doc != null) currentDoc = doc
+            val range =
+              if (hover != null && hover.getRange != null) CompletableFuture.completedFuture(LSPRangeToTextRange(editor, hover.getRange))
+              else getRangeForOffset(offset)
+            range.thenAccept((range: TextRange) => {
+              if (range != null) {
+                createRange(range.getStartOffset, range.getEndOffset, getDefinition = getDefinition, visible = visible).thenRun(() => invokeLater(() => {
+                  if (docRange != null && docRange.definitionContainsOffset(offset)) {
+                    scheduleShowDoc("Show usages of " + editor.getDocument.getText(new TextRange(docRange.startOffset, docRange.endOffset)), point)
+                  } else if (doc != null) scheduleShowDoc(doc, point)
+                }))
+              }
+            })
+          })
         }
       }
       prepareDocThread.schedule(prepareDocTask, PREPARE_DOC_THRES)
@@ -1201,10 +1134,11 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
 
   def canRename(offset: Int = editor.getCaretModel.getCurrentCaret.getOffset): Boolean = {
     if (serverOptions.renameOptions.getPrepareProvider) {
+      flushChanges()
+      val request = requestManager.prepareRename(new TextDocumentPositionParams(identifier, offsetToLSPPos(editor, offset)))
       try {
-        val request = requestManager.prepareRename(new TextDocumentPositionParams(identifier, offsetToLSPPos(editor, offset)))
         if (request != null) {
-          val result = request.get(PREPARE_RENAME_TIMEOUT, TimeUnit.MILLISECONDS)
+          val result = request.get(wrapper.getTimeout(Timeouts.PREPARE_RENAME), TimeUnit.MILLISECONDS)
           if (result != null) {
             if (result.isLeft) {
               val range = result.getLeft
@@ -1216,6 +1150,11 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
           } else true
         } else true
       } catch {
+        case e: TimeoutException =>
+          LOG.warn(e)
+          wrapper.notifyFailure(Timeouts.PREPARE_RENAME)
+          pendingRequests.cancel(Timeouts.PREPARE_RENAME, request)
+          true
         case e: Exception =>
           LOG.warn(e)
           true
@@ -1223,20 +1162,21 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     } else true
   }
 
-  private def getRangeForOffset(offset: Int): TextRange = {
-    try {
-      val request = requestManager.documentHighlight(new TextDocumentPositionParams(identifier, offsetToLSPPos(editor, offset)))
-      if (request != null) {
-        val result = request.get(DOC_HIGHLIGHT_TIMEOUT, TimeUnit.MILLISECONDS)
-        if (result != null) {
-          result.asScala.find(dh => LSPPosToOffset(editor, dh.getRange.getStart) <= offset && LSPPosToOffset(editor, dh.getRange.getEnd) >= offset).map(dh => LSPRangeToTextRange(editor, dh.getRange)).orNull
-        } else expandOffsetToToken(editor, offset)
-      } else expandOffsetToToken(editor, offset)
-    } catch {
-      case e: TimeoutException =>
-        wrapper.notifyFailure(Timeouts.DOC_HIGHLIGHT)
-        expandOffsetToToken(editor, offset)
-    }
+  /**
+    * Requests the range of the symbol at an offset
+    *
+    * @param offset The offset
+    * @return A future completed with the highlight containing the offset, or with the identifier at the offset if the server
+    *         doesn't answer (null if the highlights don't contain the offset)
+    */
+  private def getRangeForOffset(offset: Int): CompletableFuture[TextRange] = {
+    flushChanges()
+    val request = requestManager.documentHighlight(new TextDocumentPositionParams(identifier, offsetToLSPPos(editor, offset)))
+    responseOf(Timeouts.DOC_HIGHLIGHT, request).thenApply[TextRange]((result: java.util.List[_ <: DocumentHighlight]) => {
+      if (result != null) {
+        result.asScala.find(dh => LSPPosToOffset(editor, dh.getRange.getStart) <= offset && LSPPosToOffset(editor, dh.getRange.getEnd) >= offset).map(dh => LSPRangeToTextRange(editor, dh.getRange)).orNull
+      } else if (editor.isDisposed) null else expandOffsetToToken(editor, offset)
+    })
   }
 
   private def scheduleShowDoc(string: String, point: Point): Unit = {
@@ -1283,34 +1223,21 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     */
   private def requestAndShowDoc(editorPos: LogicalPosition, point: Point): Unit = {
     val serverPos = computableReadAction[Position](() => DocumentUtils.logicalToLSPPos(editorPos, editor))
-    val request = requestManager.hover(new TextDocumentPositionParams(identifier, serverPos))
-    if (request != null) {
-      try {
-        val hover = request.get(HOVER_TIMEOUT, TimeUnit.MILLISECONDS)
-        wrapper.notifySuccess(Timeouts.HOVER)
-        if (hover != null) {
-          val string = HoverHandler.getHoverString(hover)
-          if (string != null && string != "") {
-            val flags = HintManager.HIDE_BY_ANY_KEY | HintManager.HIDE_BY_CARET_MOVE | HintManager.HIDE_BY_ESCAPE | HintManager.HIDE_BY_LOOKUP_ITEM_CHANGE |
-              HintManager.HIDE_BY_OTHER_HINT | HintManager.HIDE_BY_SCROLLING | HintManager.HIDE_BY_TEXT_CHANGE | HintManager.HIDE_IF_OUT_OF_EDITOR
-            invokeLater(() => if (!editor.isDisposed) currentHint = createAndShowEditorHint(editor, string, point, flags = flags))
-          } else {
-            LOG.info("Hover string returned is null for file " + identifier.getUri + " and pos (" + serverPos.getLine + ";" + serverPos.getCharacter + ")")
-          }
+    flushChanges()
+    whenResponse(Timeouts.HOVER, requestManager.hover(new TextDocumentPositionParams(identifier, serverPos)), track = true)(hover => {
+      if (hover != null) {
+        val string = HoverHandler.getHoverString(hover)
+        if (string != null && string != "") {
+          val flags = HintManager.HIDE_BY_ANY_KEY | HintManager.HIDE_BY_CARET_MOVE | HintManager.HIDE_BY_ESCAPE | HintManager.HIDE_BY_LOOKUP_ITEM_CHANGE |
+            HintManager.HIDE_BY_OTHER_HINT | HintManager.HIDE_BY_SCROLLING | HintManager.HIDE_BY_TEXT_CHANGE | HintManager.HIDE_IF_OUT_OF_EDITOR
+          invokeLater(() => if (!editor.isDisposed) currentHint = createAndShowEditorHint(editor, string, point, flags = flags))
         } else {
-          LOG.info("Hover is null for file " + identifier.getUri + " and pos (" + serverPos.getLine + ";" + serverPos.getCharacter + ")")
+          LOG.info("Hover string returned is null for file " + identifier.getUri + " and pos (" + serverPos.getLine + ";" + serverPos.getCharacter + ")")
         }
-      } catch {
-        case e: TimeoutException =>
-          LOG.warn(e)
-          wrapper.notifyFailure(Timeouts.HOVER)
-        case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-          LOG.warn(e)
-          wrapper.crashed(e.asInstanceOf[Exception])
+      } else {
+        LOG.info("Hover is null for file " + identifier.getUri + " and pos (" + serverPos.getLine + ";" + serverPos.getCharacter + ")")
       }
-    }
-
-
+    })
   }
 
   /**
@@ -1325,10 +1252,11 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     val params = new ReferenceParams(new ReferenceContext(getOriginalElement))
     params.setPosition(lspPos)
     params.setTextDocument(identifier)
+    flushChanges()
     val request = requestManager.references(params)
     if (request != null) {
       try {
-        val res = request.get(REFERENCES_TIMEOUT, TimeUnit.MILLISECONDS)
+        val res = request.get(wrapper.getTimeout(Timeouts.REFERENCES), TimeUnit.MILLISECONDS)
         wrapper.notifySuccess(Timeouts.REFERENCES)
         if (res != null) {
           val openedEditors = mutable.ListBuffer[VirtualFile]()
@@ -1361,10 +1289,10 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         case e: TimeoutException =>
           LOG.warn(e)
           wrapper.notifyFailure(Timeouts.REFERENCES)
+          pendingRequests.cancel(Timeouts.REFERENCES, request)
           (Seq.empty, Seq.empty)
         case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-          LOG.warn(e)
-          wrapper.crashed(e.asInstanceOf[Exception])
+          requestFailed(Timeouts.REFERENCES, e)
           (Seq.empty, Seq.empty)
       }
     } else (Seq.empty, Seq.empty)
@@ -1380,9 +1308,12 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         params.setTextDocument(identifier)
         val options = new FormattingOptions()
         params.setOptions(options)
-        val request = requestManager.formatting(params)
-        if (request != null) request.thenAccept(formatting => if (formatting != null) invokeLater(() =>
-          applyEdit(edits = formatting.asScala, name = "Reformat document", closeAfter = closeAfter)))
+        flushChanges()
+        whenResponse(Timeouts.FORMATTING, requestManager.formatting(params), onEDT = true)(formatting => {
+          if (formatting != null) {
+            applyEdit(edits = formatting.asScala, name = "Reformat document", closeAfter = closeAfter)
+          }
+        })
       }
     })
   }
@@ -1399,17 +1330,11 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
   def applyEdit(version: Int = Int.MaxValue, edits: Iterable[TextEdit], name: String = "Apply LSP edits", closeAfter: Boolean = false): Boolean = {
     val runnable = getEditsRunnable(version, edits, name)
     writeAction(() => {
-      /*      holdDCE.synchronized {
-              holdDCE = true
-            }*/
       if (runnable != null) CommandProcessor.getInstance().executeCommand(project, runnable, name, "LSPPlugin", editor.getDocument)
       if (closeAfter) {
         FileEditorManager.getInstance(project)
           .closeFile(PsiDocumentManager.getInstance(project).getPsiFile(editor.getDocument).getVirtualFile)
       }
-      /*      holdDCE.synchronized {
-              holdDCE = false
-            }*/
     })
     if (runnable != null) true else false
   }
@@ -1424,7 +1349,8 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     * @return The runnable
     */
   def getEditsRunnable(version: Int = Int.MaxValue, edits: Iterable[TextEdit], name: String = "Apply LSP edits"): Runnable = {
-    if (version >= this.version) {
+    val currentVersion = changesPipeline.getVersion
+    if (version >= currentVersion) {
       val document = editor.getDocument
       if (document.isWritable) {
         () => {
@@ -1452,7 +1378,7 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         null
       }
     } else {
-      LOG.warn("Edit version " + version + " is older than current version " + this.version)
+      LOG.warn("Edit version " + version + " is older than current version " + currentVersion)
       null
     }
   }
@@ -1477,12 +1403,12 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         params.setRange(new Range(startingPos, endPos))
         val options = new FormattingOptions() //TODO
         params.setOptions(options)
-        val request = requestManager.rangeFormatting(params)
-        if (request != null)
-          request.thenAccept(formatting =>
-            if (formatting != null) invokeLater(() =>
-              if (!editor.isDisposed)
-                applyEdit(edits = formatting.asScala, name = "Reformat selection")))
+        flushChanges()
+        whenResponse(Timeouts.FORMATTING, requestManager.rangeFormatting(params), onEDT = true)(formatting => {
+          if (formatting != null) {
+            applyEdit(edits = formatting.asScala, name = "Reformat selection")
+          }
+        })
       }
     })
   }
@@ -1495,6 +1421,8 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     editor.addEditorMouseMotionListener(mouseMotionListener)
     editor.getDocument.addDocumentListener(documentListener)
     editor.getSelectionModel.addSelectionListener(selectionListener)
+    editor.getCaretModel.addCaretListener(caretListener)
+    if (semanticHighlightingStore != null) semanticHighlightingStore.register()
   }
 
   /**
@@ -1505,6 +1433,9 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     editor.getDocument.removeDocumentListener(documentListener)
     editor.removeEditorMouseListener(mouseListener)
     editor.getSelectionModel.removeSelectionListener(selectionListener)
+    editor.getCaretModel.removeCaretListener(caretListener)
+    if (semanticTokensSync != null) semanticTokensSync.dispose()
+    if (semanticHighlightingStore != null) semanticHighlightingStore.dispose()
   }
 
   /**
@@ -1517,6 +1448,7 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
       val servPos = DocumentUtils.offsetToLSPPos(editor, offset)
       if (!editor.isDisposed) {
         val params = new RenameParams(identifier, servPos, renameTo)
+        flushChanges()
         val request = requestManager.rename(params)
         if (request != null) request.thenAccept(res => {
           WorkspaceEditHandler.applyEdit(res, "Rename to " + renameTo, LSPRenameProcessor.getEditors.toList)
@@ -1530,20 +1462,23 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     if (editor == this.editor) {
       if (offset != -1) {
         val serverPos = DocumentUtils.offsetToLSPPos(editor, offset)
-        val request = requestManager.hover(new TextDocumentPositionParams(identifier, serverPos))
+        flushChanges()
+        val request = pendingRequests.track(Timeouts.HOVER, requestManager.hover(new TextDocumentPositionParams(identifier, serverPos)))
         if (request != null) {
           try {
-            val response = request.get(HOVER_TIMEOUT, TimeUnit.MILLISECONDS)
+            val response = request.get(wrapper.getTimeout(Timeouts.HOVER), TimeUnit.MILLISECONDS)
             wrapper.notifySuccess(Timeouts.HOVER)
             response
           } catch {
+            case _: CancellationException =>
+              null
             case e: TimeoutException =>
               LOG.warn(e)
               wrapper.notifyFailure(Timeouts.HOVER)
+              pendingRequests.cancel(Timeouts.HOVER, request)
               null
             case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-              LOG.warn(e)
-              wrapper.crashed(e.asInstanceOf[Exception])
+              requestFailed(Timeouts.HOVER, e)
               null
           }
         } else {
@@ -1581,45 +1516,44 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
       if (e.getEditor == editor) {
         selectedSymbHighlights.foreach(h => editor.getMarkupModel.removeHighlighter(h))
         selectedSymbHighlights.clear()
+        selectionGeneration += 1
         if (editor.getSelectionModel.hasSelection) {
           val ideRange = e.getNewRange
-          val LSPPos = DocumentUtils.offsetToLSPPos(editor, (ideRange.getEndOffset + ideRange.getStartOffset) / 2)
-          val request = requestManager.documentHighlight(new TextDocumentPositionParams(identifier, LSPPos))
-          if (request != null) {
-            pool(() => {
-              if (!editor.isDisposed) {
-                try {
-                  val resp = request.get(DOC_HIGHLIGHT_TIMEOUT, TimeUnit.MILLISECONDS)
-                  wrapper.notifySuccess(Timeouts.DOC_HIGHLIGHT)
-                  if (resp != null) {
-                    invokeLater(() => resp.asScala.foreach(dh => {
-                      if (!editor.isDisposed) {
-                        val range = dh.getRange
-                        val kind = dh.getKind
-                        val startOffset = DocumentUtils.LSPPosToOffset(editor, range.getStart)
-                        val endOffset = DocumentUtils.LSPPosToOffset(editor, range.getEnd)
-                        val colorScheme = editor.getColorsScheme
-                        val highlight = editor.getMarkupModel.addRangeHighlighter(startOffset, endOffset, HighlighterLayer.SELECTION - 1, colorScheme.getAttributes(EditorColors.IDENTIFIER_UNDER_CARET_ATTRIBUTES), HighlighterTargetArea.EXACT_RANGE)
-                        selectedSymbHighlights.add(highlight)
-                      }
-                    }))
-                  }
-                } catch {
-                  case e: TimeoutException =>
-                    LOG.warn(e)
-                    wrapper.notifyFailure(Timeouts.DOC_HIGHLIGHT)
-                  case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-                    LOG.warn(e)
-                    wrapper.crashed(e.asInstanceOf[Exception])
-                }
-              }
-            })
-          }
+          val offset = (ideRange.getEndOffset + ideRange.getStartOffset) / 2
+          val LSPPos = DocumentUtils.offsetToLSPPos(editor, offset)
+          val generation = selectionGeneration
+          flushChanges()
+          whenResponse(Timeouts.DOC_HIGHLIGHT, requestManager.documentHighlight(new TextDocumentPositionParams(identifier, LSPPos)), track = true, onEDT = true, at = offset)(resp => {
+            if (resp != null && generation == selectionGeneration) {
+              val attributes = editor.getColorsScheme.getAttributes(EditorColors.IDENTIFIER_UNDER_CARET_ATTRIBUTES)
+              val tasks = resp.asScala.map(dh => {
+                val range = dh.getRange
+                val startOffset = DocumentUtils.LSPPosToOffset(editor, range.getStart)
+                val endOffset = DocumentUtils.LSPPosToOffset(editor, range.getEnd)
+                ViewportScheduler.Task(startOffset, () => {
+                  val highlight = editor.getMarkupModel.addRangeHighlighter(startOffset, endOffset, HighlighterLayer.SELECTION - 1, attributes, HighlighterTargetArea.EXACT_RANGE)
+                  selectedSymbHighlights.add(highlight)
+                })
+              })
+              viewportScheduler.schedule(tasks, () => generation == selectionGeneration)
+            }
+          })
         }
       }
     }
   }
 
+  /**
+    * Cancels the requests made for a position which is no longer under the caret
+    *
+    * @param e The caret event
+    */
+  def caretMoved(e: CaretEvent): Unit = {
+    if (e.getEditor == editor) {
+      pendingRequests.caretMoved(editor.logicalPositionToOffset(e.getNewPosition))
+    }
+  }
+
   /**
     * Tells the manager that the mouse is in the editor
     */
@@ -1635,30 +1569,13 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
     isCtrlDown = false
   }
 
+  /**
+    * Applies the semantic highlighting tokens sent by the server
+    *
+    * @param lines The tokens of the lines which changed
+    */
   def semanticHighlighting(lines: Seq[SemanticHighlightingInformation]): Unit = {
-    val (removeHighlighting, addHighlighting) = lines.partition(s => s.getTokens == null || s.getTokens.nonEmpty)
-    removeHighlighting.foreach(l => {
-      val line = l.getLine
-      if (semanticHighlights.contains(line)) {
-        semanticHighlights(line).foreach(editor.getMarkupModel.removeHighlighter)
-      }
-      semanticHighlights(line) = Seq.empty
-    })
-    addHighlighting.foreach(l => {
-      val line = l.getLine
-      val tokens = JavaConverters.asScalaBuffer(SemanticHighlightingTokens.decode(l.getTokens))
-      val rhs = tokens.map(t => {
-        val offset = t.character
-        val length = t.length
-        val scopes = semanticHighlightingScopes(t.scope) //TODO not sure
-        val attributes = scopes.map(scope => SemanticHighlightingHandler.scopeToTextAttributes(scope, editor)).head //TODO multiple scopes
-        val rh = editor.getMarkupModel.addRangeHighlighter(DocumentUtils.LSPPosToOffset(editor, new Position(line, offset)),
-          DocumentUtils.LSPPosToOffset(editor, new Position(line, offset + length)), HighlighterLayer.SYNTAX,
-          attributes, HighlighterTargetArea.EXACT_RANGE)
-        rh
-      })
-      semanticHighlights(line) = rhs
-    })
+    if (semanticHighlightingStore != null) semanticHighlightingStore.update(lines)
   }
 
   /**
@@ -1674,25 +1591,84 @@ class EditorEventManager(val editor: Editor, val mouseListener: EditorMouseListe
         params.setPosition(DocumentUtils.logicalToLSPPos(editor.getCaretModel.getCurrentCaret.getLogicalPosition, editor))
         params.setTextDocument(identifier)
         params.setOptions(new FormattingOptions())
-        val future = requestManager.onTypeFormatting(params)
-        if (future != null) {
-          try {
-            val edits = future.get(FORMATTING_TIMEOUT, TimeUnit.MILLISECONDS)
-            wrapper.notifySuccess(Timeouts.FORMATTING)
-            if (edits != null) invokeLater(() => applyEdit(edits = edits.asScala, name = "On type formatting"))
-          } catch {
-            case e: TimeoutException =>
-              LOG.warn(e)
-              wrapper.notifyFailure(Timeouts.FORMATTING)
-            case e@(_: java.io.IOException | _: JsonRpcException | _: ExecutionException) =>
-              LOG.warn(e)
-              wrapper.crashed(e.asInstanceOf[Exception])
+        flushChanges()
+        whenResponse(Timeouts.FORMATTING, requestManager.onTypeFormatting(params), onEDT = true)(edits => {
+          if (edits != null) {
+            applyEdit(edits = edits.asScala, name = "On type formatting")
           }
-        }
+        })
       }
     })
   }
 
+  /**
+    * Returns the response of a request without blocking the current thread while waiting for it (see whenResponse)
+    * The request is tracked, so that it is cancelled when superseded or when it becomes stale
+    *
+    * @param kind    The kind of request
+    * @param request The future of the request
+    * @return A future completed with the response, or with null if the request fails or is cancelled
+    */
+  private def responseOf[T](kind: Timeouts, request: CompletableFuture[T]): CompletableFuture[T] = {
+    val result = new CompletableFuture[T]()
+    whenResponse(kind, request, track = true)(response => result.complete(response))
+      .whenComplete((_: Void, _: Throwable) => result.complete(null.asInstanceOf[T]))
+    result
+  }
+
+  /**
+    * Handles the response of a request without blocking the current thread while waiting for it
+    * The request is cancelled if it times out (see LanguageServerWrapper.getTimeout), and the wrapper is notified of the result
+    *
+    * @param kind       The kind of request
+    * @param request    The future of the request
+    * @param track      Whether the request must be cancelled when superseded or when it becomes stale
+    * @param onEDT      Whether onResponse must be called on the EDT (on a pooled thread otherwise)
+    * @param at         The offset of a request made at the caret, which is cancelled once the caret leaves the identifier at this offset
+    * @param onResponse The function to call with the response
+    * @return A future completed once the response has been handled
+    */
+  private def whenResponse[T](kind: Timeouts, request: CompletableFuture[T], track: Boolean = false, onEDT: Boolean = false, at: Int = -1)
+                             (onResponse: T => Unit): CompletableFuture[Void] = {
+    val future = RequestManager.withTimeout(request, wrapper.getTimeout(kind))
+    if (future != null) {
+      if (track) pendingRequests.track(kind, future, if (at >= 0) expandOffsetToToken(editor, at) else null)
+      RequestManager.handleResponse(future, onEDT)(response => {
+        wrapper.notifySuccess(kind)
+        if (!editor.isDisposed) onResponse(response)
+      }, {
+        case _: CancellationException =>
+        case e: TimeoutException =>
+          LOG.warn(e)
+          wrapper.notifyFailure(kind)
+          wrapper.notifyCancelled(kind)
+        case t => requestFailed(kind, t)
+      })
+    } else {
+      CompletableFuture.completedFuture(null)
+    }
+  }
+
+  /**
+    * Reports the failure of a request to the wrapper
+    * Only a broken connection means the server crashed, an error response (or any other error) is just a failed request
+    *
+    * @param kind  The kind of request
+    * @param error The error, possibly wrapped by the future of the request
+    */
+  private def requestFailed(kind: Timeouts, error: Throwable): Unit = {
+    val cause = error match {
+      case e: ExecutionException if e.getCause != null => e.getCause
+      case e: CompletionException if e.getCause != null => e.getCause
+      case e => e
+    }
+    LOG.warn(cause)
+    cause match {
+      case e@(_: java.io.IOException | _: JsonRpcException) => wrapper.crashed(e.asInstanceOf[Exception])
+      case _ => wrapper.notifyFailure(kind)
+    }
+  }
+
   /**
     * Returns the logical position given a mouse event
     *
@@ -0,0 +1,258 @@
+package com.github.gtache.lsp.editor
+
+import java.awt.Point
+
+import com.github.gtache.lsp.requests.SemanticScopesResolver
+import com.github.gtache.lsp.utils.ApplicationUtils.invokeLater
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.event.{DocumentEvent, VisibleAreaEvent, VisibleAreaListener}
+import com.intellij.openapi.editor.markup.{HighlighterLayer, HighlighterTargetArea, RangeHighlighter}
+import com.intellij.openapi.util.text.StringUtil
+import org.eclipse.lsp4j.SemanticHighlightingInformation
+import org.eclipse.lsp4j.util.SemanticHighlightingTokens
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+object SemanticHighlightingStore {
+
+  /**
+    * The number of lines painted above and below the visible area
+    */
+  private val MARGIN = 50
+
+  private val NO_TOKENS: Array[Int] = Array.emptyIntArray
+
+  /**
+    * Decodes the tokens of a line
+    *
+    * @param tokens The base64 encoded tokens
+    * @return The tokens as (start, length, scope) triples
+    */
+  def decode(tokens: String): Array[Int] = {
+    if (tokens == null || tokens.isEmpty) NO_TOKENS else {
+      val decoded = SemanticHighlightingTokens.decode(tokens)
+      val array = new Array[Int](decoded.size() * 3)
+      var i = 0
+      decoded.asScala.foreach(t => {
+        array(i) = t.character
+        array(i + 1) = t.length
+        array(i + 2) = t.scope
+        i += 3
+      })
+      array
+    }
+  }
+}
+
+/**
+  * The semantic highlighting tokens of an editor
+  * The tokens are stored per line as (start, length, scope) triples in primitive arrays, and are shifted when the document is edited
+  * Only the lines around the visible area are painted : their highlighters are created when they are scrolled into view
+  * and removed when they are scrolled away. documentChanged must be called on the EDT.
+  *
+  * @param editor   The editor
+  * @param resolver The resolver of the scopes of the server
+  */
+class SemanticHighlightingStore(editor: Editor, resolver: SemanticScopesResolver) {
+
+  import SemanticHighlightingStore._
+
+  private var lines: Array[Array[Int]] = new Array[Array[Int]](0)
+  private val painted: mutable.Map[Int, Array[RangeHighlighter]] = mutable.HashMap()
+  private val visibleAreaListener: VisibleAreaListener = (_: VisibleAreaEvent) => repaintVisible()
+  @volatile private var visibleLines: (Int, Int) = (0, MARGIN)
+
+  /**
+    * Starts painting the lines scrolled into view
+    */
+  def register(): Unit = {
+    editor.getScrollingModel.addVisibleAreaListener(visibleAreaListener)
+  }
+
+  /**
+    * Stops painting and removes all the highlighters
+    */
+  def dispose(): Unit = {
+    editor.getScrollingModel.removeVisibleAreaListener(visibleAreaListener)
+    invokeLater(() => {
+      if (!editor.isDisposed) painted.keys.toList.foreach(unpaintLine)
+      painted.clear()
+      lines = new Array[Array[Int]](0)
+    })
+  }
+
+  /**
+    * Repaints all the lines, after the color scheme changed
+    */
+  def refresh(): Unit = {
+    invokeLater(() => {
+      if (!editor.isDisposed) {
+        painted.keys.toList.foreach(unpaintLine)
+        repaintVisible()
+      }
+    })
+  }
+
+  /**
+    * Replaces the tokens of some lines
+    * The tokens are decoded on the calling thread and applied on the EDT
+    *
+    * @param infos The tokens of the lines sent by the server
+    */
+  def update(infos: Seq[SemanticHighlightingInformation]): Unit = {
+    val decoded = infos.map(i => (i.getLine, decode(i.getTokens)))
+    invokeLater(() => {
+      if (!editor.isDisposed) {
+        decoded.foreach { case (line, tokens) =>
+          if (line >= 0) {
+            ensureCapacity(line + 1)
+            lines(line) = tokens
+            if (painted.contains(line)) unpaintLine(line)
+          }
+        }
+        repaintVisible()
+      }
+    })
+  }
+
+  /**
+    * Replaces the tokens of consecutive lines, if the document didn't change since they were requested
+    *
+    * @param from     The first line
+    * @param tokens   The tokens of the lines as (start, length, scope) triples, null or empty for the lines without tokens
+    * @param truncate Whether the lines after the replaced ones must be cleared (if the tokens are the ones of the whole document)
+    * @param stamp    The modification stamp of the document when the tokens were requested
+    */
+  def replaceLines(from: Int, tokens: Array[Array[Int]], truncate: Boolean, stamp: Long): Unit = {
+    invokeLater(() => {
+      if (!editor.isDisposed && editor.getDocument.getModificationStamp == stamp) {
+        val to = from + tokens.length
+        ensureCapacity(to)
+        System.arraycopy(tokens, 0, lines, from, tokens.length)
+        if (truncate && lines.length > to) lines = java.util.Arrays.copyOf(lines, to)
+        painted.keys.filter(l => l >= from && (truncate || l < to)).toList.foreach(unpaintLine)
+        repaintVisible()
+      }
+    })
+  }
+
+  /**
+    * @return The first and last lines visible the last time the editor was painted
+    */
+  def getVisibleLines: (Int, Int) = visibleLines
+
+  /**
+    * Shifts the tokens after an edit
+    * The tokens overlapping the edit are dropped, until the server sends the new ones
+    *
+    * @param event The document event
+    */
+  def documentChanged(event: DocumentEvent): Unit = {
+    val doc = event.getDocument
+    val line = doc.getLineNumber(event.getOffset)
+    val column = event.getOffset - doc.getLineStartOffset(line)
+    val removedLines = StringUtil.countNewLines(event.getOldFragment)
+    val addedLines = StringUtil.countNewLines(event.getNewFragment)
+    (line to line + removedLines).foreach(unpaintLine)
+    if (line < lines.length) {
+      if (removedLines == 0 && addedLines == 0) {
+        lines(line) = shiftTokens(lines(line), column, event.getOldLength, event.getNewLength - event.getOldLength)
+      } else {
+        lines(line) = shiftTokens(lines(line), column, Int.MaxValue, 0)
+        shiftLines(line + 1, removedLines, addedLines)
+      }
+    }
+    val delta = addedLines - removedLines
+    if (delta != 0) {
+      val moved = painted.filterKeys(l => l > line + removedLines).toList
+      moved.foreach(e => painted.remove(e._1))
+      moved.foreach(e => painted.put(e._1 + delta, e._2))
+    }
+    invokeLater(() => if (!editor.isDisposed) repaintVisible())
+  }
+
+  /**
+    * Keeps the tokens before the column, shifts the ones after the replaced text and drops the ones overlapping it
+    */
+  private def shiftTokens(tokens: Array[Int], column: Int, oldLength: Int, delta: Int): Array[Int] = {
+    if (tokens == null || tokens.isEmpty) tokens else {
+      val shifted = new Array[Int](tokens.length)
+      var size = 0
+      var i = 0
+      while (i < tokens.length) {
+        val start = tokens(i)
+        val length = tokens(i + 1)
+        if (start + length <= column || start.toLong >= column.toLong + oldLength) {
+          shifted(size) = if (start + length <= column) start else start + delta
+          shifted(size + 1) = length
+          shifted(size + 2) = tokens(i + 2)
+          size += 3
+        }
+        i += 3
+      }
+      if (size == tokens.length) shifted else java.util.Arrays.copyOf(shifted, size)
+    }
+  }
+
+  /**
+    * Replaces removed lines starting at the given line by added empty lines
+    */
+  private def shiftLines(from: Int, removed: Int, added: Int): Unit = {
+    val kept = math.max(0, lines.length - from - removed)
+    val newLines = new Array[Array[Int]](from + added + kept)
+    System.arraycopy(lines, 0, newLines, 0, math.min(from, lines.length))
+    if (kept > 0) System.arraycopy(lines, from + removed, newLines, from + added, kept)
+    lines = newLines
+  }
+
+  private def ensureCapacity(size: Int): Unit = {
+    if (lines.length < size) lines = java.util.Arrays.copyOf(lines, math.max(size, editor.getDocument.getLineCount))
+  }
+
+  /**
+    * Paints the lines around the visible area and removes the highlighters of the lines far from it
+    */
+  private def repaintVisible(): Unit = {
+    val area = editor.getScrollingModel.getVisibleArea
+    val first = editor.xyToLogicalPosition(new Point(0, area.y)).line
+    val last = editor.xyToLogicalPosition(new Point(0, area.y + area.height)).line
+    visibleLines = (first, last)
+    painted.keys.filter(l => l < first - 2 * MARGIN || l > last + 2 * MARGIN).toList.foreach(unpaintLine)
+    val lineCount = math.min(lines.length, editor.getDocument.getLineCount)
+    (math.max(0, first - MARGIN) until math.min(lineCount, last + MARGIN + 1)).foreach(l => {
+      if (!painted.contains(l)) paintLine(l)
+    })
+  }
+
+  private def paintLine(line: Int): Unit = {
+    val tokens = lines(line)
+    if (tokens != null && tokens.nonEmpty) {
+      val doc = editor.getDocument
+      val lineStart = doc.getLineStartOffset(line)
+      val lineEnd = doc.getLineEndOffset(line)
+      val markupModel = editor.getMarkupModel
+      val highlighters = new Array[RangeHighlighter](tokens.length / 3)
+      val attributes = resolver.getAttributes(editor)
+      var i = 0
+      while (i < tokens.length) {
+        val start = math.min(lineStart + tokens(i), lineEnd)
+        val end = math.min(start + tokens(i + 1), lineEnd)
+        val scope = tokens(i + 2)
+        val attrs = if (scope >= 0 && scope < attributes.length) attributes(scope) else null
+        if (attrs != null && start < end) {
+          highlighters(i / 3) = markupModel.addRangeHighlighter(start, end, HighlighterLayer.SYNTAX, attrs, HighlighterTargetArea.EXACT_RANGE)
+        }
+        i += 3
+      }
+      painted.put(line, highlighters)
+    }
+  }
+
+  private def unpaintLine(line: Int): Unit = {
+    painted.remove(line).foreach(highlighters => {
+      val markupModel = editor.getMarkupModel
+      highlighters.foreach(h => if (h != null) markupModel.removeHighlighter(h))
+    })
+  }
+}
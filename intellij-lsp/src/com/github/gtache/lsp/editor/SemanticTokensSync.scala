@@ -0,0 +1,281 @@
+package com.github.gtache.lsp.editor
+
+import java.util.concurrent.{CancellationException, CompletableFuture, ScheduledFuture, TimeUnit, TimeoutException}
+
+import com.github.gtache.lsp.client.languageserver.requestmanager.RequestManager
+import com.github.gtache.lsp.client.languageserver.semantictokens.{SemanticTokensOptions, SemanticTokensParams}
+import com.github.gtache.lsp.client.languageserver.wrapper.LanguageServerWrapper
+import com.github.gtache.lsp.requests.Timeouts
+import com.github.gtache.lsp.utils.ApplicationUtils.computableReadAction
+import com.google.gson.{JsonArray, JsonElement, JsonObject}
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.editor.Editor
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.eclipse.lsp4j.{Position, Range, TextDocumentIdentifier}
+
+object SemanticTokensSync {
+
+  private val LOG: Logger = Logger.getInstance(classOf[SemanticTokensSync])
+
+  /**
+    * The delay between the last change of the document and the request of its tokens
+    */
+  private val DELAY = 200
+
+  /**
+    * The number of lines from which the visible lines are requested before the whole document
+    */
+  private val LARGE_FILE_LINES = 2000
+
+  /**
+    * The number of lines requested above and below the visible area
+    */
+  private val MARGIN = 100
+
+  /**
+    * Reads a relative-encoded array of integers
+    *
+    * @param element The json array
+    * @return The integers, empty if the element isn't an array
+    */
+  def toIntArray(element: JsonElement): Array[Int] = {
+    if (element != null && element.isJsonArray) {
+      val array = element.getAsJsonArray
+      val ints = new Array[Int](array.size())
+      var i = 0
+      while (i < ints.length) {
+        ints(i) = array.get(i).getAsInt
+        i += 1
+      }
+      ints
+    } else Array.emptyIntArray
+  }
+
+  /**
+    * Applies the edits of a SemanticTokensDelta to the integers of the previous result, in a single copy
+    *
+    * @param data  The integers of the previous result
+    * @param edits The edits (start, deleteCount, data)
+    * @return The integers of the new result, or null if the edits don't apply to the previous result
+    */
+  def applyEdits(data: Array[Int], edits: JsonArray): Array[Int] = {
+    val parsed = (0 until edits.size()).map(i => {
+      val edit = edits.get(i).getAsJsonObject
+      (edit.get("start").getAsInt, edit.get("deleteCount").getAsInt, toIntArray(edit.get("data")))
+    }).sortBy(_._1)
+    val valid = parsed.indices.forall(i => {
+      val (start, deleteCount, _) = parsed(i)
+      start >= (if (i > 0) parsed(i - 1)._1 + parsed(i - 1)._2 else 0) && deleteCount >= 0 && start + deleteCount <= data.length
+    })
+    if (valid) {
+      val result = new Array[Int](data.length + parsed.map(e => e._3.length - e._2).sum)
+      var src = 0
+      var dst = 0
+      parsed.foreach { case (start, deleteCount, inserted) =>
+        val kept = start - src
+        System.arraycopy(data, src, result, dst, kept)
+        dst += kept
+        System.arraycopy(inserted, 0, result, dst, inserted.length)
+        dst += inserted.length
+        src = start + deleteCount
+      }
+      System.arraycopy(data, src, result, dst, data.length - src)
+      result
+    } else null
+  }
+
+  /**
+    * Decodes relative-encoded tokens (deltaLine, deltaStart, length, tokenType, tokenModifiers) into (start, length, scope) triples per line
+    * The modifiers are ignored and the tokens outside of the lines are dropped
+    *
+    * @param data The integers
+    * @param from The first line
+    * @param to   The last line (exclusive)
+    * @return The tokens of the lines, null for the lines without tokens
+    */
+  def decodeLines(data: Array[Int], from: Int, to: Int): Array[Array[Int]] = {
+    val counts = new Array[Int](math.max(0, to - from))
+    forEachToken(data)((line, _, _, _) => if (line >= from && line < to) counts(line - from) += 1)
+    val lines = counts.map(c => if (c > 0) new Array[Int](c * 3) else null)
+    java.util.Arrays.fill(counts, 0)
+    forEachToken(data)((line, start, length, tokenType) => {
+      if (line >= from && line < to) {
+        val idx = line - from
+        val pos = counts(idx) * 3
+        lines(idx)(pos) = start
+        lines(idx)(pos + 1) = length
+        lines(idx)(pos + 2) = tokenType
+        counts(idx) += 1
+      }
+    })
+    lines
+  }
+
+  /**
+    * @param data The relative-encoded tokens
+    * @return The number of lines containing the tokens
+    */
+  def lineCount(data: Array[Int]): Int = {
+    var line = 0
+    var i = 0
+    while (i + 4 < data.length) {
+      line += data(i)
+      i += 5
+    }
+    if (data.length >= 5) line + 1 else 0
+  }
+
+  private def forEachToken(data: Array[Int])(f: (Int, Int, Int, Int) => Unit): Unit = {
+    var line = 0
+    var start = 0
+    var i = 0
+    while (i + 4 < data.length) {
+      if (data(i) != 0) {
+        line += data(i)
+        start = data(i + 1)
+      } else start += data(i + 1)
+      f(line, start, data(i + 2), data(i + 3))
+      i += 5
+    }
+  }
+}
+
+/**
+  * Requests the semantic tokens of a document after it is opened or edited, and paints them with a SemanticHighlightingStore
+  * The previous result is kept as integers to request only the edits since it (full/delta) when the server supports it,
+  * and the visible lines of large documents are requested (range) before the whole document
+  * At most one request is in flight, the changes made in-between trigger a new one once it completes
+  *
+  * @param editor         The editor
+  * @param identifier     The identifier of the document
+  * @param wrapper        The wrapper of the server
+  * @param requestManager The RequestManager of the server
+  * @param changes        The pipeline of the document changes, flushed before each request
+  * @param store          The store painting the tokens
+  * @param provider       The semantic tokens provider of the server
+  */
+class SemanticTokensSync(editor: Editor, identifier: TextDocumentIdentifier, wrapper: LanguageServerWrapper, requestManager: RequestManager,
+                         changes: DocumentChangesPipeline, store: SemanticHighlightingStore, provider: SemanticTokensOptions) {
+
+  import SemanticTokensSync._
+
+  private val runnable: Runnable = () => run()
+  private var scheduled: ScheduledFuture[_] = _
+  private var running = false
+  private var dirty = false
+  private var disposed = false
+  //Written by the response handlers on the pooled threads and read by the next run
+  @volatile private var resultId: String = _
+  @volatile private var data: Array[Int] = _
+
+  /**
+    * Requests the tokens of the opened document
+    */
+  def documentOpened(): Unit = schedule(0)
+
+  /**
+    * Requests the tokens shortly after the document changed
+    */
+  def documentChanged(): Unit = schedule(DELAY)
+
+  /**
+    * Stops requesting the tokens
+    */
+  def dispose(): Unit = this.synchronized {
+    disposed = true
+    if (scheduled != null) scheduled.cancel(false)
+    scheduled = null
+  }
+
+  private def schedule(delay: Int): Unit = this.synchronized {
+    if (!disposed && scheduled == null) {
+      scheduled = AppExecutorUtil.getAppScheduledExecutorService.schedule(runnable, delay, TimeUnit.MILLISECONDS)
+    }
+  }
+
+  private def run(): Unit = {
+    val start = this.synchronized {
+      scheduled = null
+      if (running || disposed) {
+        dirty = running
+        false
+      } else {
+        running = true
+        true
+      }
+    }
+    if (start) {
+      changes.flush()
+      val (stamp, documentLines) = computableReadAction(() => (editor.getDocument.getModificationStamp, editor.getDocument.getLineCount))
+      val useDelta = provider.isDeltaSupported && resultId != null && data != null
+      val visibleFirst = provider.isRangeSupported && (!provider.isFullSupported || (documentLines > LARGE_FILE_LINES && !useDelta))
+      val ranged = if (visibleFirst) requestRange(stamp, documentLines) else CompletableFuture.completedFuture[Void](null)
+      val done = if (provider.isFullSupported) ranged.thenCompose[Void]((_: Void) => requestFull(stamp, useDelta)) else ranged
+      done.whenComplete((_: Void, _: Throwable) => this.synchronized {
+        running = false
+        if (dirty) {
+          dirty = false
+          schedule(0)
+        }
+      })
+    }
+  }
+
+  private def requestRange(stamp: Long, documentLines: Int): CompletableFuture[Void] = {
+    val (first, last) = store.getVisibleLines
+    val from = math.max(0, first - MARGIN)
+    val to = math.min(documentLines, last + MARGIN + 1)
+    val range = new Range(new Position(from, 0), new Position(to, 0))
+    send(requestManager.semanticTokensRange(SemanticTokensParams.range(identifier, range)))(response => {
+      if (response.isJsonObject) {
+        store.replaceLines(from, decodeLines(toIntArray(response.getAsJsonObject.get("data")), from, to), truncate = false, stamp)
+      }
+    })
+  }
+
+  private def requestFull(stamp: Long, useDelta: Boolean): CompletableFuture[Void] = {
+    val request =
+      if (useDelta) requestManager.semanticTokensFullDelta(SemanticTokensParams.delta(identifier, resultId))
+      else requestManager.semanticTokensFull(SemanticTokensParams.full(identifier))
+    send(request)(response => {
+      if (response.isJsonObject) {
+        val result = response.getAsJsonObject
+        val edits = result.get("edits")
+        data =
+          if (edits == null || !edits.isJsonArray) toIntArray(result.get("data"))
+          else if (data != null) applyEdits(data, edits.getAsJsonArray)
+          else null
+        resultId = if (data != null) getResultId(result) else null
+        if (data != null) store.replaceLines(0, decodeLines(data, 0, lineCount(data)), truncate = true, stamp)
+      }
+    })
+  }
+
+  private def getResultId(result: JsonObject): String = {
+    val id = result.get("resultId")
+    if (id != null && id.isJsonPrimitive) id.getAsString else null
+  }
+
+  /**
+    * Waits for the response of a request, forgetting the previous result if it failed so that the next request is a full one
+    */
+  private def send(request: CompletableFuture[JsonElement])(onResponse: JsonElement => Unit): CompletableFuture[Void] = {
+    val future = RequestManager.withTimeout(request, wrapper.getTimeout(Timeouts.SEMANTIC_TOKENS))
+    if (future != null) {
+      RequestManager.handleResponse(future, onEDT = false)(response => {
+        wrapper.notifySuccess(Timeouts.SEMANTIC_TOKENS)
+        if (response != null && !editor.isDisposed) onResponse(response)
+      }, {
+        case _: CancellationException =>
+        case e: TimeoutException =>
+          LOG.warn(e)
+          wrapper.notifyFailure(Timeouts.SEMANTIC_TOKENS)
+          wrapper.notifyCancelled(Timeouts.SEMANTIC_TOKENS)
+          resultId = null
+        case t =>
+          LOG.warn(t)
+          resultId = null
+      })
+    } else CompletableFuture.completedFuture(null)
+  }
+}
@@ -0,0 +1,109 @@
+package com.github.gtache.lsp.editor
+
+import java.awt.Point
+import java.util.concurrent.TimeUnit
+
+import com.github.gtache.lsp.utils.ApplicationUtils.invokeLater
+import com.intellij.ide.IdeEventQueue
+import com.intellij.openapi.editor.Editor
+import com.intellij.util.concurrency.AppExecutorUtil
+
+object ViewportScheduler {
+
+  /**
+    * The maximum time spent painting in a single EDT event
+    */
+  private val TIME_SLICE_NANOS: Long = 8 * 1000 * 1000
+
+  /**
+    * The time without user input after which the off-screen work is run
+    */
+  private val IDLE_TIME = 300
+
+  /**
+    * The number of lines above and below the visible area considered visible
+    */
+  private val MARGIN = 20
+
+  /**
+    * A unit of painting work
+    *
+    * @param offset The offset of the document the work paints
+    * @param run    The work, run on the EDT
+    */
+  case class Task(offset: Int, run: () => Unit)
+
+}
+
+/**
+  * Schedules the painting work of an editor (diagnostics, document highlights...) according to what the user is looking at
+  * The work in the visible area is run first, in time slices on the EDT. The off-screen work is run nearest first once the
+  * user is idle. The remaining work is dropped if the document changes before it runs, as its offsets are then outdated,
+  * and the caller is told so that it can compute it again.
+  *
+  * @param editor The editor
+  */
+class ViewportScheduler(editor: Editor) {
+
+  import ViewportScheduler._
+
+  /**
+    * Schedules painting work, must be called on the EDT
+    *
+    * @param tasks      The work
+    * @param isCurrent  Whether the work is still wanted, checked before each time slice
+    * @param onOutdated Called on the EDT if work still wanted is dropped because the document changed
+    */
+  def schedule(tasks: Seq[Task], isCurrent: () => Boolean, onOutdated: () => Unit = () => ()): Unit = {
+    if (tasks.nonEmpty && !editor.isDisposed) {
+      val (start, end) = visibleOffsets()
+      val (visible, hidden) = tasks.partition(t => t.offset >= start && t.offset <= end)
+      val sortedHidden = hidden.sortBy(t => if (t.offset < start) start - t.offset else t.offset - end)
+      val stamp = editor.getDocument.getModificationStamp
+      val current = () => isCurrent() && editor.getDocument.getModificationStamp == stamp
+      val dropped = () => if (isCurrent()) onOutdated()
+      runVisible(visible.iterator, current, dropped, () => runWhenIdle(sortedHidden.iterator, current, dropped))
+    }
+  }
+
+  private def runVisible(tasks: Iterator[Task], isCurrent: () => Boolean, onDropped: () => Unit, onDone: () => Unit): Unit = {
+    if (!editor.isDisposed) {
+      if (isCurrent()) {
+        runSlice(tasks)
+        if (tasks.hasNext) invokeLater(() => runVisible(tasks, isCurrent, onDropped, onDone)) else onDone()
+      } else onDropped()
+    }
+  }
+
+  private def runWhenIdle(tasks: Iterator[Task], isCurrent: () => Boolean, onDropped: () => Unit): Unit = {
+    if (tasks.hasNext && !editor.isDisposed) {
+      if (!isCurrent()) onDropped()
+      else if (IdeEventQueue.getInstance().getIdleTime >= IDLE_TIME) {
+        runSlice(tasks)
+        invokeLater(() => runWhenIdle(tasks, isCurrent, onDropped))
+      } else {
+        val retry: Runnable = () => invokeLater(() => runWhenIdle(tasks, isCurrent, onDropped))
+        AppExecutorUtil.getAppScheduledExecutorService.schedule(retry, IDLE_TIME, TimeUnit.MILLISECONDS)
+      }
+    }
+  }
+
+  private def runSlice(tasks: Iterator[Task]): Unit = {
+    val deadline = System.nanoTime() + TIME_SLICE_NANOS
+    while (tasks.hasNext && System.nanoTime() < deadline) {
+      tasks.next().run()
+    }
+  }
+
+  /**
+    * @return The start and end offsets of the visible area, including the margin
+    */
+  private def visibleOffsets(): (Int, Int) = {
+    val area = editor.getScrollingModel.getVisibleArea
+    val doc = editor.getDocument
+    val lastLine = math.max(0, doc.getLineCount - 1)
+    val first = math.max(0, editor.xyToLogicalPosition(new Point(0, area.y)).line - MARGIN)
+    val last = math.min(lastLine, editor.xyToLogicalPosition(new Point(0, area.y + area.height)).line + MARGIN)
+    if (doc.getTextLength == 0) (0, 0) else (doc.getLineStartOffset(math.min(first, lastLine)), doc.getLineEndOffset(last))
+  }
+}
@@ -0,0 +1,12 @@
+package com.github.gtache.lsp.editor.listeners
+
+import com.intellij.openapi.editor.event.{CaretEvent, CaretListener}
+
+/**
+  * Implementation of a CaretListener
+  */
+class EditorCaretListenerImpl extends CaretListener with LSPListener {
+
+  override def caretPositionChanged(e: CaretEvent): Unit =
+    if (checkEnabled()) manager.caretMoved(e)
+}
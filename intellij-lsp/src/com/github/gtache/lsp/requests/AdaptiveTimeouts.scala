@@ -0,0 +1,70 @@
+package com.github.gtache.lsp.requests
+
+import com.github.gtache.lsp.settings.LSPState
+
+object AdaptiveTimeouts {
+
+  /**
+    * The number of samples needed before a timeout may become shorter than the configured one
+    */
+  private val MIN_SAMPLES = 20
+  private val PERCENTILE = 0.99
+}
+
+/**
+  * Computes the timeouts of the requests sent to a server from the latencies observed for this server
+  * The effective timeout of a request is its 99th percentile latency times a multiplier, clamped between bounds relative to
+  * the configured timeout (see Timeout). The multiplier and the bounds are configured with LSPState, a multiplier of 0 disabling
+  * the adaptation. A request which timed out is recorded with the timeout it had, so that the timeouts of a slow but healthy
+  * server grow instead of failing repeatedly.
+  */
+class AdaptiveTimeouts {
+
+  import AdaptiveTimeouts._
+
+  private val histograms: Map[Timeouts, LatencyHistogram] = Timeouts.values().map(t => t -> new LatencyHistogram).toMap
+
+  /**
+    * Records the latency of a successful request
+    *
+    * @param kind   The kind of request
+    * @param millis The latency in milliseconds
+    */
+  def record(kind: Timeouts, millis: Long): Unit = {
+    histograms(kind).record(millis)
+  }
+
+  /**
+    * Records a request which timed out
+    *
+    * @param kind The kind of request
+    */
+  def timedOut(kind: Timeouts): Unit = {
+    histograms(kind).record(getTimeout(kind))
+  }
+
+  /**
+    * @param kind The kind of request
+    * @return The timeout in milliseconds to use for the request
+    */
+  def getTimeout(kind: Timeouts): Int = {
+    val configured = Timeout.getTimeout(kind)
+    val state = LSPState.getInstance()
+    val histogram = histograms(kind)
+    if (state == null || state.getAdaptiveTimeoutMultiplier <= 0 || histogram.getCount == 0) configured else {
+      val adaptive = histogram.percentile(PERCENTILE) * state.getAdaptiveTimeoutMultiplier
+      val lowerBound = if (histogram.getCount >= MIN_SAMPLES) configured.toLong * state.getAdaptiveTimeoutLowerBound / 100 else configured.toLong
+      val upperBound = math.max(configured.toLong, configured.toLong * state.getAdaptiveTimeoutUpperBound / 100)
+      math.min(upperBound, math.max(lowerBound, adaptive)).toInt
+    }
+  }
+
+  /**
+    * @param kind The kind of request
+    * @return The median and 99th percentile latencies in milliseconds, and the number of samples
+    */
+  def getLatencies(kind: Timeouts): (Long, Long, Long) = {
+    val histogram = histograms(kind)
+    (histogram.percentile(0.5), histogram.percentile(PERCENTILE), histogram.getCount)
+  }
+}
@@ -0,0 +1,74 @@
+package com.github.gtache.lsp.requests
+
+object LatencyHistogram {
+
+  /**
+    * The ratio between the upper bounds of two consecutive buckets
+    */
+  private val GROWTH = 1.25
+  private val BUCKETS = 64
+
+  /**
+    * The number of samples after which the counts are halved, so that old samples progressively lose their weight
+    */
+  private val DECAY_THRESHOLD = 1000
+
+  private val upperBounds: Array[Long] = Array.tabulate(BUCKETS)(i => math.ceil(math.pow(GROWTH, i)).toLong)
+
+  private def bucketOf(millis: Long): Int = {
+    val idx = java.util.Arrays.binarySearch(upperBounds, millis)
+    math.min(BUCKETS - 1, if (idx >= 0) idx else -idx - 1)
+  }
+}
+
+/**
+  * A streaming histogram of request latencies, using logarithmic buckets (each bucket is at most 25% wider than the previous one)
+  */
+class LatencyHistogram {
+
+  import LatencyHistogram._
+
+  private val counts: Array[Long] = new Array[Long](BUCKETS)
+  private var total: Long = 0
+
+  /**
+    * Records a latency
+    *
+    * @param millis The latency in milliseconds
+    */
+  def record(millis: Long): Unit = this.synchronized {
+    counts(bucketOf(math.max(0, millis))) += 1
+    total += 1
+    if (total >= DECAY_THRESHOLD) {
+      total = 0
+      counts.indices.foreach(i => {
+        counts(i) /= 2
+        total += counts(i)
+      })
+    }
+  }
+
+  /**
+    * @return The number of samples currently weighing on the percentiles
+    */
+  def getCount: Long = this.synchronized(total)
+
+  /**
+    * Returns an estimation of a percentile (the upper bound of the bucket containing it)
+    *
+    * @param p The percentile, between 0 and 1
+    * @return The latency in milliseconds, or 0 if there is no sample
+    */
+  def percentile(p: Double): Long = this.synchronized {
+    if (total == 0) 0 else {
+      val rank = math.max(1, math.ceil(p * total).toLong)
+      var cumulated = 0L
+      var idx = 0
+      while (idx < BUCKETS - 1 && cumulated + counts(idx) < rank) {
+        cumulated += counts(idx)
+        idx += 1
+      }
+      upperBounds(idx)
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.gtache.lsp.requests
+
+import java.util.concurrent.CompletableFuture
+
+import com.github.gtache.lsp.client.languageserver.wrapper.LanguageServerWrapper
+import com.github.gtache.lsp.requests.Timeouts._
+import com.intellij.openapi.util.TextRange
+
+import scala.collection.mutable
+
+object PendingRequests {
+  /**
+    * The kinds of requests whose result is useless once the document has changed
+    */
+  val CANCELLED_ON_CHANGE: Set[Timeouts] = Set(COMPLETION, DEFINITION, DOC_HIGHLIGHT, HOVER, SIGNATURE)
+
+  /**
+    * The kinds of requests whose result is useless once the caret has moved away from their position
+    */
+  val CANCELLED_ON_CARET_MOVE: Set[Timeouts] = Set(DOC_HIGHLIGHT, SIGNATURE)
+
+  /**
+    * A request in flight
+    *
+    * @param future The future of the request
+    * @param range  The range around the position of the request, or null if it doesn't depend on the caret
+    */
+  private case class Pending(future: CompletableFuture[_], range: TextRange)
+}
+
+/**
+  * Keeps track of the requests sent for a document, in order to cancel them once their result is stale
+  * Cancelling a future returned by lsp4j sends a $/cancelRequest notification to the server
+  *
+  * @param wrapper The wrapper to notify of the cancellations
+  */
+class PendingRequests(wrapper: LanguageServerWrapper) {
+
+  import PendingRequests._
+
+  private val pending: mutable.Map[Timeouts, Pending] = mutable.HashMap()
+
+  /**
+    * Tracks a request, cancelling the previous request of the same kind if it is still running
+    *
+    * @param kind   The kind of request
+    * @param future The future of the request
+    * @param range  The range around the position of the request (the identifier at the caret), the request being kept while
+    *               the caret stays in it, or null if the request doesn't depend on the caret
+    * @return The same future
+    */
+  def track[T](kind: Timeouts, future: CompletableFuture[T], range: TextRange = null): CompletableFuture[T] = {
+    if (future != null) {
+      val previous = pending.synchronized(pending.put(kind, Pending(future, range)))
+      previous.foreach(p => cancel(kind, p.future))
+      future.whenComplete((_: T, _: Throwable) => pending.synchronized {
+        if (pending.get(kind).exists(_.future eq future)) pending.remove(kind)
+      })
+    }
+    future
+  }
+
+  /**
+    * Cancels a request if it is still running
+    *
+    * @param kind   The kind of request
+    * @param future The future of the request
+    * @return true if the request was cancelled
+    */
+  def cancel(kind: Timeouts, future: CompletableFuture[_]): Boolean = {
+    if (future != null && !future.isDone && future.cancel(true)) {
+      wrapper.notifyCancelled(kind)
+      true
+    } else false
+  }
+
+  /**
+    * Cancels the running requests of the given kinds
+    *
+    * @param kinds The kinds of requests
+    */
+  def cancel(kinds: Set[Timeouts]): Unit = {
+    cancelIf((kind, _) => kinds.contains(kind))
+  }
+
+  /**
+    * Cancels the running requests made at a position the caret has moved away from
+    *
+    * @param offset The new offset of the caret
+    */
+  def caretMoved(offset: Int): Unit = {
+    cancelIf((kind, p) => CANCELLED_ON_CARET_MOVE.contains(kind) && p.range != null && !p.range.containsOffset(offset))
+  }
+
+  /**
+    * Cancels all the running requests
+    */
+  def cancelAll(): Unit = {
+    cancel(Timeouts.values().toSet)
+  }
+
+  private def cancelIf(predicate: (Timeouts, Pending) => Boolean): Unit = {
+    val futures = pending.synchronized {
+      val toCancel = pending.filter(t => predicate(t._1, t._2)).toList
+      toCancel.foreach(t => pending.remove(t._1))
+      toCancel
+    }
+    futures.foreach(t => cancel(t._1, t._2.future))
+  }
+}
@@ -93,6 +93,40 @@ object SemanticHighlightingHandler {
     "variable.other" -> Style(DefaultLanguageHighlighterColors.LOCAL_VARIABLE)
   )
 
+  /**
+    * The styles of the standard semantic token types
+    */
+  private val tokenTypeMapping: Map[String, Style] = Map(
+    "namespace" -> Style(DefaultLanguageHighlighterColors.IDENTIFIER),
+    "type" -> Style(DefaultLanguageHighlighterColors.CLASS_REFERENCE),
+    "class" -> Style(DefaultLanguageHighlighterColors.CLASS_NAME),
+    "enum" -> Style(DefaultLanguageHighlighterColors.CLASS_NAME),
+    "interface" -> Style(DefaultLanguageHighlighterColors.INTERFACE_NAME),
+    "struct" -> Style(DefaultLanguageHighlighterColors.CLASS_NAME),
+    "typeParameter" -> Style(DefaultLanguageHighlighterColors.CLASS_REFERENCE),
+    "parameter" -> Style(DefaultLanguageHighlighterColors.PARAMETER),
+    "variable" -> Style(DefaultLanguageHighlighterColors.LOCAL_VARIABLE),
+    "property" -> Style(DefaultLanguageHighlighterColors.INSTANCE_FIELD),
+    "enumMember" -> Style(DefaultLanguageHighlighterColors.CONSTANT),
+    "event" -> Style(DefaultLanguageHighlighterColors.INSTANCE_FIELD),
+    "function" -> Style(DefaultLanguageHighlighterColors.FUNCTION_DECLARATION),
+    "method" -> Style(DefaultLanguageHighlighterColors.INSTANCE_METHOD),
+    "macro" -> Style(DefaultLanguageHighlighterColors.METADATA),
+    "keyword" -> Style(DefaultLanguageHighlighterColors.KEYWORD),
+    "modifier" -> Style(DefaultLanguageHighlighterColors.KEYWORD),
+    "comment" -> Style(DefaultLanguageHighlighterColors.LINE_COMMENT),
+    "string" -> Style(DefaultLanguageHighlighterColors.STRING),
+    "number" -> Style(DefaultLanguageHighlighterColors.NUMBER),
+    "regexp" -> Style(DefaultLanguageHighlighterColors.STRING),
+    "operator" -> Style(DefaultLanguageHighlighterColors.OPERATION_SIGN),
+    "decorator" -> Style(DefaultLanguageHighlighterColors.METADATA)
+  )
+
+  /**
+    * @return The semantic token types which can be highlighted
+    */
+  def supportedTokenTypes: Seq[String] = tokenTypeMapping.keys.toSeq.sorted
+
   def handlePush(params: SemanticHighlightingParams): Unit = {
     import scala.collection.JavaConverters._
     if (params != null) {
@@ -117,17 +151,39 @@ object SemanticHighlightingHandler {
     }
   }
 
+  /**
+    * Returns the style of a TextMate scope, falling back to its prefixes (a.b.c -> a.b -> a)
+    *
+    * @param scope The scope
+    * @return The style, or null if neither the scope nor its prefixes are mapped
+    */
   def scopeToStyle(scope: String): Style = {
-    //TODO proper
-    if (scope.split(".").length > 3) {
-      mapping(scope.split(".").take(3).mkString("."))
-    } else {
-      mapping(scope)
+    if (scope == null) null else {
+      var current = scope
+      var style = mapping.get(current).orNull
+      while (style == null && current.lastIndexOf('.') > 0) {
+        current = current.substring(0, current.lastIndexOf('.'))
+        style = mapping.get(current).orNull
+      }
+      style
     }
   }
 
+  /**
+    * @param tokenType A semantic token type
+    * @return The style of the token type, or null if it isn't mapped
+    */
+  def tokenTypeToStyle(tokenType: String): Style = {
+    if (tokenType == null) null else tokenTypeMapping.get(tokenType).orNull
+  }
+
+  /**
+    * @param scope  The scope
+    * @param editor The editor
+    * @return The attributes of the scope, or null if neither the scope nor its prefixes are mapped
+    */
   def scopeToTextAttributes(scope: String, editor: Editor): TextAttributes = {
-    mapping(scope).toTextAttributes(editor)
+    Option(scopeToStyle(scope)).map(style => style.toTextAttributes(editor)).orNull
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.github.gtache.lsp.requests
+
+import java.util
+
+import com.github.gtache.lsp.client.languageserver.semantictokens.SemanticTokensOptions
+import com.github.gtache.lsp.requests.SemanticHighlightingHandler.Style
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.colors.EditorColorsScheme
+import com.intellij.openapi.editor.colors.impl.DelegateColorScheme
+import com.intellij.openapi.editor.markup.TextAttributes
+import org.eclipse.lsp4j.SemanticHighlightingServerCapabilities
+
+import scala.collection.JavaConverters._
+
+object SemanticScopesResolver {
+
+  @volatile private var schemeGeneration = 0
+
+  /**
+    * Creates the resolver of a server
+    *
+    * @param capabilities The semantic highlighting capabilities of the server
+    * @return The resolver, or null if the server doesn't support semantic highlighting
+    */
+  def apply(capabilities: SemanticHighlightingServerCapabilities): SemanticScopesResolver = {
+    if (capabilities != null && capabilities.getScopes != null) {
+      val scopes = capabilities.getScopes.asScala.map(s => if (s != null) s.asScala.toList else Nil)
+      new SemanticScopesResolver(scopes.map(s => s.iterator.map(SemanticHighlightingHandler.scopeToStyle).find(style => style != null).orNull).toArray)
+    } else null
+  }
+
+  /**
+    * Creates the resolver of a server supporting semantic tokens, the scope ids being the indexes of the token types of its legend
+    *
+    * @param legend The legend of the server
+    * @return The resolver
+    */
+  def apply(legend: SemanticTokensOptions.Legend): SemanticScopesResolver = {
+    new SemanticScopesResolver(legend.getTokenTypes.asScala.map(SemanticHighlightingHandler.tokenTypeToStyle).toArray)
+  }
+
+  /**
+    * Invalidates the attributes resolved by all the resolvers, to be called when the color scheme changes
+    */
+  def schemeChanged(): Unit = {
+    this.synchronized(schemeGeneration += 1)
+  }
+}
+
+/**
+  * Resolves the scopes of a server once, when it initializes
+  * Each scope id is mapped to the style of its first supported scope (using the TextMate prefix fallback, see SemanticHighlightingHandler.scopeToStyle)
+  * or of its semantic token type, and the TextAttributes are computed once per color scheme, so that resolving a token is a single array access
+  *
+  * @param styles The styles of the scopes of the server, indexed by scope id (null for the unsupported scopes)
+  */
+class SemanticScopesResolver private(styles: Array[Style]) {
+
+  import SemanticScopesResolver._
+
+  private val attributes: util.WeakHashMap[EditorColorsScheme, Array[TextAttributes]] = new util.WeakHashMap[EditorColorsScheme, Array[TextAttributes]]()
+  private var generation = schemeGeneration
+
+  /**
+    * Returns the attributes of all the scope ids for the color scheme of an editor
+    *
+    * @param editor The editor
+    * @return The attributes indexed by scope id, null for the unsupported scopes
+    */
+  def getAttributes(editor: Editor): Array[TextAttributes] = attributes.synchronized {
+    if (generation != schemeGeneration) {
+      attributes.clear()
+      generation = schemeGeneration
+    }
+    //Each editor has its own delegate of the scheme, the attributes are shared by all the editors using the same scheme
+    val scheme = editor.getColorsScheme match {
+      case delegate: DelegateColorScheme => delegate.getDelegate
+      case s => s
+    }
+    var resolved = attributes.get(scheme)
+    if (resolved == null) {
+      resolved = styles.map(s => if (s != null) s.toTextAttributes(editor) else null)
+      attributes.put(scheme, resolved)
+    }
+    resolved
+  }
+
+  /**
+    * @return The number of scope ids
+    */
+  def size: Int = styles.length
+}
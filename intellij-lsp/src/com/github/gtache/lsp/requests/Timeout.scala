@@ -7,7 +7,8 @@ object Timeout {
 
   import Timeouts._
 
-  private var timeouts: Map[Timeouts, Int] = Timeouts.values().map(t => t -> t.getDefaultTimeout).toMap
+  private val defaultTimeouts: Map[Timeouts, Int] = Timeouts.values().map(t => t -> t.getDefaultTimeout).toMap
+  private var timeouts: Map[Timeouts, Int] = defaultTimeouts
 
 
   def getTimeoutsJava: java.util.Map[Timeouts, Integer] = {
@@ -16,14 +17,20 @@ object Timeout {
   }
 
   def setTimeouts(timeouts: Map[Timeouts, Int]): Unit = {
-    this.timeouts = timeouts
+    this.timeouts = defaultTimeouts ++ timeouts
   }
 
   def setTimeouts(timeouts: java.util.Map[Timeouts, Integer]): Unit = {
     import scala.collection.JavaConverters._
-    this.timeouts = timeouts.asScala.map(entry => (entry._1, entry._2.toInt)).toMap
+    this.timeouts = defaultTimeouts ++ timeouts.asScala.map(entry => (entry._1, entry._2.toInt))
   }
 
+  /**
+    * @param kind The kind of request
+    * @return The configured timeout for the request
+    */
+  def getTimeout(kind: Timeouts): Int = timeouts(kind)
+
   def CODEACTION_TIMEOUT: Int = timeouts(CODEACTION)
 
   def CODELENS_TIMEOUT: Int = timeouts(CODELENS)
@@ -32,6 +39,8 @@ object Timeout {
 
   def DEFINITION_TIMEOUT: Int = timeouts(DEFINITION)
 
+  def DIAGNOSTIC_TIMEOUT: Int = timeouts(DIAGNOSTIC)
+
   def DOC_HIGHLIGHT_TIMEOUT: Int = timeouts(DOC_HIGHLIGHT)
 
   def EXECUTE_COMMAND_TIMEOUT: Int = timeouts(EXECUTE_COMMAND)
@@ -46,6 +55,8 @@ object Timeout {
 
   def REFERENCES_TIMEOUT: Int = timeouts(REFERENCES)
 
+  def SEMANTIC_TOKENS_TIMEOUT: Int = timeouts(SEMANTIC_TOKENS)
+
   def SIGNATURE_TIMEOUT: Int = timeouts(SIGNATURE)
 
   def SHUTDOWN_TIMEOUT: Int = timeouts(SHUTDOWN)
@@ -8,6 +8,7 @@ public enum Timeouts {
     CODELENS(2000),
     COMPLETION(1000),
     DEFINITION(2000),
+    DIAGNOSTIC(5000),
     DOC_HIGHLIGHT(1000),
     EXECUTE_COMMAND(2000),
     FORMATTING(2000),
@@ -15,6 +16,7 @@ public enum Timeouts {
     INIT(10000),
     PREPARE_RENAME(2000),
     REFERENCES(2000),
+    SEMANTIC_TOKENS(2000),
     SIGNATURE(1000),
     SHUTDOWN(5000),
     SYMBOLS(2000),
@@ -6,6 +6,7 @@ import com.github.gtache.lsp.client.languageserver.serverdefinition.UserConfigur
 import com.github.gtache.lsp.requests.Timeout;
 import com.github.gtache.lsp.requests.Timeouts;
 import com.github.gtache.lsp.utils.ApplicationUtils$;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.components.State;
@@ -34,9 +35,35 @@ public final class LSPState implements PersistentStateComponent<LSPState> {
     public Map<Timeouts, Integer> timeouts;
     public List<String> coursierResolvers;
     public Map<String[], String[]> forcedAssociations;
+    public int documentSyncDelay;
+    public int fullSyncInterval;
+    public int responseCacheSize;
+    public int adaptiveTimeoutMultiplier;
+    public int adaptiveTimeoutLowerBound;
+    public int adaptiveTimeoutUpperBound;
+    public int diagnosticsStoreSize;
+    public int batchInspectionParallelism;
+    public int batchInspectionMaxFileSize;
+    public boolean warmStartServers;
+    public boolean spareServers;
+    public boolean shareServers;
+    public int hibernationDelay;
 
     public LSPState() {
         alwaysSendRequests = false;
+        documentSyncDelay = 30;
+        fullSyncInterval = 500;
+        responseCacheSize = 500;
+        adaptiveTimeoutMultiplier = 3;
+        adaptiveTimeoutLowerBound = 25;
+        adaptiveTimeoutUpperBound = 500;
+        diagnosticsStoreSize = 100000;
+        batchInspectionParallelism = 8;
+        batchInspectionMaxFileSize = 1024;
+        warmStartServers = false;
+        spareServers = false;
+        shareServers = false;
+        hibernationDelay = 0;
         extToServ = new LinkedHashMap<>(10);
         timeouts = new EnumMap<>(Timeouts.class);
         coursierResolvers = new ArrayList<>(5);
@@ -45,6 +72,10 @@ public final class LSPState implements PersistentStateComponent<LSPState> {
 
     @Nullable
     public static LSPState getInstance() {
+        //There is no application outside of the IDE (unit tests), the callers then use the default values
+        if (ApplicationManager.getApplication() == null) {
+            return null;
+        }
         try {
             return ServiceManager.getService(LSPState.class);
         } catch (final Exception e) {
@@ -86,6 +117,110 @@ public final class LSPState implements PersistentStateComponent<LSPState> {
         this.logServersOutput = b;
     }
 
+    public int getDocumentSyncDelay() {
+        return documentSyncDelay;
+    }
+
+    public void setDocumentSyncDelay(final int documentSyncDelay) {
+        this.documentSyncDelay = documentSyncDelay;
+    }
+
+    public int getFullSyncInterval() {
+        return fullSyncInterval;
+    }
+
+    public void setFullSyncInterval(final int fullSyncInterval) {
+        this.fullSyncInterval = fullSyncInterval;
+    }
+
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public void setResponseCacheSize(final int responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    public int getAdaptiveTimeoutMultiplier() {
+        return adaptiveTimeoutMultiplier;
+    }
+
+    public void setAdaptiveTimeoutMultiplier(final int adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    public int getAdaptiveTimeoutLowerBound() {
+        return adaptiveTimeoutLowerBound;
+    }
+
+    public void setAdaptiveTimeoutLowerBound(final int adaptiveTimeoutLowerBound) {
+        this.adaptiveTimeoutLowerBound = adaptiveTimeoutLowerBound;
+    }
+
+    public int getAdaptiveTimeoutUpperBound() {
+        return adaptiveTimeoutUpperBound;
+    }
+
+    public void setAdaptiveTimeoutUpperBound(final int adaptiveTimeoutUpperBound) {
+        this.adaptiveTimeoutUpperBound = adaptiveTimeoutUpperBound;
+    }
+
+    public int getDiagnosticsStoreSize() {
+        return diagnosticsStoreSize;
+    }
+
+    public void setDiagnosticsStoreSize(final int diagnosticsStoreSize) {
+        this.diagnosticsStoreSize = diagnosticsStoreSize;
+    }
+
+    public int getBatchInspectionParallelism() {
+        return batchInspectionParallelism;
+    }
+
+    public void setBatchInspectionParallelism(final int batchInspectionParallelism) {
+        this.batchInspectionParallelism = batchInspectionParallelism;
+    }
+
+    public int getBatchInspectionMaxFileSize() {
+        return batchInspectionMaxFileSize;
+    }
+
+    public void setBatchInspectionMaxFileSize(final int batchInspectionMaxFileSize) {
+        this.batchInspectionMaxFileSize = batchInspectionMaxFileSize;
+    }
+
+    public boolean isWarmStartServers() {
+        return warmStartServers;
+    }
+
+    public void setWarmStartServers(final boolean warmStartServers) {
+        this.warmStartServers = warmStartServers;
+    }
+
+    public boolean isSpareServers() {
+        return spareServers;
+    }
+
+    public void setSpareServers(final boolean spareServers) {
+        this.spareServers = spareServers;
+    }
+
+    public boolean isShareServers() {
+        return shareServers;
+    }
+
+    public void setShareServers(final boolean shareServers) {
+        this.shareServers = shareServers;
+    }
+
+    public int getHibernationDelay() {
+        return hibernationDelay;
+    }
+
+    public void setHibernationDelay(final int hibernationDelay) {
+        this.hibernationDelay = hibernationDelay;
+    }
+
     public Map<Timeouts, Integer> getTimeouts() {
         return timeouts;
     }
@@ -109,7 +244,20 @@ public final class LSPState implements PersistentStateComponent<LSPState> {
                 3 * extToServ.hashCode() +
                 7 * timeouts.hashCode() +
                 11 * coursierResolvers.hashCode() +
-                13 * forcedAssociations.hashCode();
+                13 * forcedAssociations.hashCode() +
+                19 * Integer.hashCode(documentSyncDelay) +
+                23 * Integer.hashCode(fullSyncInterval) +
+                29 * Integer.hashCode(responseCacheSize) +
+                31 * Integer.hashCode(adaptiveTimeoutMultiplier) +
+                37 * Integer.hashCode(adaptiveTimeoutLowerBound) +
+                41 * Integer.hashCode(adaptiveTimeoutUpperBound) +
+                43 * Integer.hashCode(diagnosticsStoreSize) +
+                47 * Integer.hashCode(batchInspectionParallelism) +
+                53 * Integer.hashCode(batchInspectionMaxFileSize) +
+                59 * Boolean.hashCode(warmStartServers) +
+                61 * Boolean.hashCode(spareServers) +
+                67 * Boolean.hashCode(shareServers) +
+                71 * Integer.hashCode(hibernationDelay);
     }
 
     @Override
@@ -121,7 +269,20 @@ public final class LSPState implements PersistentStateComponent<LSPState> {
                     extToServ.equals(thatS.extToServ) &&
                     timeouts.equals(thatS.timeouts) &&
                     coursierResolvers.equals(thatS.coursierResolvers) &&
-                    forcedAssociations.equals(thatS.forcedAssociations);
+                    forcedAssociations.equals(thatS.forcedAssociations) &&
+                    documentSyncDelay == thatS.documentSyncDelay &&
+                    fullSyncInterval == thatS.fullSyncInterval &&
+                    responseCacheSize == thatS.responseCacheSize &&
+                    adaptiveTimeoutMultiplier == thatS.adaptiveTimeoutMultiplier &&
+                    adaptiveTimeoutLowerBound == thatS.adaptiveTimeoutLowerBound &&
+                    adaptiveTimeoutUpperBound == thatS.adaptiveTimeoutUpperBound &&
+                    diagnosticsStoreSize == thatS.diagnosticsStoreSize &&
+                    batchInspectionParallelism == thatS.batchInspectionParallelism &&
+                    batchInspectionMaxFileSize == thatS.batchInspectionMaxFileSize &&
+                    warmStartServers == thatS.warmStartServers &&
+                    spareServers == thatS.spareServers &&
+                    shareServers == thatS.shareServers &&
+                    hibernationDelay == thatS.hibernationDelay;
         }
         return false;
     }
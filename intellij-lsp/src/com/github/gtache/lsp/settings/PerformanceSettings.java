@@ -0,0 +1,69 @@
+package com.github.gtache.lsp.settings;
+
+import com.github.gtache.lsp.settings.gui.PerformanceGUI;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.options.Configurable;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+
+/**
+ * Settings for the performance related options (delays, caches, ...)
+ */
+public final class PerformanceSettings implements Configurable {
+
+    private static final Logger LOG = Logger.getInstance(PerformanceSettings.class);
+    @Nullable
+    private static PerformanceGUI performanceGUI;
+    private static PerformanceSettings instance;
+
+    private PerformanceSettings() {
+    }
+
+    public static PerformanceSettings getInstance() {
+        if (instance == null) {
+            instance = new PerformanceSettings();
+        }
+        return instance;
+    }
+
+    @Nls
+    @Override
+    public String getDisplayName() {
+        return "Performance";
+    }
+
+    @Nullable
+    @Override
+    public String getHelpTopic() {
+        return "com.github.gtache.lsp.settings.PerformanceSettings";
+    }
+
+    @Nullable
+    @Override
+    public JComponent createComponent() {
+        performanceGUI = new PerformanceGUI();
+        return performanceGUI.getRootPanel();
+    }
+
+    @Override
+    public boolean isModified() {
+        return performanceGUI.isModified();
+    }
+
+    @Override
+    public void apply() {
+        performanceGUI.apply();
+    }
+
+    @Override
+    public void reset() {
+        performanceGUI.reset();
+    }
+
+    @Override
+    public void disposeUIResources() {
+        performanceGUI = null;
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.gtache.lsp.settings.gui;
+
+import com.intellij.uiDesigner.core.GridConstraints;
+import com.intellij.uiDesigner.core.GridLayoutManager;
+import com.intellij.uiDesigner.core.Spacer;
+import com.intellij.util.ui.JBUI;
+
+import javax.swing.*;
+import javax.swing.text.NumberFormatter;
+import java.awt.*;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * GUI for the Performance settings
+ */
+public final class PerformanceGUI implements LSPGUI {
+    private static final String MILLIS_TOOLTIP = "Time in milliseconds";
+    private final List<IntegerRow> integerRows = new ArrayList<>(10);
+    private final List<BooleanRow> booleanRows = new ArrayList<>(3);
+    private final JPanel rootPanel;
+
+    public PerformanceGUI() {
+        integerRows.add(new IntegerRow("Document changes delay", MILLIS_TOOLTIP + " during which the document changes are merged before being sent to the server",
+                state()::getDocumentSyncDelay, state()::setDocumentSyncDelay));
+        integerRows.add(new IntegerRow("Full document sync interval", MILLIS_TOOLTIP + " between two full text updates, for servers not supporting incremental changes",
+                state()::getFullSyncInterval, state()::setFullSyncInterval));
+        integerRows.add(new IntegerRow("Response cache size", "Maximum number of hover, definition, highlight and signature responses cached per server (0 to disable)",
+                state()::getResponseCacheSize, state()::setResponseCacheSize));
+        integerRows.add(new IntegerRow("Adaptive timeout multiplier", "The timeout of a request is its 99th percentile latency times this multiplier (0 to always use the configured timeouts)",
+                state()::getAdaptiveTimeoutMultiplier, state()::setAdaptiveTimeoutMultiplier));
+        integerRows.add(new IntegerRow("Adaptive timeout lower bound (%)", "Minimum adaptive timeout, in percent of the configured timeout",
+                state()::getAdaptiveTimeoutLowerBound, state()::setAdaptiveTimeoutLowerBound));
+        integerRows.add(new IntegerRow("Adaptive timeout upper bound (%)", "Maximum adaptive timeout, in percent of the configured timeout",
+                state()::getAdaptiveTimeoutUpperBound, state()::setAdaptiveTimeoutUpperBound));
+        integerRows.add(new IntegerRow("Diagnostics store size", "Maximum number of diagnostics kept per server for the files which aren't opened in an editor",
+                state()::getDiagnosticsStoreSize, state()::setDiagnosticsStoreSize));
+        integerRows.add(new IntegerRow("Project inspection parallelism", "Maximum number of documents opened at the same time per server when inspecting the whole project",
+                state()::getBatchInspectionParallelism, state()::setBatchInspectionParallelism));
+        integerRows.add(new IntegerRow("Project inspection max file size (KB)", "Files bigger than this are skipped when inspecting the whole project",
+                state()::getBatchInspectionMaxFileSize, state()::setBatchInspectionMaxFileSize));
+        integerRows.add(new IntegerRow("Hibernate idle servers after (min)", "Stop the server of a project without activity for this many minutes, and restart it on the next edit (0 to never hibernate)",
+                state()::getHibernationDelay, state()::setHibernationDelay));
+        booleanRows.add(new BooleanRow("Start servers when a project opens", "Start and initialize in the background the servers of the file types of a project when it is opened",
+                state()::isWarmStartServers, state()::setWarmStartServers));
+        booleanRows.add(new BooleanRow("Keep a spare server process", "Keep a spare process of each running server, used to restart it quickly after a crash",
+                state()::isSpareServers, state()::setSpareServers));
+        booleanRows.add(new BooleanRow("Share servers between projects", "Use a single process of a server for all the opened projects, as workspace folders, if the server supports them",
+                state()::isShareServers, state()::setShareServers));
+        rootPanel = createRootPanel();
+        reset();
+    }
+
+    private static GridConstraints createGridConstraints(final int rowIdx, final int colIdx, final Dimension preferredSize) {
+        return new GridConstraints(rowIdx, colIdx, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, preferredSize, null, 0, false);
+    }
+
+    private static GridConstraints createSpacerGridConstraints(final int rowIdx, final int colIdx) {
+        return new GridConstraints(rowIdx, colIdx, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_GROW, 1, null, null, null, 0, false);
+    }
+
+    private static JFormattedTextField createIntegerField(final String tooltip) {
+        final NumberFormat format = NumberFormat.getInstance();
+        final NumberFormatter formatter = new NumberFormatter(format);
+        format.setGroupingUsed(false);
+        formatter.setValueClass(Integer.class);
+        formatter.setMinimum(0);
+        formatter.setAllowsInvalid(true);
+        formatter.setMaximum(Integer.MAX_VALUE);
+        final JFormattedTextField field = new JFormattedTextField(formatter);
+        field.setToolTipText(tooltip);
+        return field;
+    }
+
+    @Override
+    public JPanel getRootPanel() {
+        return rootPanel;
+    }
+
+    private JPanel createRootPanel() {
+        final JPanel panel = new JPanel();
+        panel.setLayout(new GridLayoutManager(integerRows.size() + booleanRows.size(), 3, JBUI.emptyInsets(), -1, -1));
+        int idx = 0;
+        for (final IntegerRow row : integerRows) {
+            panel.add(new JLabel(row.name), createGridConstraints(idx, 0, null));
+            panel.add(row.field, createGridConstraints(idx, 1, new Dimension(100, 10)));
+            panel.add(new Spacer(), createSpacerGridConstraints(idx, 2));
+            idx += 1;
+        }
+        for (final BooleanRow row : booleanRows) {
+            panel.add(row.checkBox, createGridConstraints(idx, 0, null));
+            panel.add(new Spacer(), createSpacerGridConstraints(idx, 2));
+            idx += 1;
+        }
+        return panel;
+    }
+
+    @Override
+    public void apply() {
+        integerRows.forEach(row -> row.setter.accept(Integer.parseInt(row.field.getText())));
+        booleanRows.forEach(row -> row.setter.accept(row.checkBox.isSelected()));
+    }
+
+    @Override
+    public void reset() {
+        integerRows.forEach(row -> row.field.setText(Integer.toString(row.getter.getAsInt())));
+        booleanRows.forEach(row -> row.checkBox.setSelected(row.getter.getAsBoolean()));
+    }
+
+    @Override
+    public boolean isModified() {
+        if (booleanRows.stream().anyMatch(row -> row.getter.getAsBoolean() != row.checkBox.isSelected())) {
+            return true;
+        }
+        try { //Don't allow apply if the value is not valid
+            return integerRows.stream().anyMatch(row -> {
+                final int newValue = Integer.parseInt(row.field.getText());
+                return row.getter.getAsInt() != newValue && newValue >= 0;
+            });
+        } catch (final NumberFormatException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * A row containing an integer setting
+     */
+    private static final class IntegerRow {
+        private final String name;
+        private final JFormattedTextField field;
+        private final IntSupplier getter;
+        private final IntConsumer setter;
+
+        private IntegerRow(final String name, final String tooltip, final IntSupplier getter, final IntConsumer setter) {
+            this.name = name;
+            this.field = createIntegerField(tooltip);
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    /**
+     * A row containing a boolean setting
+     */
+    private static final class BooleanRow {
+        private final JCheckBox checkBox;
+        private final BooleanSupplier getter;
+        private final Consumer<Boolean> setter;
+
+        private BooleanRow(final String name, final String tooltip, final BooleanSupplier getter, final Consumer<Boolean> setter) {
+            this.checkBox = new JCheckBox(name);
+            this.checkBox.setToolTipText(tooltip);
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+}
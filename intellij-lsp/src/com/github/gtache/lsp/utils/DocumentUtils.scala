@@ -4,7 +4,6 @@ import com.github.gtache.lsp.utils.ApplicationUtils.computableReadAction
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.editor.{Document, Editor, LogicalPosition}
 import com.intellij.openapi.util.TextRange
-import com.intellij.util.DocumentUtil
 import org.eclipse.lsp4j.Position
 
 /**
@@ -54,13 +53,37 @@ object DocumentUtils {
     * @return an LSP position
     */
   def offsetToLSPPos(editor: Editor, offset: Int): Position = {
+    computableReadAction(() => offsetToLSPPos(editor.getDocument, offset))
+  }
+
+  /**
+    * Calculates a Position given a document and an offset, without acquiring a read action
+    * The line is found using the line index of the document, and no text is copied
+    *
+    * @param doc        The document
+    * @param offset     The offset
+    * @param codePoints Whether the column is counted in code points instead of UTF-16 code units
+    * @return an LSP position
+    */
+  def offsetToLSPPos(doc: Document, offset: Int, codePoints: Boolean = false): Position = {
+    val clampedOffset = math.min(math.max(offset, 0), doc.getTextLength)
+    val line = doc.getLineNumber(clampedOffset)
+    val lineStart = doc.getLineStartOffset(line)
+    val column = if (codePoints) Character.codePointCount(doc.getImmutableCharSequence, lineStart, clampedOffset) else clampedOffset - lineStart
+    new Position(line, column)
+  }
+
+  /**
+    * Calculates the Positions of multiple offsets in a single read action
+    *
+    * @param editor  The editor
+    * @param offsets The offsets
+    * @return the LSP positions
+    */
+  def offsetsToLSPPos(editor: Editor, offsets: Seq[Int]): Seq[Position] = {
     computableReadAction(() => {
       val doc = editor.getDocument
-      val line = doc.getLineNumber(offset)
-      val lineStart = doc.getLineStartOffset(line)
-      val lineTextBeforeOffset = doc.getTextClamped(TextRange.create(lineStart, offset))
-      val column = lineTextBeforeOffset.length
-      new Position(line, column)
+      offsets.map(o => offsetToLSPPos(doc, o))
     })
   }
 
@@ -72,31 +95,93 @@ object DocumentUtils {
     * @return The offset
     */
   def LSPPosToOffset(editor: Editor, pos: Position): Int = {
-    computableReadAction(() => {
-      val doc = editor.getDocument
-      val line = math.max(0, math.min(pos.getLine, doc.getLineCount - 1))
-      val docLength = doc.getTextLength
-      val offset = doc.getLineStartOffset(line) + pos.getCharacter
-      if (!DocumentUtil.isValidOffset(offset, doc)) {
-        LOG.debug("Invalid offset : " + offset + ", doclength " + docLength)
-      }
-      math.min(math.max(offset, 0), docLength - 1)
-    })
+    computableReadAction(() => LSPPosToOffset(editor.getDocument, pos))
+  }
+
+  /**
+    * Transforms an LSP position to an offset, without acquiring a read action
+    * A column greater than the line length defaults back to the line length
+    *
+    * @param doc        The document
+    * @param pos        The LSPPos
+    * @param codePoints Whether the column is counted in code points instead of UTF-16 code units
+    * @return The offset
+    */
+  def LSPPosToOffset(doc: Document, pos: Position, codePoints: Boolean = false): Int = {
+    val line = math.max(0, math.min(pos.getLine, doc.getLineCount - 1))
+    val lineStart = doc.getLineStartOffset(line)
+    val lineEnd = doc.getLineEndOffset(line)
+    val character = math.max(0, pos.getCharacter)
+    val lineLength = if (codePoints) Character.codePointCount(doc.getImmutableCharSequence, lineStart, lineEnd) else lineEnd - lineStart
+    if (pos.getLine >= doc.getLineCount || character > lineLength) {
+      LOG.debug("Invalid position : " + pos + ", line count " + doc.getLineCount + ", line length " + lineLength)
+    }
+    if (character >= lineLength) {
+      lineEnd
+    } else if (codePoints) {
+      Character.offsetByCodePoints(doc.getImmutableCharSequence, lineStart, character)
+    } else {
+      lineStart + character
+    }
   }
 
   def LSPRangeToTextRange(editor: Editor, range: org.eclipse.lsp4j.Range): TextRange = {
-    if (range != null) new TextRange(LSPPosToOffset(editor, range.getStart), LSPPosToOffset(editor, range.getEnd)) else null
+    if (range != null) computableReadAction(() => LSPRangeToTextRange(editor.getDocument, range)) else null
   }
 
-  def expandOffsetToToken(editor: Editor, offset: Int): TextRange = {
+  /**
+    * Transforms an LSP range to a TextRange, without acquiring a read action
+    *
+    * @param doc        The document
+    * @param range      The range
+    * @param codePoints Whether the columns are counted in code points instead of UTF-16 code units
+    * @return The TextRange
+    */
+  def LSPRangeToTextRange(doc: Document, range: org.eclipse.lsp4j.Range, codePoints: Boolean = false): TextRange = {
+    if (range != null) {
+      val start = LSPPosToOffset(doc, range.getStart, codePoints)
+      val end = LSPPosToOffset(doc, range.getEnd, codePoints)
+      new TextRange(start, math.max(start, end))
+    } else null
+  }
+
+  /**
+    * Transforms multiple LSP ranges to TextRanges in a single read action
+    *
+    * @param editor The editor
+    * @param ranges The ranges
+    * @return The TextRanges
+    */
+  def LSPRangesToTextRanges(editor: Editor, ranges: Seq[org.eclipse.lsp4j.Range]): Seq[TextRange] = {
     computableReadAction(() => {
-      val text = editor.getDocument.getText
-      val negOffset = offset - text.take(offset).reverse.takeWhile(c => c.isLetterOrDigit || c=='_').length
-      val posOffset = offset + text.drop(offset).takeWhile(c => c.isLetterOrDigit || c=='_').length
-      new TextRange(negOffset, posOffset)
+      val doc = editor.getDocument
+      ranges.map(r => LSPRangeToTextRange(doc, r))
     })
   }
 
+  def expandOffsetToToken(editor: Editor, offset: Int): TextRange = {
+    computableReadAction(() => expandOffsetToToken(editor.getDocument, offset))
+  }
+
+  /**
+    * Expands an offset to the identifier surrounding it, without acquiring a read action
+    *
+    * @param doc    The document
+    * @param offset The offset
+    * @return The range of the identifier
+    */
+  def expandOffsetToToken(doc: Document, offset: Int): TextRange = {
+    def isTokenChar(c: Char): Boolean = c.isLetterOrDigit || c == '_'
+
+    val chars = doc.getImmutableCharSequence
+    val clampedOffset = math.min(math.max(offset, 0), chars.length())
+    var start = clampedOffset
+    while (start > 0 && isTokenChar(chars.charAt(start - 1))) start -= 1
+    var end = clampedOffset
+    while (end < chars.length() && isTokenChar(chars.charAt(end))) end += 1
+    new TextRange(start, end)
+  }
+
   implicit class DocumentExt(doc: Document) {
     def getTextClamped(start: Int, end: Int): String = {
       val textRange = new TextRange(Math.max(0, start), Math.min(doc.getTextLength - 1, end))
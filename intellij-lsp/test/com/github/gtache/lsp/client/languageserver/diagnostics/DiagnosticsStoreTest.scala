@@ -0,0 +1,105 @@
+package com.github.gtache.lsp.client.languageserver.diagnostics
+
+import org.eclipse.lsp4j.{Diagnostic, DiagnosticSeverity, Position, Range}
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.mutable
+
+class DiagnosticsStoreTest {
+
+  private val reported: mutable.Map[String, Boolean] = mutable.HashMap()
+  private val evicted: mutable.Buffer[String] = mutable.ArrayBuffer()
+
+  //Reports the problems locally instead of to the project, and fits 10 diagnostics
+  private val store = new DiagnosticsStore(null) {
+    override protected def maxSize: Int = 10
+
+    override protected def reportProblems(uri: String, hasErrors: Boolean): Unit = reported.put(uri, hasErrors)
+  }
+  store.addEvictionListener(uri => evicted += uri)
+
+  private def diagnostics(count: Int, severity: DiagnosticSeverity = DiagnosticSeverity.Warning): Seq[Diagnostic] =
+    (0 until count).map(i => new Diagnostic(new Range(new Position(i, 0), new Position(i, 5)), "message " + i, severity, "source"))
+
+  @Test
+  def publishedDiagnosticsAreCounted(): Unit = {
+    store.publish("a", diagnostics(3))
+    store.publish("b", diagnostics(2))
+    assertEquals(5, store.getSize)
+    assertEquals(diagnostics(3), store.get("a"))
+  }
+
+  @Test
+  def republishingReplacesTheCount(): Unit = {
+    store.publish("a", diagnostics(3))
+    store.publish("a", diagnostics(1))
+    assertEquals(1, store.getSize)
+  }
+
+  @Test
+  def publishingNothingRemovesTheDocument(): Unit = {
+    store.publish("a", diagnostics(3))
+    store.publish("a", Nil)
+    assertEquals(0, store.getSize)
+    assertFalse(store.contains("a"))
+  }
+
+  @Test
+  def leastRecentlyUsedDocumentIsEvicted(): Unit = {
+    store.publish("a", diagnostics(4))
+    store.publish("b", diagnostics(4))
+    store.get("a")
+    store.publish("c", diagnostics(4))
+    assertEquals(Set("a", "c"), store.getUris.toSet)
+    assertEquals(8, store.getSize)
+    assertEquals(Seq("b"), evicted)
+  }
+
+  @Test
+  def documentsAreEvictedUntilTheStoreFits(): Unit = {
+    store.publish("a", diagnostics(3))
+    store.publish("b", diagnostics(3))
+    store.publish("c", diagnostics(3))
+    store.publish("d", diagnostics(7))
+    assertEquals(Seq("c", "d"), store.getUris)
+    assertEquals(10, store.getSize)
+    assertEquals(Set("a", "b"), evicted.toSet)
+  }
+
+  @Test
+  def republishingDoesNotCountTheDocumentTwice(): Unit = {
+    store.publish("a", diagnostics(6))
+    store.publish("b", diagnostics(4))
+    store.publish("a", diagnostics(5))
+    assertEquals(9, store.getSize)
+    assertTrue(evicted.isEmpty)
+  }
+
+  @Test
+  def documentLargerThanTheStoreIsNotKept(): Unit = {
+    store.publish("a", diagnostics(2))
+    store.publish("b", diagnostics(11))
+    assertEquals(0, store.getSize)
+    assertTrue(store.getUris.isEmpty)
+    assertEquals(Set("a", "b"), evicted.toSet)
+  }
+
+  @Test
+  def evictedErrorsAreCleared(): Unit = {
+    store.publish("a", diagnostics(6, DiagnosticSeverity.Error))
+    assertEquals(Some(true), reported.get("a"))
+    store.publish("b", diagnostics(6))
+    assertEquals(Some(false), reported.get("a"))
+  }
+
+  @Test
+  def clearResetsTheCount(): Unit = {
+    store.publish("a", diagnostics(3, DiagnosticSeverity.Error))
+    store.clear()
+    assertEquals(0, store.getSize)
+    assertEquals(Some(false), reported.get("a"))
+    store.publish("b", diagnostics(10))
+    assertTrue(evicted.isEmpty)
+  }
+}
@@ -0,0 +1,140 @@
+package com.github.gtache.lsp.client.languageserver.requestmanager
+
+import java.util
+import java.util.concurrent.CompletableFuture
+
+import com.github.gtache.lsp.client.languageserver.requestmanager.ResponseCache.Key
+import org.eclipse.lsp4j._
+import org.eclipse.lsp4j.jsonrpc.messages
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.mutable
+
+class DedupingRequestManagerTest {
+
+  private val uri = "file:///test.txt"
+
+  /**
+    * A delegate keeping the requests it sends, which are only completed by the tests
+    */
+  private class StubRequestManager extends DedupingRequestManager(null, new ResponseCache) {
+    val hovers: mutable.Buffer[CompletableFuture[Hover]] = mutable.ArrayBuffer()
+    val definitions: mutable.Buffer[CompletableFuture[messages.Either[util.List[_ <: Location], util.List[_ <: LocationLink]]]] = mutable.ArrayBuffer()
+    var refuse = false
+
+    override def didOpen(params: DidOpenTextDocumentParams): Unit = {}
+
+    override def didChange(params: DidChangeTextDocumentParams): Unit = {}
+
+    override def hover(params: TextDocumentPositionParams): CompletableFuture[Hover] = send(hovers)
+
+    override def definition(params: TextDocumentPositionParams): CompletableFuture[messages.Either[util.List[_ <: Location], util.List[_ <: LocationLink]]] =
+      send(definitions)
+
+    private def send[T](sent: mutable.Buffer[CompletableFuture[T]]): CompletableFuture[T] = if (refuse) null else {
+      val request = new CompletableFuture[T]()
+      sent += request
+      request
+    }
+  }
+
+  private val delegate = new StubRequestManager
+  private val cache = new ResponseCache
+  private val manager = new DedupingRequestManager(delegate, cache)
+  manager.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, "plaintext", 1, "")))
+
+  private def position(line: Int, character: Int): TextDocumentPositionParams =
+    new TextDocumentPositionParams(new TextDocumentIdentifier(uri), new Position(line, character))
+
+  private def changeVersion(version: Int): Unit =
+    manager.didChange(new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(uri, version), util.Collections.emptyList()))
+
+  @Test
+  def identicalRequestsShareTheResponse(): Unit = {
+    val first = manager.hover(position(1, 2))
+    val second = manager.hover(position(1, 2))
+    assertEquals(1, delegate.hovers.size)
+    val hover = new Hover()
+    delegate.hovers.head.complete(hover)
+    assertSame(hover, first.getNow(null))
+    assertSame(hover, second.getNow(null))
+  }
+
+  @Test
+  def sharedRequestIsCancelledWithItsLastSubscriber(): Unit = {
+    val first = manager.definition(position(1, 2))
+    val second = manager.definition(position(1, 2))
+    assertEquals(1, delegate.definitions.size)
+    first.cancel(true)
+    assertFalse(delegate.definitions.head.isDone)
+    second.cancel(true)
+    assertTrue(delegate.definitions.head.isCancelled)
+  }
+
+  @Test
+  def newHoverSupersedesThePreviousOne(): Unit = {
+    val first = manager.hover(position(1, 2))
+    val second = manager.hover(position(1, 3))
+    assertEquals(2, delegate.hovers.size)
+    assertTrue(delegate.hovers.head.isCancelled)
+    assertTrue(first.isCompletedExceptionally)
+    assertFalse(second.isDone)
+  }
+
+  @Test
+  def definitionsAreNotSuperseded(): Unit = {
+    val first = manager.definition(position(1, 2))
+    manager.definition(position(1, 3))
+    assertEquals(2, delegate.definitions.size)
+    assertFalse(delegate.definitions.head.isDone)
+    assertFalse(first.isDone)
+  }
+
+  @Test
+  def responseIsCachedWhileTheDocumentDoesNotChange(): Unit = {
+    val hover = new Hover()
+    manager.hover(position(1, 2))
+    delegate.hovers.head.complete(hover)
+    assertEquals(Some(hover), cache.get(Key(DedupingRequestManager.HOVER, uri, 1, 1, 2)))
+    assertSame(hover, manager.hover(position(1, 2)).getNow(null))
+    assertEquals(1, delegate.hovers.size)
+  }
+
+  @Test
+  def cachedResponseIsDroppedWhenTheDocumentChanges(): Unit = {
+    manager.hover(position(1, 2))
+    delegate.hovers.head.complete(new Hover())
+    changeVersion(2)
+    val result = manager.hover(position(1, 2))
+    assertEquals(2, delegate.hovers.size)
+    assertFalse(result.isDone)
+  }
+
+  @Test
+  def responseToAnOutdatedVersionIsNotCached(): Unit = {
+    val outdated = manager.hover(position(1, 2))
+    changeVersion(2)
+    delegate.hovers.head.complete(new Hover())
+    assertTrue(outdated.isDone)
+    assertEquals(None, cache.get(Key(DedupingRequestManager.HOVER, uri, 1, 1, 2)))
+  }
+
+  @Test
+  def requestsOnDifferentVersionsAreNotShared(): Unit = {
+    val first = manager.definition(position(1, 2))
+    changeVersion(2)
+    manager.definition(position(1, 2))
+    assertEquals(2, delegate.definitions.size)
+    assertFalse(first.isDone)
+  }
+
+  @Test
+  def unsentRequestIsSentAgain(): Unit = {
+    delegate.refuse = true
+    assertNull(manager.hover(position(1, 2)))
+    delegate.refuse = false
+    assertNotNull(manager.hover(position(1, 2)))
+    assertEquals(1, delegate.hovers.size)
+  }
+}
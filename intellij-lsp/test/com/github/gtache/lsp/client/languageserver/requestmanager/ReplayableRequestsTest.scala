@@ -0,0 +1,97 @@
+package com.github.gtache.lsp.client.languageserver.requestmanager
+
+import java.util.concurrent.CompletableFuture
+
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.mutable
+
+class ReplayableRequestsTest {
+
+  private val uri = "file:///test.txt"
+  private val stamps: mutable.Map[String, Long] = mutable.HashMap(uri -> 1L)
+  private val requests = new ReplayableRequests(u => stamps.getOrElse(u, -1L))
+  private val restartedManager: RequestManager = new DedupingRequestManager(null, new ResponseCache)
+
+  @Test
+  def responseIsForwarded(): Unit = {
+    val request = new CompletableFuture[String]()
+    val result = requests.track(uri, request, _ => null)
+    assertEquals(1, requests.size)
+    request.complete("response")
+    assertEquals("response", result.getNow(null))
+    assertEquals(0, requests.size)
+  }
+
+  @Test
+  def errorIsForwardedWhenNotSuspended(): Unit = {
+    val request = new CompletableFuture[String]()
+    val result = requests.track(uri, request, _ => null)
+    request.completeExceptionally(new IllegalStateException())
+    assertTrue(result.isCompletedExceptionally)
+  }
+
+  @Test
+  def suspendedRequestIsResentOnResume(): Unit = {
+    val request = new CompletableFuture[String]()
+    val resent = new CompletableFuture[String]()
+    val result = requests.track(uri, request, _ => resent)
+    requests.suspend()
+    request.completeExceptionally(new IllegalStateException("crash"))
+    assertFalse(result.isDone)
+    requests.resume(restartedManager)
+    resent.complete("replayed")
+    assertEquals("replayed", result.getNow(null))
+  }
+
+  @Test
+  def requestIsCancelledIfTheDocumentChanged(): Unit = {
+    val resent = new CompletableFuture[String]()
+    val result = requests.track(uri, new CompletableFuture[String](), _ => resent)
+    requests.suspend()
+    stamps.put(uri, 2L)
+    requests.resume(restartedManager)
+    assertTrue(result.isCancelled)
+    assertFalse(resent.isDone)
+  }
+
+  @Test
+  def requestWithoutDocumentIsAlwaysResent(): Unit = {
+    val resent = new CompletableFuture[String]()
+    val result = requests.track(null, new CompletableFuture[String](), _ => resent)
+    requests.suspend()
+    stamps.clear()
+    requests.resume(restartedManager)
+    resent.complete("symbols")
+    assertEquals("symbols", result.getNow(null))
+  }
+
+  @Test
+  def requestIsCancelledWithoutRequestManager(): Unit = {
+    val result = requests.track(uri, new CompletableFuture[String](), _ => new CompletableFuture[String]())
+    requests.suspend()
+    requests.resume(null)
+    assertTrue(result.isCancelled)
+  }
+
+  @Test
+  def cancellingTheResultCancelsTheRequest(): Unit = {
+    val request = new CompletableFuture[String]()
+    val result = requests.track(uri, request, _ => null)
+    result.cancel(true)
+    assertTrue(request.isCancelled)
+    assertEquals(0, requests.size)
+  }
+
+  @Test
+  def cancelAllCancelsThePendingRequests(): Unit = {
+    val first = requests.track(uri, new CompletableFuture[String](), _ => null)
+    val second = requests.track(null, new CompletableFuture[String](), _ => null)
+    requests.suspend()
+    requests.cancelAll()
+    assertTrue(first.isCancelled)
+    assertTrue(second.isCancelled)
+    assertEquals(0, requests.size)
+  }
+}
@@ -0,0 +1,71 @@
+package com.github.gtache.lsp.client.languageserver.wrapper
+
+import java.io.IOException
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import org.junit.Assert._
+import org.junit.Test
+
+class ServerSupervisorTest {
+
+  private val stops = new AtomicInteger()
+  private val restarted = new CountDownLatch(1)
+  private val gaveUp = new AtomicReference[Exception]()
+  private val supervisor = new ServerSupervisor("test", () => true, () => stops.incrementAndGet(), () => restarted.countDown(), e => gaveUp.set(e))
+
+  @Test
+  def backoffDoublesAfterEachCrash(): Unit = {
+    assertEquals(500, ServerSupervisor.backoff(1))
+    assertEquals(1000, ServerSupervisor.backoff(2))
+    assertEquals(2000, ServerSupervisor.backoff(3))
+    assertEquals(8000, ServerSupervisor.backoff(5))
+  }
+
+  @Test
+  def backoffGivesUpAfterTooManyCrashes(): Unit = {
+    assertEquals(-1, ServerSupervisor.backoff(6))
+    assertEquals(-1, ServerSupervisor.backoff(10))
+  }
+
+  @Test
+  def crashStopsAndRestartsTheServer(): Unit = {
+    supervisor.crashed(new IOException("crash"))
+    assertEquals(1, stops.get())
+    assertTrue(supervisor.isRestarting)
+    assertTrue(restarted.await(5, TimeUnit.SECONDS))
+    assertFalse(supervisor.isRestarting)
+    assertNull(gaveUp.get())
+  }
+
+  @Test
+  def crashesWhileRestartingAreIgnored(): Unit = {
+    supervisor.crashed(new IOException("crash"))
+    supervisor.crashed(new IOException("same crash"))
+    supervisor.crashed(new IOException("same crash"))
+    assertEquals(1, stops.get())
+    assertTrue(restarted.await(5, TimeUnit.SECONDS))
+  }
+
+  @Test
+  def stoppedCancelsTheRestart(): Unit = {
+    supervisor.crashed(new IOException("crash"))
+    supervisor.stopped()
+    assertFalse(supervisor.isRestarting)
+    assertFalse(restarted.await(1, TimeUnit.SECONDS))
+  }
+
+  @Test
+  def givesUpAfterConsecutiveCrashes(): Unit = {
+    val last = new IOException("last crash")
+    (1 to 5).foreach(i => {
+      supervisor.crashed(new IOException("crash " + i))
+      supervisor.stopped()
+    })
+    assertNull(gaveUp.get())
+    supervisor.crashed(last)
+    assertSame(last, gaveUp.get())
+    assertEquals(5, stops.get())
+    assertFalse(supervisor.isRestarting)
+  }
+}
@@ -0,0 +1,103 @@
+package com.github.gtache.lsp.editor
+
+import com.github.gtache.lsp.editor.DocumentChangesPipeline.{createChangeEvent, mergeChanges}
+import org.eclipse.lsp4j.{Position, Range, TextDocumentContentChangeEvent}
+import org.junit.Assert._
+import org.junit.Test
+
+class DocumentChangesPipelineTest {
+
+  private val text = "line zero\nline one\nline two"
+
+  private def change(line: Int, start: Int, end: Int, newText: String): TextDocumentContentChangeEvent =
+    new TextDocumentContentChangeEvent(new Range(new Position(line, start), new Position(line, end)), end - start, newText)
+
+  private def offset(text: String, position: Position): Int =
+    text.split("\n", -1).take(position.getLine).map(_.length + 1).sum + position.getCharacter
+
+  //Applies a change like a server would, using its range
+  private def apply(text: String, event: TextDocumentContentChangeEvent): String =
+    text.substring(0, offset(text, event.getRange.getStart)) + event.getText + text.substring(offset(text, event.getRange.getEnd))
+
+  private def assertMerged(previous: TextDocumentContentChangeEvent, next: TextDocumentContentChangeEvent): TextDocumentContentChangeEvent = {
+    val merged = mergeChanges(previous, next)
+    assertNotNull(merged)
+    assertEquals(apply(apply(text, previous), next), apply(text, merged))
+    assertEquals(offset(text, merged.getRange.getEnd) - offset(text, merged.getRange.getStart), merged.getRangeLength.intValue)
+    merged
+  }
+
+  @Test
+  def typingIsMerged(): Unit = {
+    val merged = assertMerged(change(1, 5, 5, "x"), change(1, 6, 6, "y"))
+    assertEquals(new Range(new Position(1, 5), new Position(1, 5)), merged.getRange)
+    assertEquals("xy", merged.getText)
+  }
+
+  @Test
+  def typingAfterReplacementIsMerged(): Unit = {
+    val merged = assertMerged(change(1, 5, 8, "two"), change(1, 8, 8, "!"))
+    assertEquals(new Range(new Position(1, 5), new Position(1, 8)), merged.getRange)
+    assertEquals("two!", merged.getText)
+  }
+
+  @Test
+  def deletingTypedTextIsMerged(): Unit = {
+    val merged = assertMerged(change(0, 4, 4, "abc"), change(0, 6, 7, ""))
+    assertEquals(new Range(new Position(0, 4), new Position(0, 4)), merged.getRange)
+    assertEquals("ab", merged.getText)
+  }
+
+  @Test
+  def deletingAllTypedTextIsMerged(): Unit = {
+    val merged = assertMerged(change(0, 4, 4, "abc"), change(0, 4, 7, ""))
+    assertEquals("", merged.getText)
+    assertEquals(0, merged.getRangeLength.intValue)
+  }
+
+  @Test
+  def backspacesAreMerged(): Unit = {
+    val merged = assertMerged(change(2, 7, 8, ""), change(2, 6, 7, ""))
+    assertEquals(new Range(new Position(2, 6), new Position(2, 8)), merged.getRange)
+    assertEquals(2, merged.getRangeLength.intValue)
+  }
+
+  @Test
+  def deletionBeforeTypedTextIsNotMerged(): Unit = {
+    assertNull(mergeChanges(change(0, 4, 4, "x"), change(0, 3, 5, "")))
+  }
+
+  @Test
+  def forwardDeletionsAreNotMerged(): Unit = {
+    assertNull(mergeChanges(change(0, 4, 5, ""), change(0, 4, 5, "")))
+  }
+
+  @Test
+  def typingElsewhereIsNotMerged(): Unit = {
+    assertNull(mergeChanges(change(0, 4, 4, "x"), change(0, 2, 2, "y")))
+    assertNull(mergeChanges(change(0, 4, 4, "x"), change(0, 6, 6, "y")))
+  }
+
+  @Test
+  def changesOnOtherLinesAreNotMerged(): Unit = {
+    assertNull(mergeChanges(change(0, 4, 4, "x"), change(1, 5, 5, "y")))
+  }
+
+  @Test
+  def newLinesAreNotMerged(): Unit = {
+    assertNull(mergeChanges(change(0, 4, 4, "\n"), change(1, 0, 0, "y")))
+  }
+
+  @Test
+  def fullTextChangesAreNotMerged(): Unit = {
+    assertNull(mergeChanges(new TextDocumentContentChangeEvent(text), change(0, 0, 0, "x")))
+    assertNull(mergeChanges(change(0, 0, 0, "x"), new TextDocumentContentChangeEvent(text)))
+  }
+
+  @Test
+  def changeEventSpansTheReplacedLines(): Unit = {
+    val event = createChangeEvent(new Position(0, 5), "zero\nline one\nline", "x")
+    assertEquals(new Range(new Position(0, 5), new Position(2, 4)), event.getRange)
+    assertEquals("line x two", apply(text, event))
+  }
+}
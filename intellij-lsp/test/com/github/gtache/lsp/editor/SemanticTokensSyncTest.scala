@@ -0,0 +1,101 @@
+package com.github.gtache.lsp.editor
+
+import com.google.gson.{JsonArray, JsonObject}
+import org.junit.Assert._
+import org.junit.Test
+
+class SemanticTokensSyncTest {
+
+  private val data = (1 to 10).toArray
+
+  //line 0 : (2, 3, 1) and (7, 2, 2), line 2 : (4, 1, 0), line 3 : (1, 6, 3)
+  private val tokens = Array(0, 2, 3, 1, 0, 0, 5, 2, 2, 0, 2, 4, 1, 0, 0, 1, 1, 6, 3, 0)
+
+  private def edits(edits: (Int, Int, Seq[Int])*): JsonArray = {
+    val array = new JsonArray()
+    edits.foreach { case (start, deleteCount, inserted) =>
+      val edit = new JsonObject()
+      edit.addProperty("start", start)
+      edit.addProperty("deleteCount", deleteCount)
+      val insertedArray = new JsonArray()
+      inserted.foreach(i => insertedArray.add(Integer.valueOf(i)))
+      edit.add("data", insertedArray)
+      array.add(edit)
+    }
+    array
+  }
+
+  @Test
+  def insertAtStart(): Unit = {
+    assertArrayEquals(Array(7, 7) ++ data, SemanticTokensSync.applyEdits(data, edits((0, 0, Seq(7, 7)))))
+  }
+
+  @Test
+  def replaceAtEnd(): Unit = {
+    assertArrayEquals((1 to 8).toArray :+ 20, SemanticTokensSync.applyEdits(data, edits((8, 2, Seq(20)))))
+  }
+
+  @Test
+  def appendAfterEnd(): Unit = {
+    assertArrayEquals((1 to 11).toArray, SemanticTokensSync.applyEdits(data, edits((10, 0, Seq(11)))))
+  }
+
+  @Test
+  def deleteEverything(): Unit = {
+    assertArrayEquals(Array.emptyIntArray, SemanticTokensSync.applyEdits(data, edits((0, 10, Nil))))
+  }
+
+  @Test
+  def editsAreAppliedInOrderOfStart(): Unit = {
+    assertArrayEquals(Array(0, 2, 3, 4, 5), SemanticTokensSync.applyEdits(data, edits((5, 5, Nil), (0, 1, Seq(0)))))
+  }
+
+  @Test
+  def noEditsCopiesTheData(): Unit = {
+    val result = SemanticTokensSync.applyEdits(data, edits())
+    assertArrayEquals(data, result)
+    assertNotSame(data, result)
+  }
+
+  @Test
+  def editPastTheEndIsRejected(): Unit = {
+    assertNull(SemanticTokensSync.applyEdits(data, edits((9, 2, Nil))))
+    assertNull(SemanticTokensSync.applyEdits(data, edits((11, 0, Seq(1)))))
+  }
+
+  @Test
+  def overlappingEditsAreRejected(): Unit = {
+    assertNull(SemanticTokensSync.applyEdits(data, edits((0, 3, Nil), (2, 1, Nil))))
+  }
+
+  @Test
+  def decodeMultipleLines(): Unit = {
+    val lines = SemanticTokensSync.decodeLines(tokens, 0, 4)
+    assertEquals(4, lines.length)
+    assertArrayEquals(Array(2, 3, 1, 7, 2, 2), lines(0))
+    assertNull(lines(1))
+    assertArrayEquals(Array(4, 1, 0), lines(2))
+    assertArrayEquals(Array(1, 6, 3), lines(3))
+  }
+
+  @Test
+  def decodeDropsTheTokensOutsideOfTheLines(): Unit = {
+    val lines = SemanticTokensSync.decodeLines(tokens, 1, 3)
+    assertEquals(2, lines.length)
+    assertNull(lines(0))
+    assertArrayEquals(Array(4, 1, 0), lines(1))
+  }
+
+  @Test
+  def decodeIgnoresATruncatedToken(): Unit = {
+    val lines = SemanticTokensSync.decodeLines(tokens.dropRight(2), 0, 4)
+    assertNull(lines(3))
+    assertArrayEquals(Array(4, 1, 0), lines(2))
+  }
+
+  @Test
+  def lineCountOfTheTokens(): Unit = {
+    assertEquals(4, SemanticTokensSync.lineCount(tokens))
+    assertEquals(0, SemanticTokensSync.lineCount(Array.emptyIntArray))
+  }
+}